@@ -6,16 +6,19 @@
 package com.example.yolodetector;
 
 import android.app.Activity;
+import android.app.ActivityManager;
 import android.app.AlertDialog;
 import android.app.Dialog;
 import android.app.DialogFragment;
 import android.app.Fragment;
+import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.DialogInterface;
+import android.content.Intent;
+import android.content.IntentFilter;
 import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
 import android.content.res.Configuration;
-import android.graphics.Bitmap;
 import android.graphics.ImageFormat;
 import android.graphics.Matrix;
 import android.graphics.Point;
@@ -30,15 +33,16 @@ import android.hardware.camera2.CaptureRequest;
 import android.hardware.camera2.CaptureResult;
 import android.hardware.camera2.TotalCaptureResult;
 import android.hardware.camera2.params.StreamConfigurationMap;
+import android.media.Image;
 import android.media.ImageReader;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.HandlerThread;
+import android.os.SystemClock;
 import android.speech.tts.TextToSpeech;
+import android.speech.tts.UtteranceProgressListener;
 import android.support.annotation.NonNull;
 import android.support.v4.content.ContextCompat;
-import android.text.SpannableString;
-import android.text.SpannableStringBuilder;
 import android.util.Log;
 import android.util.Size;
 import android.view.LayoutInflater;
@@ -50,6 +54,13 @@ import android.widget.Button;
 import android.widget.TextView;
 import android.widget.Toast;
 import android.support.v13.app.FragmentCompat;
+import com.example.yolodetector.core.DetectionFuture;
+import com.example.yolodetector.core.FrameScheduler;
+import com.example.yolodetector.core.LatencyMonitor;
+import com.example.yolodetector.core.ResultSnapshot;
+import com.example.yolodetector.core.StartupTimeline;
+import com.example.yolodetector.core.ThreadCountTuner;
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -57,6 +68,7 @@ import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.Executor;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 
@@ -69,6 +81,16 @@ public class Camera2BasicFragment extends Fragment
     private TextToSpeech t1;
     //private EditText ed1;
     private Button b1;
+
+    /** Announcement being spoken, when it was requested, and the capture time of what it says */
+    private volatile String pendingUtteranceId = null;
+    private volatile long speakRequestNanos = 0;
+    private volatile long announcedCaptureNanos = 0;
+    private int utteranceCount = 0;
+
+    /** Detector and sequence number of the results spoken last */
+    private ImageDetector announcedDetector = null;
+    private long announcedSequence = 0;
     ///////////////   TEXT TO SPEECH  ///////////////
 
 
@@ -80,13 +102,103 @@ public class Camera2BasicFragment extends Fragment
 
     private static final String HANDLE_THREAD_NAME = "CameraBackground";
 
+    private static final String INFERENCE_THREAD_NAME = "Inference";
+
+    private static final String LOADER_THREAD_NAME = "ModelLoader";
+
     private static final int PERMISSIONS_REQUEST_CODE = 1;
 
+    /** Run the uint8 tiny-YOLO, 2-4x faster on CPU-only devices, instead of the float one */
+    private static final boolean USE_QUANTIZED_MODEL = false;
+
+    /** Model being served or loaded; the quantized one also while the battery is low */
+    private volatile boolean useQuantizedModel = USE_QUANTIZED_MODEL;
+
+    /** Guards {@link #imageReader} while a frame's planes are copied out of it */
     private final Object lock = new Object();
-    private boolean runClassifier = false;
     private boolean checkedPermissions = false;
     private TextView textView;
-    private ImageDetector detector;
+    private volatile DetectionOverlayView overlayView;
+    private volatile ImageDetector detector;
+
+    /**
+     * Guards replacing {@link #detector} against stopping; {@link #detectorSession} counts the
+     * stops, so a replacement loaded for an earlier start is closed instead of installed
+     */
+    private final Object detectorLock = new Object();
+    private int detectorSession = 0;
+
+    /** Set by {@link #onDestroy}; detectors that stop serving after it are closed, not parked */
+    private boolean destroyed = false;
+
+    /** Shares the mapped models and keeps replaced detectors warm for the next swap or resume */
+    private final ModelRegistry models = ModelRegistry.get();
+
+    /** Idle interpreter arenas may take up to this share of the app's heap class; none on low-RAM devices */
+    private static final int IDLE_ARENA_HEAP_FRACTION = 4;
+
+    /** Frames older than this when detection picks them up are dropped */
+    private static final long MAX_FRAME_AGE_NANOS = TimeUnit.MILLISECONDS.toNanos(200);
+
+    /** Log the frame counters every this many processed frames */
+    private static final int FRAME_STATS_INTERVAL = 100;
+
+    /** Per-stage latency percentiles are appended to this file in the external files dir */
+    private static final String LATENCY_FILE_NAME = "latency.csv";
+
+    /** Stage timings of every frame, from the sensor to the spoken announcement */
+    private final LatencyMonitor latency = new LatencyMonitor();
+
+    /** Where {@link #latency} is exported, null without external storage */
+    private File latencyFile = null;
+
+    /**
+     * Phases of the current start, from {@link #onResume} to the first announcement: the model,
+     * camera and speech engine start side by side, and this shows which one held it up
+     */
+    private volatile StartupTimeline startup = null;
+
+    /**
+     * Frames in flight between the preprocess, inference and postprocess threads; 2 double
+     * buffers the tensors, 3 triple buffers them. 0 runs every stage on the inference thread.
+     */
+    private static final int PIPELINE_DEPTH = 2;
+
+    /**
+     * Interpreters sharing the model in pipeline mode, each running its own frame with the cores
+     * split between them; on 8 cores and more two small interpreters outrun one large one.
+     */
+    private static final int INTERPRETER_POOL_SIZE = Runtime.getRuntime().availableProcessors() >= 8 ? 2 : 1;
+
+    /**
+     * Record every inference's tensors to the app's external files directory, for replay with
+     * the yolo-core ReplayDriver; inputs as well if {@link #RECORD_INPUTS}.
+     */
+    private static final boolean RECORD_TENSORS = false;
+    private static final boolean RECORD_INPUTS = false;
+
+    /**
+     * Mean absolute luma difference from the last inferred frame, 0 to 255, under which the scene
+     * counts as unchanged and the previous results are reused; 0 turns the gate off.
+     */
+    private static final float SCENE_CHANGE_THRESHOLD = 4f;
+
+    /** Longest time results are reused on an unchanged scene */
+    private static final long SCENE_MAX_REUSE_NANOS = 1_000_000_000L;
+
+    /** Most frames in a row answered from tracked objects instead of inference; 0 runs every frame */
+    private static final int TRACKING_MAX_SKIP_FRAMES = 3;
+
+    /**
+     * Input sizes the detector switches between to hold inference within the budget: smaller
+     * on slow devices for frame rate, larger on fast ones for small objects.
+     */
+    private static final int[] ADAPTIVE_INPUT_SIZES = {320, 416, 608};
+    private static final long INFERENCE_BUDGET_NANOS = 100_000_000L;
+
+    /** Inferences per thread count in the first-start tuning sweep, untimed and timed */
+    private static final int TUNING_WARMUP_RUNS = 2;
+    private static final int TUNING_MEASURED_RUNS = 8;
 
 
     /** Max preview width that is guaranteed by Camera2 API */
@@ -95,6 +207,23 @@ public class Camera2BasicFragment extends Fragment
     /** Max preview height that is guaranteed by Camera2 API */
     private static final int MAX_PREVIEW_HEIGHT = 1080;
 
+    /** Input size of the model as built, before any adaptive resize */
+    private static final int MODEL_INPUT_SIZE = 416;
+
+    /**
+     * Smallest side of the YUV analysis stream: the largest input the detector may run at, so no
+     * input size is upscaled from a smaller crop
+     */
+    private static final int MIN_ANALYSIS_SIZE = largestInputSize();
+
+    private static int largestInputSize() {
+        int largest = MODEL_INPUT_SIZE;
+        for (int size : ADAPTIVE_INPUT_SIZES) {
+            largest = Math.max(largest, size);
+        }
+        return largest;
+    }
+
     /**
      * {@link TextureView.SurfaceTextureListener} handles several lifecycle events on a {@link
      * TextureView}.
@@ -140,6 +269,58 @@ public class Camera2BasicFragment extends Fragment
     /** The {@link android.util.Size} of camera preview. */
     private Size previewSize;
 
+    /** Orientation of the camera sensor, in degrees clockwise */
+    private int sensorOrientation;
+
+    /** Whether camera timestamps use the {@link SystemClock#elapsedRealtimeNanos} time base */
+    private boolean realtimeTimestamps = false;
+
+    /** Timestamps and closes analysis frames for the {@link FrameScheduler} */
+    private static final FrameScheduler.FrameAdapter<Image> IMAGE_ADAPTER =
+            new FrameScheduler.FrameAdapter<Image>() {
+                @Override
+                public long getTimestampNanos(Image image) {
+                    return image.getTimestamp();
+                }
+
+                @Override
+                public void release(Image image) {
+                    image.close();
+                }
+            };
+
+    private static final FrameScheduler.Clock REALTIME_CLOCK =
+            new FrameScheduler.Clock() {
+                @Override
+                public long nanoTime() {
+                    return SystemClock.elapsedRealtimeNanos();
+                }
+            };
+
+    /** Passes every new analysis frame to the scheduler; runs on the camera thread */
+    private final ImageReader.OnImageAvailableListener onImageAvailableListener =
+            new ImageReader.OnImageAvailableListener() {
+                @Override
+                public void onImageAvailable(ImageReader reader) {
+                    Image image;
+                    try {
+                        image = reader.acquireLatestImage();
+                    } catch (IllegalStateException e) {
+                        // All images are held downstream; this frame is skipped.
+                        return;
+                    }
+                    if (image == null) {
+                        return;
+                    }
+                    FrameScheduler<Image> scheduler = frameScheduler;
+                    if (scheduler != null) {
+                        scheduler.offer(image);
+                    } else {
+                        image.close();
+                    }
+                }
+            };
+
     /** {@link CameraDevice.StateCallback} is called when {@link CameraDevice} changes its state. */
     private final CameraDevice.StateCallback stateCallback =
             new CameraDevice.StateCallback() {
@@ -148,6 +329,7 @@ public class Camera2BasicFragment extends Fragment
                 public void onOpened(@NonNull CameraDevice currentCameraDevice) {
                     // This method is called when the camera is opened.  We start camera preview here.
                     cameraOpenCloseLock.release();
+                    endStartupPhase(StartupTimeline.Phase.CAMERA_OPEN);
                     cameraDevice = currentCameraDevice;
                     createCameraPreviewSession();
                 }
@@ -181,7 +363,26 @@ public class Camera2BasicFragment extends Fragment
     /** A {@link Handler} for running tasks in the background. */
     private Handler backgroundHandler;
 
-    /** An {@link ImageReader} that handles image capture. */
+    /** A thread that runs model loading and inference, so camera callbacks never wait on it. */
+    private HandlerThread inferenceThread;
+
+    /** A {@link Handler} for running inference. */
+    private Handler inferenceHandler;
+
+    /**
+     * Builds and warms up replacement detectors while the current one keeps detecting, and
+     * writes the latency exports.
+     */
+    private HandlerThread loaderThread;
+    private Handler loaderHandler;
+
+    /** Hands the latest analysis frame to the inference thread. */
+    private volatile FrameScheduler<Image> frameScheduler;
+
+    /** Clockwise rotation that turns analysis frames upright */
+    private volatile int frameRotation;
+
+    /** An {@link ImageReader} for the low resolution YUV_420_888 analysis stream. */
     private ImageReader imageReader;
 
     /** {@link CaptureRequest.Builder} for the camera preview */
@@ -215,26 +416,36 @@ public class Camera2BasicFragment extends Fragment
      *
      * @param: text The message to show
      */
-    private void showToast(String s) {
-        SpannableStringBuilder builder = new SpannableStringBuilder();
-        SpannableString str1 = new SpannableString(s);
-        builder.append(str1);
-        showToast(builder);
-    }
-
-    private void showToast(SpannableStringBuilder builder) {
+    private void showToast(final String s) {
         final Activity activity = getActivity();
         if (activity != null) {
             activity.runOnUiThread(
                     new Runnable() {
                         @Override
                         public void run() {
-                            textView.setText(builder, TextView.BufferType.SPANNABLE);
+                            textView.setText(s);
                         }
                     });
         }
     }
 
+    /** Hands every frame's results to the overlay, which redraws on the next vsync if they changed */
+    private final ImageDetector.ResultListener resultListener =
+            new ImageDetector.ResultListener() {
+                @Override
+                public void onResults(OverlayFrame frame) {
+                    final DetectionOverlayView view = overlayView;
+                    if (view != null) {
+                        view.publish(frame);
+                    }
+                    final StartupTimeline timeline = startup;
+                    if (timeline != null && !timeline.hasEnded(StartupTimeline.Phase.FIRST_RESULT)) {
+                        timeline.end(StartupTimeline.Phase.FIRST_RESULT, SystemClock.elapsedRealtimeNanos());
+                        Log.d(TAG, timeline.describe());
+                    }
+                }
+            };
+
     /**
      * Resizes image.
      *
@@ -293,6 +504,39 @@ public class Camera2BasicFragment extends Fragment
         }
     }
 
+    /**
+     * Chooses the YUV analysis size: the smallest one with the aspect ratio of the preview whose
+     * sides are both at least {@code minSize}, or the largest with that aspect ratio if none is.
+     * The overlay maps boxes onto the preview as is, so a frame of another shape would misplace
+     * them; only a camera with no analysis size of that shape falls back to the largest of all.
+     *
+     * @param aspectRatio The aspect ratio the preview size was chosen with
+     */
+    private static Size chooseAnalysisSize(Size[] choices, int minSize, Size aspectRatio) {
+        List<Size> sameAspect = new ArrayList<>();
+        List<Size> bigEnough = new ArrayList<>();
+        int w = aspectRatio.getWidth();
+        int h = aspectRatio.getHeight();
+        for (Size option : choices) {
+            if (option.getHeight() != option.getWidth() * h / w) {
+                continue;
+            }
+            sameAspect.add(option);
+            if (option.getWidth() >= minSize && option.getHeight() >= minSize) {
+                bigEnough.add(option);
+            }
+        }
+        if (bigEnough.size() > 0) {
+            return Collections.min(bigEnough, new CompareSizesByArea());
+        } else if (sameAspect.size() > 0) {
+            Log.e(TAG, "Couldn't find a large enough analysis size");
+            return Collections.max(sameAspect, new CompareSizesByArea());
+        } else {
+            Log.e(TAG, "Couldn't find an analysis size with the preview's aspect ratio");
+            return Collections.max(Arrays.asList(choices), new CompareSizesByArea());
+        }
+    }
+
     public static Camera2BasicFragment newInstance() {
         return new Camera2BasicFragment();
     }
@@ -304,40 +548,181 @@ public class Camera2BasicFragment extends Fragment
         return inflater.inflate(R.layout.layout, container, false);
     }
 
+    /**
+     * Builds and warms up a detector for the selected model on the loader thread while the
+     * current one keeps detecting, then swaps it in between two frames.
+     */
     private void updateActiveModel() {
         // Get UI information before delegating to background
 
-        final int numThreads = 4;
+        final Activity activity = getActivity();
+        final boolean quantized = useQuantizedModel;
+        final String modelPath = quantized ? YOLOv2Quantized.MODEL_PATH : YOLOv2.MODEL_PATH;
+
+        final StartupTimeline timeline = startup;
+        final Handler loader = loaderHandler;
+        final Handler inference = inferenceHandler;
+        final int session;
+        synchronized (detectorLock) {
+            session = detectorSession;
+        }
+        loader.post(() -> {
+            ImageDetector ready = models.takeIdle(modelPath);
+            if (ready != null) {
+                // Warm and pipelined still; only its results belong to what it detected before
+                ready.forgetResults();
+                currentNumThreads = ready.getNumThreads();
+            } else {
+                ready = buildDetector(activity, quantized, modelPath, timeline);
+                if (ready == null) {
+                    return;
+                }
+                models.register(ready);
+            }
 
-        backgroundHandler.post(() -> {
+            // Frames are fed on the inference thread, so a swap posted there falls between two
+            final ImageDetector installing = ready;
+            if (!inference.post(() -> installDetector(installing, session, loader))) {
+                park(installing);
+            }
+        });
+    }
 
-            currentNumThreads = numThreads;
+    /**
+     * Builds, configures and warms up a detector for {@code modelPath} on the loader thread, or
+     * returns null if the model fails to load.
+     */
+    private ImageDetector buildDetector(Activity activity, boolean quantized, String modelPath,
+                                        StartupTimeline timeline) {
+        // A tuned thread count builds the interpreter once; otherwise sweep and remember it.
+        final ThreadProfileStore profiles = new ThreadProfileStore(activity);
+        final int tunedThreads = profiles.getNumThreads(modelPath);
 
-            // Disable classifier while updating
+        ImageDetector created;
+        try {
+            created = quantized
+                    ? new YOLOv2Quantized(activity, tunedThreads > 0 ? tunedThreads : -1, timeline)
+                    : new YOLOv2(activity, tunedThreads > 0 ? tunedThreads : -1, timeline);
 
-            if (detector != null) {
-                detector.close();
-                detector = null;
-            }
+        } catch (IOException e) {
+            Log.d(TAG, "Failed to load", e);
+            created = null;
+        }
+        if (created == null) {
+            return null;
+        }
 
-            // Lookup names of parameters.
+        if (tunedThreads <= 0) {
+            final ThreadCountTuner tuner = new ThreadCountTuner(
+                    TUNING_WARMUP_RUNS, TUNING_MEASURED_RUNS, ThreadCountTuner.Metric.P95);
+            final ThreadCountTuner.Result result = created.tuneNumThreads(tuner,
+                    ThreadCountTuner.defaultCandidates(Runtime.getRuntime().availableProcessors()));
+            Log.d(TAG, "Thread tuning for " + modelPath + ": " + result);
+            profiles.putNumThreads(modelPath, result.bestNumThreads);
+        }
 
+        if (RECORD_TENSORS) {
+            final File recording = new File(activity.getExternalFilesDir(null),
+                    "session-" + System.currentTimeMillis() + ".ytr");
             try {
-                detector = new YOLOv2(getActivity());
-
+                created.startRecording(recording, RECORD_INPUTS);
             } catch (IOException e) {
-                Log.d(TAG, "Failed to load", e);
-                detector = null;
+                Log.w(TAG, "Failed to start recording tensors", e);
             }
-            if (detector == null) {
+        }
+
+        if (ADAPTIVE_INPUT_SIZES.length > 0) {
+            created.enableAdaptiveInputSize(ADAPTIVE_INPUT_SIZES, INFERENCE_BUDGET_NANOS);
+        }
+        if (SCENE_CHANGE_THRESHOLD > 0) {
+            created.enableSceneGate(SCENE_CHANGE_THRESHOLD, SCENE_MAX_REUSE_NANOS);
+        }
+        if (TRACKING_MAX_SKIP_FRAMES > 0) {
+            created.enableTracking(TRACKING_MAX_SKIP_FRAMES);
+        }
+        created.setLatencyMonitor(latency);
+        created.setResultListener(resultListener);
+        if (PIPELINE_DEPTH > 0 && INTERPRETER_POOL_SIZE > 1) {
+            final int perInterpreter = Math.max(1, Runtime.getRuntime().availableProcessors() / INTERPRETER_POOL_SIZE);
+            if (created.getNumThreads() <= 0 || created.getNumThreads() > perInterpreter) {
+                created.setNumThreads(perInterpreter);
+            }
+        }
+        currentNumThreads = created.getNumThreads();
+        if (PIPELINE_DEPTH > 0) {
+            // One more slot per extra interpreter keeps each of them fed
+            created.startPipeline(PIPELINE_DEPTH + INTERPRETER_POOL_SIZE - 1, INTERPRETER_POOL_SIZE);
+        }
+        // The first camera frame would otherwise pay for the interpreters' tensor allocation
+        if (timeline != null) {
+            timeline.begin(StartupTimeline.Phase.WARM_UP, SystemClock.elapsedRealtimeNanos());
+        }
+        created.warmUp();
+        if (timeline != null) {
+            timeline.end(StartupTimeline.Phase.WARM_UP, SystemClock.elapsedRealtimeNanos());
+        }
+        return created;
+    }
+
+    /**
+     * Makes {@code created} the detector the next frame goes to, on the inference thread, and
+     * parks the one it replaces once that one's frames in flight are published.
+     */
+    private void installDetector(ImageDetector created, int session, Handler loader) {
+        final ImageDetector retired;
+        synchronized (detectorLock) {
+            if (session != detectorSession) {
+                // Stopped while it loaded
+                park(created);
                 return;
             }
+            retired = detector;
+            detector = created;
+        }
+        Log.d(TAG, "Detecting with " + created.getClass().getSimpleName());
+        if (retired != null && !loader.post(() -> retire(retired))) {
+            retire(retired);
+        }
+    }
 
-            //cpu should be default, set thread to 4
-            detector.setNumThreads(numThreads);
+    /** Waits for the frames {@code retired} still has in flight, then keeps it for reuse */
+    private void retire(ImageDetector retired) {
+        retired.awaitIdle();
+        park(retired);
+    }
 
+    /**
+     * Keeps a detector that stopped serving for the next swap or resume, or closes it once the
+     * fragment is destroyed: {@link #onDestroy} has already closed the idle ones, and this one
+     * would still publish to the fragment's listener.
+     */
+    private void park(ImageDetector stopped) {
+        synchronized (detectorLock) {
+            if (!destroyed) {
+                models.park(stopped);
+                return;
+            }
+        }
+        stopped.close();
+    }
 
-        });
+    /** Switches to the quantized model, faster and lighter, while the battery is low */
+    private final BroadcastReceiver batteryReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            setQuantizedModel(USE_QUANTIZED_MODEL || Intent.ACTION_BATTERY_LOW.equals(intent.getAction()));
+        }
+    };
+
+    /** Swaps in the quantized or the float model, without a gap in detection */
+    void setQuantizedModel(boolean quantized) {
+        if (quantized == useQuantizedModel) {
+            return;
+        }
+        useQuantizedModel = quantized;
+        if (loaderHandler != null) {
+            updateActiveModel();
+        }
     }
 
     /** Connect the buttons to their event handler. */
@@ -348,6 +733,14 @@ public class Camera2BasicFragment extends Fragment
         // Get references to widgets.
         textureView = (AutoFitTextureView) view.findViewById(R.id.texture);
         textView = (TextView) view.findViewById(R.id.text);
+        final DetectionOverlayView overlay = (DetectionOverlayView) view.findViewById(R.id.overlay);
+        overlay.setLatencyMonitor(latency);
+        overlayView = overlay;
+
+        final ActivityManager activityManager =
+                (ActivityManager) getActivity().getSystemService(Context.ACTIVITY_SERVICE);
+        models.setBudgetBytes(activityManager.isLowRamDevice()
+                ? 0 : activityManager.getMemoryClass() * 1024L * 1024 / IDLE_ARENA_HEAP_FRACTION);
         //deviceView = (ListView) view.findViewById(R.id.device);
 
         //Text to speech
@@ -356,24 +749,34 @@ public class Camera2BasicFragment extends Fragment
         //ed1 = (EditText) view.findViewById(R.id.editText5);
         b1 = (Button) view.findViewById(R.id.button2);
 
-        t1 = new TextToSpeech(getActivity().getApplicationContext(), new TextToSpeech.OnInitListener() {
-            @Override
-            public void onInit(int status) {
-                if(status!= TextToSpeech.ERROR){
-                    t1.setLanguage(Locale.US);
-                }
-            }
-        });
-
         b1.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View view) {
-                String toSpeak = detector.getObjLocation();
+                final ImageDetector current = detector;
+                if (current == null) {
+                    // Still starting
+                    return;
+                }
+                final ResultSnapshot results = current.getLatestResults();
+                // Pressing again while the same frame is still being spoken would only restart it
+                if (current == announcedDetector && results.getSequence() == announcedSequence
+                        && t1.isSpeaking()) {
+                    return;
+                }
+                String toSpeak = current.describeLocations(results);
                 Toast.makeText(getActivity().getApplicationContext(),toSpeak, Toast.LENGTH_SHORT).show();
-                t1.speak(toSpeak,TextToSpeech.QUEUE_FLUSH,null);
+                announcedDetector = current;
+                announcedSequence = results.getSequence();
+                announcedCaptureNanos = results.getCaptureNanos();
+                speakRequestNanos = System.nanoTime();
+                pendingUtteranceId = "announcement-" + (++utteranceCount);
+                t1.speak(toSpeak, TextToSpeech.QUEUE_FLUSH, null, pendingUtteranceId);
             }
         });
 
+        final File externalFiles = getActivity().getExternalFilesDir(null);
+        latencyFile = externalFiles != null ? new File(externalFiles, LATENCY_FILE_NAME) : null;
+
         ///////////////   TEXT TO SPEECH  /////////////////
 
 
@@ -384,17 +787,23 @@ public class Camera2BasicFragment extends Fragment
 
 
 
-    /** Load the model and labels. */
+    /** The model and labels are loaded by {@link #onResume}, which always follows. */
     @Override
     public void onActivityCreated(Bundle savedInstanceState) {
         super.onActivityCreated(savedInstanceState);
-        startBackgroundThread();
     }
 
     @Override
     public void onResume() {
         super.onResume();
+        // The speech engine binds, the model loads on the loader thread and the camera opens
+        // on the background thread, all at once
+        startup = new StartupTimeline(SystemClock.elapsedRealtimeNanos());
+        startSpeech();
         startBackgroundThread();
+        final IntentFilter battery = new IntentFilter(Intent.ACTION_BATTERY_LOW);
+        battery.addAction(Intent.ACTION_BATTERY_OKAY);
+        getActivity().registerReceiver(batteryReceiver, battery);
 
         // When the screen is turned off and turned back on, the SurfaceTexture is already
         // available, and "onSurfaceTextureAvailable" will not be called. In that case, we can open
@@ -407,8 +816,63 @@ public class Camera2BasicFragment extends Fragment
         }
     }
 
+    /** Starts the speech engine; {@link #onPause} shuts it down */
+    private void startSpeech() {
+        beginStartupPhase(StartupTimeline.Phase.TTS_INIT);
+        t1 = new TextToSpeech(getActivity().getApplicationContext(), new TextToSpeech.OnInitListener() {
+            @Override
+            public void onInit(int status) {
+                if(status!= TextToSpeech.ERROR){
+                    t1.setLanguage(Locale.US);
+                }
+                endStartupPhase(StartupTimeline.Phase.TTS_INIT);
+            }
+        });
+        t1.setOnUtteranceProgressListener(new UtteranceProgressListener() {
+            @Override
+            public void onStart(String utteranceId) {
+                if (!utteranceId.equals(pendingUtteranceId)) {
+                    return;
+                }
+                latency.record(LatencyMonitor.Stage.TTS_START, System.nanoTime() - speakRequestNanos);
+                if (announcedCaptureNanos > 0) {
+                    latency.record(LatencyMonitor.Stage.GLASS_TO_VOICE,
+                            SystemClock.elapsedRealtimeNanos() - announcedCaptureNanos);
+                }
+                final StartupTimeline timeline = startup;
+                if (timeline != null && !timeline.hasEnded(StartupTimeline.Phase.FIRST_SPEECH)) {
+                    timeline.end(StartupTimeline.Phase.FIRST_SPEECH, SystemClock.elapsedRealtimeNanos());
+                    Log.d(TAG, timeline.describe());
+                }
+            }
+
+            @Override
+            public void onDone(String utteranceId) {
+            }
+
+            @Override
+            public void onError(String utteranceId) {
+            }
+        });
+    }
+
+    private void beginStartupPhase(StartupTimeline.Phase phase) {
+        final StartupTimeline timeline = startup;
+        if (timeline != null) {
+            timeline.begin(phase, SystemClock.elapsedRealtimeNanos());
+        }
+    }
+
+    private void endStartupPhase(StartupTimeline.Phase phase) {
+        final StartupTimeline timeline = startup;
+        if (timeline != null) {
+            timeline.end(phase, SystemClock.elapsedRealtimeNanos());
+        }
+    }
+
     @Override
     public void onPause() {
+        getActivity().unregisterReceiver(batteryReceiver);
         closeCamera();
         stopBackgroundThread();
         //super.onPause();
@@ -429,9 +893,21 @@ public class Camera2BasicFragment extends Fragment
         if (detector != null) {
             detector.close();
         }
+        // A detector the stopped threads are still retiring or loading closes itself from here
+        synchronized (detectorLock) {
+            destroyed = true;
+        }
+        // Parked detectors still publish to this fragment's listener
+        models.closeIdle();
         super.onDestroy();
     }
 
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        models.trim(level);
+    }
+
     /**
      * Sets up member variables related to camera.
      *
@@ -457,20 +933,43 @@ public class Camera2BasicFragment extends Fragment
                     continue;
                 }
 
-                // // For still image captures, we use the largest available size.
+                // The largest still capture size gives the sensor's aspect ratio for the preview.
                 Size largest =
                         Collections.max(
                                 Arrays.asList(map.getOutputSizes(ImageFormat.JPEG)), new CompareSizesByArea());
+
+                // Detection reads a small YUV stream instead of reading back the preview, in the
+                // preview's aspect ratio so the overlay lines up with it.
+                Size analysisSize =
+                        chooseAnalysisSize(map.getOutputSizes(ImageFormat.YUV_420_888), MIN_ANALYSIS_SIZE, largest);
+                // One image in the mailbox, one being copied and two for acquireLatestImage.
                 imageReader =
                         ImageReader.newInstance(
-                                largest.getWidth(), largest.getHeight(), ImageFormat.JPEG, /*maxImages*/ 2);
+                                analysisSize.getWidth(), analysisSize.getHeight(),
+                                ImageFormat.YUV_420_888, /*maxImages*/ 4);
+                imageReader.setOnImageAvailableListener(onImageAvailableListener, backgroundHandler);
 
                 // Find out if we need to swap dimension to get the preview size relative to sensor
                 // coordinate.
                 int displayRotation = activity.getWindowManager().getDefaultDisplay().getRotation();
                 // noinspection ConstantConditions
                 /* Orientation of the camera sensor */
-                int sensorOrientation = characteristics.get(CameraCharacteristics.SENSOR_ORIENTATION);
+                sensorOrientation = characteristics.get(CameraCharacteristics.SENSOR_ORIENTATION);
+                frameRotation = getFrameRotation();
+
+                // Frame age is only comparable with the system clock on a realtime time base.
+                realtimeTimestamps = false;
+                if (android.os.Build.VERSION.SDK_INT >= android.os.Build.VERSION_CODES.M) {
+                    Integer timestampSource =
+                            characteristics.get(CameraCharacteristics.SENSOR_INFO_TIMESTAMP_SOURCE);
+                    realtimeTimestamps = timestampSource != null
+                            && timestampSource == CameraCharacteristics.SENSOR_INFO_TIMESTAMP_SOURCE_REALTIME;
+                }
+                FrameScheduler<Image> scheduler = frameScheduler;
+                if (scheduler != null) {
+                    scheduler.setMaxFrameAgeNanos(
+                            realtimeTimestamps ? MAX_FRAME_AGE_NANOS : FrameScheduler.NO_DEADLINE);
+                }
                 boolean swappedDimensions = false;
                 switch (displayRotation) {
                     case Surface.ROTATION_0:
@@ -575,6 +1074,7 @@ public class Camera2BasicFragment extends Fragment
             if (!cameraOpenCloseLock.tryAcquire(2500, TimeUnit.MILLISECONDS)) {
                 throw new RuntimeException("Time out waiting to lock camera opening.");
             }
+            beginStartupPhase(StartupTimeline.Phase.CAMERA_OPEN);
             manager.openCamera(cameraId, stateCallback, backgroundHandler);
         } catch (CameraAccessException e) {
             Log.e(TAG, "Failed to open Camera", e);
@@ -611,9 +1111,11 @@ public class Camera2BasicFragment extends Fragment
                 cameraDevice.close();
                 cameraDevice = null;
             }
-            if (null != imageReader) {
-                imageReader.close();
-                imageReader = null;
+            synchronized (lock) {
+                if (null != imageReader) {
+                    imageReader.close();
+                    imageReader = null;
+                }
             }
         } catch (InterruptedException e) {
             throw new RuntimeException("Interrupted while trying to lock camera closing.", e);
@@ -622,48 +1124,75 @@ public class Camera2BasicFragment extends Fragment
         }
     }
 
-    /** Starts a background thread and its {@link Handler}. */
+    /** Starts the background and inference threads and their {@link Handler}s. */
     private void startBackgroundThread() {
         backgroundThread = new HandlerThread(HANDLE_THREAD_NAME);
         backgroundThread.start();
         backgroundHandler = new Handler(backgroundThread.getLooper());
-        // Start the classification train & load an initial model.
-        synchronized (lock) {
-            runClassifier = true;
-        }
-        backgroundHandler.post(periodicClassify);
+        inferenceThread = new HandlerThread(INFERENCE_THREAD_NAME);
+        inferenceThread.start();
+        inferenceHandler = new Handler(inferenceThread.getLooper());
+        loaderThread = new HandlerThread(LOADER_THREAD_NAME);
+        loaderThread.start();
+        loaderHandler = new Handler(loaderThread.getLooper());
+
+        // Classify frames as they arrive & load an initial model.
+        final Handler handler = inferenceHandler;
+        frameScheduler =
+                new FrameScheduler<>(
+                        new Executor() {
+                            @Override
+                            public void execute(Runnable command) {
+                                handler.post(command);
+                            }
+                        },
+                        new FrameScheduler.FrameProcessor<Image>() {
+                            @Override
+                            public void process(Image image) {
+                                classifyFrame(image);
+                            }
+                        },
+                        IMAGE_ADAPTER,
+                        REALTIME_CLOCK,
+                        realtimeTimestamps ? MAX_FRAME_AGE_NANOS : FrameScheduler.NO_DEADLINE);
         updateActiveModel();
     }
 
-    /** Stops the background thread and its {@link Handler}. */
+    /**
+     * Stops the background, inference and loader threads and their {@link Handler}s. Does not
+     * wait for a frame that is still being detected; the detector is parked on the inference
+     * thread once that frame is done. A detector still loading is parked when it is ready. Either
+     * is closed instead if the fragment is destroyed by then.
+     */
     private void stopBackgroundThread() {
+        frameScheduler.pause();
+        final ImageDetector retired;
+        synchronized (detectorLock) {
+            detectorSession++;
+            retired = detector;
+            detector = null;
+        }
+        if (retired != null) {
+            inferenceHandler.post(() -> retire(retired));
+        }
+        loaderThread.quitSafely();
+        loaderThread = null;
+        loaderHandler = null;
+        inferenceThread.quitSafely();
+        inferenceThread = null;
+        inferenceHandler = null;
+
         backgroundThread.quitSafely();
         try {
             backgroundThread.join();
             backgroundThread = null;
             backgroundHandler = null;
-            synchronized (lock) {
-                runClassifier = false;
-            }
+            frameScheduler = null;
         } catch (InterruptedException e) {
             Log.e(TAG, "Interrupted when stopping background thread", e);
         }
     }
 
-    /** Takes photos and classify them periodically. */
-    private Runnable periodicClassify =
-            new Runnable() {
-                @Override
-                public void run() {
-                    synchronized (lock) {
-                        if (runClassifier) {
-                            classifyFrame();  //TODO: detectFrame()
-                        }
-                    }
-                    backgroundHandler.post(periodicClassify);
-                }
-            };
-
     /** Creates a new {@link CameraCaptureSession} for camera preview. */
     private void createCameraPreviewSession() {
         try {
@@ -676,13 +1205,17 @@ public class Camera2BasicFragment extends Fragment
             // This is the output Surface we need to start preview.
             Surface surface = new Surface(texture);
 
-            // We set up a CaptureRequest.Builder with the output Surface.
+            // Frames for detection arrive on the analysis stream.
+            Surface analysisSurface = imageReader.getSurface();
+
+            // We set up a CaptureRequest.Builder with the output Surfaces.
             previewRequestBuilder = cameraDevice.createCaptureRequest(CameraDevice.TEMPLATE_PREVIEW);
             previewRequestBuilder.addTarget(surface);
+            previewRequestBuilder.addTarget(analysisSurface);
 
-            // Here, we create a CameraCaptureSession for camera preview.
+            // Here, we create a CameraCaptureSession for camera preview and analysis.
             cameraDevice.createCaptureSession(
-                    Arrays.asList(surface),
+                    Arrays.asList(surface, analysisSurface),
                     new CameraCaptureSession.StateCallback() {
 
                         @Override
@@ -754,20 +1287,103 @@ public class Camera2BasicFragment extends Fragment
         textureView.setTransform(matrix);
     }
 
-    /** Classifies a frame from the preview stream. */
-    private void classifyFrame() {
+    /** Clockwise rotation that turns analysis frames upright for the current display rotation */
+    private int getFrameRotation() {
+        Activity activity = getActivity();
+        int displayRotation = activity.getWindowManager().getDefaultDisplay().getRotation();
+        int displayDegrees;
+        switch (displayRotation) {
+            case Surface.ROTATION_90:
+                displayDegrees = 90;
+                break;
+            case Surface.ROTATION_180:
+                displayDegrees = 180;
+                break;
+            case Surface.ROTATION_270:
+                displayDegrees = 270;
+                break;
+            default:
+                displayDegrees = 0;
+                break;
+        }
+        return (sensorOrientation - displayDegrees + 360) % 360;
+    }
 
-        if (detector == null || getActivity() == null || cameraDevice == null) {
-            // It's important to not call showToast every frame, or else the app will starve and
-            // hang. updateActiveModel() already puts a error message up with showToast.
-            // showToast("Uninitialized detector or invalid context.");
-            return;
+    /** {@link #imageReader} as the detectors see it: closed under {@link #lock} */
+    private final Detector.ImageSource imageSource = new Detector.ImageSource() {
+        @Override
+        public Object getLock() {
+            return lock;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return imageReader != null;
+        }
+    };
+
+    /** Logs frames that fail; the results of the others reach the overlay through its listener */
+    private final DetectionFuture.Callback frameFailureLogger = new DetectionFuture.Callback() {
+        @Override
+        public void onResults(ResultSnapshot results) {
+        }
+
+        @Override
+        public void onFailure(Throwable cause) {
+            Log.w(TAG, "Frame not detected", cause);
+        }
+    };
+
+    /** Classifies a frame from the analysis stream; runs on the inference thread. */
+    private void classifyFrame(Image image) {
+        final ImageDetector current = detector;
+        try {
+            if (current == null || getActivity() == null || cameraDevice == null) {
+                // It's important to not call showToast every frame, or else the app will starve and
+                // hang. updateActiveModel() already puts a error message up with showToast.
+                // showToast("Uninitialized detector or invalid context.");
+                return;
+            }
+            // Closing the camera closes the reader and its images, so only the plane copy holds
+            // the lock; waiting for the pipeline and inference run without it.
+            current.detect(image, frameRotation, realtimeTimestamps, imageSource).addCallback(frameFailureLogger);
+        } finally {
+            image.close();
+        }
+
+        FrameScheduler<Image> scheduler = frameScheduler;
+        if (scheduler != null && (scheduler.getFramesProcessed() + 1) % FRAME_STATS_INTERVAL == 0) {
+            Log.d(TAG, "Frames captured: " + scheduler.getFramesCaptured()
+                    + " dropped: " + scheduler.getFramesDropped()
+                    + " processed: " + (scheduler.getFramesProcessed() + 1));
+            if (current.isPipelined()) {
+                Log.d(TAG, current.describePipeline());
+            }
+            if (SCENE_CHANGE_THRESHOLD > 0) {
+                Log.d(TAG, current.describeSceneGate());
+            }
+            if (TRACKING_MAX_SKIP_FRAMES > 0) {
+                Log.d(TAG, current.describeTracking());
+            }
+            Log.d(TAG, latency.describe());
+            Log.d(TAG, models.describe());
+            // File I/O stays off the inference thread; the histograms can be read from any thread.
+            final File file = latencyFile;
+            final Handler loader = loaderHandler;
+            if (file != null && loader != null) {
+                final long timeMillis = System.currentTimeMillis();
+                loader.post(() -> exportLatency(file, timeMillis));
+            }
+        }
+    }
+
+    /** Appends the latency percentiles to {@code file}; runs on the loader thread. */
+    private void exportLatency(File file, long timeMillis) {
+        try {
+            latency.appendCsv(file, timeMillis);
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to export latencies to " + file, e);
         }
-        SpannableStringBuilder textToShow = new SpannableStringBuilder();
-        Bitmap bitmap = textureView.getBitmap(detector.getW(), detector.getH());
-        detector.detectFrame(bitmap, textToShow);
-        bitmap.recycle();
-        showToast(textToShow);
     }
 
     /** Compares two {@code Size}s based on their areas. */
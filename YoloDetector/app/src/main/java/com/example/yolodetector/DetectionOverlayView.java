@@ -0,0 +1,226 @@
+package com.example.yolodetector;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.util.AttributeSet;
+import android.util.TypedValue;
+import android.view.View;
+import com.example.yolodetector.core.LatencyMonitor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Draws detection boxes, the top labels and a status line over the camera preview.
+ *
+ * Any thread hands over a frame with {@link #publish}, which only copies it into a pending
+ * buffer. The pending frame is applied at most once per display vsync, on the UI thread, and the
+ * view is invalidated only when the boxes or labels differ from what is on screen; timings in
+ * the status line alone refresh it at most every {@link #STATUS_REFRESH_NANOS}. Paints and text
+ * buffers are allocated once, so drawing makes no garbage.
+ *
+ * Boxes are in model input coordinates; the input is the largest centered crop of the frame with
+ * its aspect ratio, which this view maps onto the same crop of itself, so it must cover the
+ * preview exactly.
+ */
+public class DetectionOverlayView extends View {
+
+    /** Shortest interval between redraws for a changed status line alone */
+    private static final long STATUS_REFRESH_NANOS = 500_000_000L;
+
+    /** Top labels above this probability are drawn in the primary color */
+    private static final float PROB_THRESHOLD = 0.3f;
+
+    private static final int SECONDARY_COLOR = 0xffddaa88;
+
+    private static final int BOX_COLOR = 0xff00e676;
+
+    /** The first top label is drawn this much larger */
+    private static final float HEADLINE_SCALE = 1.25f;
+
+    /** Written by {@link #publish}, read by {@link #applyPending}; guarded by itself */
+    private final OverlayFrame pending = new OverlayFrame();
+
+    /** What is on screen; UI thread only */
+    private final OverlayFrame shown = new OverlayFrame();
+
+    /** Whether {@link #applyPending} is posted for the next vsync */
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    private long statusShownNanos = 0;
+
+    /** Set when {@link #shown} changes, cleared by the draw that records its latency */
+    private boolean drawPending = false;
+
+    private volatile LatencyMonitor latency = null;
+
+    private final Paint boxPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint tagBackgroundPaint = new Paint();
+    private final Paint tagTextPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint labelPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint headlinePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint statusPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private final Paint panelPaint = new Paint();
+
+    /** Text of one box tag or label line, built without Strings */
+    private final char[] text = new char[64];
+    private final StringBuilder line = new StringBuilder(64);
+    private final char[] statusText = new char[256];
+    private final Paint.FontMetrics tagMetrics = new Paint.FontMetrics();
+
+    private final float padding;
+
+    private final Runnable applyPending = new Runnable() {
+        @Override
+        public void run() {
+            applyPending();
+        }
+    };
+
+    public DetectionOverlayView(Context context) {
+        this(context, null);
+    }
+
+    public DetectionOverlayView(Context context, AttributeSet attrs) {
+        this(context, attrs, 0);
+    }
+
+    public DetectionOverlayView(Context context, AttributeSet attrs, int defStyle) {
+        super(context, attrs, defStyle);
+        final float textSize = TypedValue.applyDimension(
+                TypedValue.COMPLEX_UNIT_SP, 16, getResources().getDisplayMetrics());
+        padding = textSize / 4;
+        boxPaint.setStyle(Paint.Style.STROKE);
+        boxPaint.setStrokeWidth(textSize / 6);
+        boxPaint.setColor(BOX_COLOR);
+        tagBackgroundPaint.setColor(BOX_COLOR);
+        tagTextPaint.setColor(Color.BLACK);
+        tagTextPaint.setTextSize(textSize);
+        labelPaint.setTextSize(textSize);
+        labelPaint.setFakeBoldText(true);
+        headlinePaint.setTextSize(textSize * HEADLINE_SCALE);
+        headlinePaint.setFakeBoldText(true);
+        statusPaint.setTextSize(textSize * 0.8f);
+        statusPaint.setColor(Color.LTGRAY);
+        panelPaint.setColor(0x803d1eff);
+    }
+
+    /** Records the time from {@link #publish} to the frame being drawn as the UI publish stage */
+    void setLatencyMonitor(LatencyMonitor monitor) {
+        latency = monitor;
+    }
+
+    /** Shows {@code frame} from the next vsync on; callable from any thread, copies the frame */
+    void publish(OverlayFrame frame) {
+        synchronized (pending) {
+            pending.copyFrom(frame);
+            pending.publishedNanos = System.nanoTime();
+        }
+        if (scheduled.compareAndSet(false, true)) {
+            postOnAnimation(applyPending);
+        }
+    }
+
+    private void applyPending() {
+        scheduled.set(false);
+        final long now = System.nanoTime();
+        boolean changed = false;
+        synchronized (pending) {
+            if (!shown.sameResultsAs(pending)) {
+                shown.copyFrom(pending);
+                changed = true;
+            } else if (!shown.sameStatusAs(pending) && now - statusShownNanos >= STATUS_REFRESH_NANOS) {
+                shown.copyStatusFrom(pending);
+                shown.publishedNanos = pending.publishedNanos;
+                changed = true;
+            }
+        }
+        if (changed) {
+            statusShownNanos = now;
+            drawPending = true;
+            invalidate();
+        }
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        drawBoxes(canvas);
+        drawLabels(canvas);
+        final LatencyMonitor monitor = latency;
+        if (drawPending && monitor != null) {
+            monitor.record(LatencyMonitor.Stage.UI_PUBLISH, System.nanoTime() - shown.publishedNanos);
+        }
+        drawPending = false;
+    }
+
+    private void drawBoxes(Canvas canvas) {
+        if (shown.boxCount == 0 || shown.sourceWidth == 0 || shown.sourceHeight == 0) {
+            return;
+        }
+        // Centered crop of this view with the source aspect ratio
+        final float scale = Math.min((float) getWidth() / shown.sourceWidth, (float) getHeight() / shown.sourceHeight);
+        final float offsetX = (getWidth() - shown.sourceWidth * scale) / 2;
+        final float offsetY = (getHeight() - shown.sourceHeight * scale) / 2;
+        final Paint.FontMetrics metrics = tagMetrics;
+        tagTextPaint.getFontMetrics(metrics);
+        for (int i = 0; i < shown.boxCount; ++i) {
+            final float left = offsetX + shown.left[i] * scale;
+            final float top = offsetY + shown.top[i] * scale;
+            canvas.drawRect(left, top, offsetX + shown.right[i] * scale, offsetY + shown.bottom[i] * scale, boxPaint);
+
+            line.setLength(0);
+            line.append(shown.names[i]).append(' ').append(OverlayFrame.percent(shown.scores[i])).append('%');
+            final int length = toChars(line, text);
+            final float width = tagTextPaint.measureText(text, 0, length);
+            final float height = metrics.descent - metrics.ascent;
+            final float tagTop = Math.max(0, top - height - 2 * padding);
+            canvas.drawRect(left, tagTop, left + width + 2 * padding, tagTop + height + 2 * padding, tagBackgroundPaint);
+            canvas.drawText(text, 0, length, left + padding, tagTop + padding - metrics.ascent, tagTextPaint);
+        }
+    }
+
+    /** Top labels, highest first and larger, then the status line, in a panel at the bottom left */
+    private void drawLabels(Canvas canvas) {
+        final int statusLength = toChars(shown.status, statusText);
+        if (shown.labelCount == 0 && statusLength == 0) {
+            return;
+        }
+        float height = statusLength > 0 ? statusPaint.getFontSpacing() : 0;
+        float width = statusLength > 0 ? statusPaint.measureText(statusText, 0, statusLength) : 0;
+        for (int i = 0; i < shown.labelCount; ++i) {
+            final Paint paint = i == 0 ? headlinePaint : labelPaint;
+            final int length = labelLine(i);
+            height += paint.getFontSpacing();
+            width = Math.max(width, paint.measureText(text, 0, length));
+        }
+        float y = getHeight() - height - 2 * padding;
+        canvas.drawRect(0, y, width + 2 * padding, getHeight(), panelPaint);
+        y += padding;
+        for (int i = 0; i < shown.labelCount; ++i) {
+            final Paint paint = i == 0 ? headlinePaint : labelPaint;
+            paint.setColor(shown.labelProbs[i] > PROB_THRESHOLD ? Color.WHITE : SECONDARY_COLOR);
+            final int length = labelLine(i);
+            y += paint.getFontSpacing();
+            canvas.drawText(text, 0, length, padding, y - paint.descent(), paint);
+        }
+        if (statusLength > 0) {
+            y += statusPaint.getFontSpacing();
+            canvas.drawText(statusText, 0, statusLength, padding, y - statusPaint.descent(), statusPaint);
+        }
+    }
+
+    /** Writes "name: 0.87" of top label {@code rank} into {@link #text} and returns its length */
+    private int labelLine(int rank) {
+        line.setLength(0);
+        line.append(shown.labelNames[rank]).append(": ");
+        OverlayFrame.appendFixed(line, shown.labelProbs[rank], 2);
+        return toChars(line, text);
+    }
+
+    private static int toChars(StringBuilder source, char[] target) {
+        final int length = Math.min(source.length(), target.length);
+        source.getChars(0, length, target, 0);
+        return length;
+    }
+}
@@ -1,8 +1,20 @@
 package com.example.yolodetector;
 
+import android.graphics.Bitmap;
 import android.graphics.RectF;
+import android.media.Image;
+import com.example.yolodetector.core.DetectionFuture;
+import com.example.yolodetector.core.ResultPublisher;
+import com.example.yolodetector.core.ResultSnapshot;
+import java.util.ArrayList;
 import java.util.List;
 
+/**
+ * Detects objects frame by frame. Each frame's results are an immutable {@link ResultSnapshot},
+ * from the frame's {@link DetectionFuture} or from a subscriber. A snapshot's
+ * {@link ResultSnapshot#copyTo} replaces {@code recognizeImage(DetectionBatch)}, and
+ * {@link Recognition#listOf} replaces {@code recognizeImage()}.
+ */
 public interface Detector {
 
     public class Recognition {
@@ -18,12 +30,22 @@ public interface Detector {
         /**Location of an detected object*/
         private RectF location;
 
+        /**Tracker id that follows the object across frames, -1 if untracked*/
+        private final int trackId;
+
         public Recognition(
                 final int id, final String name, final Float confidence, final RectF location) {
+            this(id, name, confidence, location, -1);
+        }
+
+        public Recognition(
+                final int id, final String name, final Float confidence, final RectF location,
+                final int trackId) {
             this.id = id;
             this.name = name;
             this.confidence = confidence;
             this.location = location;
+            this.trackId = trackId;
         }
 
         public int getId() {
@@ -42,10 +64,57 @@ public interface Detector {
             return new RectF(location);
         }
 
+        public int getTrackId() {
+            return trackId;
+        }
+
+        /** Builds a Recognition per detection of one frame's results */
+        public static List<Recognition> listOf(ResultSnapshot results, String[] labels) {
+            final List<Recognition> recognitions = new ArrayList<>(results.size());
+            for (int i = 0; i < results.size(); ++i) {
+                recognitions.add(new Recognition(results.getId(i), labels[results.getId(i)], results.getScore(i),
+                        new RectF(results.getX1(i), results.getY1(i), results.getX2(i), results.getY2(i)),
+                        results.getTrackId(i)));
+            }
+            return recognitions;
+        }
+
+    }
+
+    /**
+     * Queues a camera frame for detection and returns without waiting for its results. The
+     * results come in the future, tied to the frame by the image's timestamp, so frames can
+     * overlap in a pipeline or on several interpreters.
+     *
+     * @param rotation clockwise rotation in degrees that turns the frame upright
+     * @param realtimeTimestamps whether the camera timestamps frames in the
+     *                           elapsedRealtimeNanos base
+     */
+    DetectionFuture detect(Image image, int rotation, boolean realtimeTimestamps);
+
+    /** The reader of a camera image, which another thread may close while a frame is detected */
+    interface ImageSource {
+        /** Held while the image's planes are copied; the reader is closed under it */
+        Object getLock();
+
+        /** Whether the reader, and so its images, is still open; asked under {@link #getLock} */
+        boolean isOpen();
     }
 
     /**
-     * Template function to recognize an image
+     * Like {@link #detect(Image, int, boolean)}, but copies the planes under {@code source}'s
+     * lock and fails the frame if the reader is closed by then
      */
-    List<Recognition> recognizeImage();
+    DetectionFuture detect(Image image, int rotation, boolean realtimeTimestamps, ImageSource source);
+
+    /** Detects a bitmap taken at {@code timestampNanos}, in the elapsedRealtimeNanos base */
+    DetectionFuture detect(Bitmap bitmap, long timestampNanos);
+
+    /** Receives the results of every frame, in order, whoever submitted it */
+    void subscribe(ResultPublisher.Subscriber subscriber);
+
+    void unsubscribe(ResultPublisher.Subscriber subscriber);
+
+    /** Class name of a detection's id */
+    String getLabel(int id);
 }
\ No newline at end of file
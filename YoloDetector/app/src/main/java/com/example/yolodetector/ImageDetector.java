@@ -4,30 +4,43 @@
 package com.example.yolodetector;
 
 import android.app.Activity;
-import android.content.res.AssetFileDescriptor;
 import android.graphics.Bitmap;
+import android.media.Image;
+import android.os.Debug;
 import android.os.SystemClock;
-import android.text.SpannableString;
-import android.text.SpannableStringBuilder;
-import android.text.style.ForegroundColorSpan;
-import android.text.style.RelativeSizeSpan;
 import android.util.Log;
+import com.example.yolodetector.core.DetectionBatch;
+import com.example.yolodetector.core.DetectionFuture;
+import com.example.yolodetector.core.DetectionPipeline;
+import com.example.yolodetector.core.ImagePreprocessor;
+import com.example.yolodetector.core.InputSizeController;
+import com.example.yolodetector.core.LatencyMonitor;
+import com.example.yolodetector.core.ResultPublisher;
+import com.example.yolodetector.core.ResultSnapshot;
+import com.example.yolodetector.core.SceneChangeGate;
+import com.example.yolodetector.core.StartupTimeline;
+import com.example.yolodetector.core.TensorRecorder;
+import com.example.yolodetector.core.TensorRecording;
+import com.example.yolodetector.core.ThreadCountTuner;
+import com.example.yolodetector.core.TopKSelector;
+import com.example.yolodetector.core.YuvConverter;
 import java.io.BufferedReader;
-import java.io.FileInputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
 import java.nio.MappedByteBuffer;
-import java.nio.channels.FileChannel;
-import java.util.AbstractMap;
 import java.util.ArrayList;
-import java.util.Comparator;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.PriorityQueue;
+import org.tensorflow.lite.DataType;
 import org.tensorflow.lite.Delegate;
 import org.tensorflow.lite.Interpreter;
+import org.tensorflow.lite.Tensor;
 
 
 public abstract class ImageDetector {
@@ -40,195 +53,1070 @@ public abstract class ImageDetector {
 
     private static final int PIXEL_DIM = 3;
 
+    /** Threads that convert pixel rows into the input tensor; the caller is one of them */
+    private static final int PREPROCESS_THREADS = 2;
+
     /** Preallocated buffers for storing image data in. */
-    private int[] intValues = new int[getW() * getH()];
+    private int[] intValues;
 
-    /** Options for configuring the Interpreter. */
-    private final Interpreter.Options tfliteOptions = new Interpreter.Options();
+    /** Input size of the interpreter, read from its input tensor */
+    private int inputWidth;
+    private int inputHeight;
 
     /** tflite model file */
     private MappedByteBuffer tfliteModel;
 
-    /** tflite model interpreter */
+    /** Interpreters over {@link #tfliteModel}, one per inference worker */
+    private InterpreterPool interpreters;
+
+    /** Native heap in use before the interpreters were built, and what they added by warm-up */
+    private long nativeBaselineBytes;
+    private long arenaBytes = 0;
+
+    /** tflite model interpreter; the pool's first, which runs every frame outside the pipeline */
     protected Interpreter tflite;
 
     /** Class names */
     private String[] labels;
 
+    /** Bulk pixel to tensor conversion */
+    private ImagePreprocessor preprocessor = null;
+
+    /** Buffers of the frame detected one stage after another on the caller's thread */
+    private FrameSlot serialSlot = null;
+
+    /** Runs preprocess, inference and postprocess on separate threads, if started */
+    private DetectionPipeline<FrameSlot> pipeline = null;
+
+    /** Pipeline slot acquired by {@link #awaitPipelineSlot} and not submitted yet */
+    private FrameSlot pendingSlot = null;
+
+    /** Appends every inference's tensors to a file while a session is being recorded */
+    private volatile TensorRecorder recorder = null;
+
+    /** Follows objects between inferences and skips the model on frames it can predict, if enabled */
+    private RecognitionTracker tracker = null;
+
+    /** Skips the model on frames that look like the last inferred one, if enabled */
+    private SceneChangeGate sceneGate = null;
+
+    /** Thumbnail size of the scene gate, in cells */
+    private static final int SCENE_THUMB_WIDTH = 32;
+    private static final int SCENE_THUMB_HEIGHT = 24;
 
-    private static final float PROB_THRESHOLD = 0.3f;
+    /** Most detections or tracks a frame keeps */
+    static final int MAX_DETECTIONS = OverlayFrame.MAX_BOXES;
 
-    private static final int SECONDARY_COLOR = 0xffddaa88;
+    /** Detections decoded from the last inferred frame, before tracking */
+    private final DetectionBatch detected = new DetectionBatch(MAX_DETECTIONS);
+
+    /** Results shown for the last frame, reused while the scene is unchanged */
+    private final DetectionBatch lastResults = new DetectionBatch(MAX_DETECTIONS);
+
+    /** Picks the input size from inference times, if enabled; used on the inference stage */
+    private InputSizeController inputSizeController = null;
+
+    /** Input size the controller asked for, applied by the frame producer before its next frame */
+    private volatile int requestedInputSize = 0;
+
+    /** Receives the duration of every stage of every frame, if set */
+    private volatile LatencyMonitor latency = null;
+
+    /** Hands every frame's results to readers on other threads, such as speech */
+    private final ResultPublisher published = new ResultPublisher();
+
+    /**
+     * Receives the results of each finished frame, on the thread that finished it. The frame is
+     * refilled for the next one once this returns, so copy what is kept.
+     */
+    interface ResultListener {
+        void onResults(OverlayFrame frame);
+    }
 
-    /** A ByteBuffer to hold image data, to be feed into Tensorflow Lite as inputs. */
-    protected ByteBuffer imgData = null;
+    /** Boxes, top labels and status of the frame postprocessed last; refilled for every frame */
+    private final OverlayFrame resultFrame = new OverlayFrame();
 
-    private PriorityQueue<Map.Entry<String, Float>> sortedLabels =
-            new PriorityQueue<>(
-                    RESULTS_TO_SHOW,
-                    new Comparator<Map.Entry<String, Float>>() {
-                        @Override
-                        public int compare(Map.Entry<String, Float> o1, Map.Entry<String, Float> o2) {
-                            return (o1.getValue()).compareTo(o2.getValue());
-                        }
-                    });
+    /** Receives {@link #resultFrame} after every frame, null for none */
+    private volatile ResultListener resultListener = null;
 
+    /**
+     * Input and output buffers of one frame on its way through the detector; reallocated in
+     * place when the input size changes, since the pipeline holds on to the slots.
+     */
+    private static final class FrameSlot {
+        /** Input size the buffers are allocated for */
+        int width;
+        int height;
+
+        /** Plane copies of the camera frame, mapped onto the input */
+        YuvConverter frame;
+
+        /** A ByteBuffer to hold image data, to be feed into Tensorflow Lite as inputs. */
+        ByteBuffer imgData;
+
+        /** Float view over {@link #imgData}, null for a quantized input */
+        FloatBuffer imgFloats;
+
+        /** Raw output tensors, one per model head */
+        ByteBuffer[] outputs;
+
+        /** Float views over {@link #outputs}, built with them so decoding allocates nothing */
+        FloatBuffer[] outputFloats;
+
+        /** Interpreter arguments over {@link #imgData} and {@link #outputs}, built once per allocation */
+        final Object[] inputArgs = new Object[1];
+        final Map<Integer, Object> outputArgs = new HashMap<>();
+
+        /** Capture time of the frame, in the camera's timestamp base */
+        long frameTimestampNanos;
+
+        /**
+         * Capture time in the elapsedRealtimeNanos base, or when the frame was loaded if the
+         * camera's timestamps use another base
+         */
+        long captureRealtimeNanos;
+
+        /** Completed with the frame's results, if it came through {@link ImageDetector#detect} */
+        DetectionFuture future;
+
+        /** Answered by the tracker's prediction; preprocess and inference skip the frame */
+        boolean predicted;
+
+        /** Scene unchanged since the last inference; the previous results are shown again */
+        boolean reused;
+
+        boolean skipsInference() {
+            return predicted || reused;
+        }
+
+        /** How long preprocess and inference took */
+        long preprocessNanos;
+        long inferenceNanos;
+
+        FrameSlot(int width, int height, int inputBytes, int[] outputBytes, boolean quantized) {
+            allocate(width, height, inputBytes, outputBytes, quantized);
+        }
+
+        void allocate(int width, int height, int inputBytes, int[] outputBytes, boolean quantized) {
+            this.width = width;
+            this.height = height;
+            frame = new YuvConverter(width, height);
+            imgData = ByteBuffer.allocateDirect(inputBytes).order(ByteOrder.nativeOrder());
+            imgFloats = quantized ? null : imgData.asFloatBuffer();
+            outputs = new ByteBuffer[outputBytes.length];
+            outputFloats = new FloatBuffer[outputBytes.length];
+            inputArgs[0] = imgData;
+            outputArgs.clear();
+            for (int i = 0; i < outputBytes.length; ++i) {
+                outputs[i] = ByteBuffer.allocateDirect(outputBytes[i]).order(ByteOrder.nativeOrder());
+                outputFloats[i] = outputs[i].asFloatBuffer();
+                outputArgs.put(i, outputs[i]);
+            }
+        }
+
+        void rewindOutputs() {
+            for (ByteBuffer output : outputs) {
+                output.rewind();
+            }
+        }
+    }
+
+    /** Every slot a frame can be in: the serial one, and the pipeline's once started */
+    private List<FrameSlot> frameSlots;
+
+    /** Picks the labels shown, over {@link #labelProbabilities} */
+    private final TopKSelector topLabels = new TopKSelector(RESULTS_TO_SHOW);
+
+    /** Class probabilities of the frame postprocessed last, refilled in place */
+    private float[] labelProbabilities;
+
+
+    /** Interpreter threads, or -1 for the runtime's default */
+    private int numThreads = -1;
 
     ImageDetector(Activity activity) throws IOException {
-        tfliteModel = loadModelFile(activity);
-        tflite = new Interpreter(tfliteModel, tfliteOptions);
-        labels = loadLabels();
-        imgData = ByteBuffer.allocateDirect(DIM_BATCH_SIZE * getW() * getH() * PIXEL_DIM * getNumBytesPerChannel());
-        imgData.order(ByteOrder.nativeOrder());
+        this(activity, -1);
+    }
+
+    /**
+     * Builds the interpreter once with the given number of threads, e.g. from a tuned profile,
+     * instead of building a default one and rebuilding it with {@link #setNumThreads}.
+     */
+    ImageDetector(Activity activity, int numThreads) throws IOException {
+        this(activity, numThreads, null);
+    }
+
+    /**
+     * Also records mapping the model and building the interpreter into {@code startup}, if not
+     * null. The model's pages are faulted in while mapping, so the first inference does not
+     * stall on flash reads.
+     */
+    ImageDetector(Activity activity, int numThreads, StartupTimeline startup) throws IOException {
+        if (numThreads > 0) {
+            this.numThreads = numThreads;
+        }
+        if (startup != null) {
+            startup.begin(StartupTimeline.Phase.MODEL_MAP, SystemClock.elapsedRealtimeNanos());
+        }
+        tfliteModel = ModelRegistry.get().acquireModel(activity, getModelPath());
+        if (startup != null) {
+            final long mappedNanos = SystemClock.elapsedRealtimeNanos();
+            startup.end(StartupTimeline.Phase.MODEL_MAP, mappedNanos);
+            startup.begin(StartupTimeline.Phase.INTERPRETER, mappedNanos);
+        }
+        nativeBaselineBytes = Debug.getNativeHeapAllocatedSize();
+        // Nothing else holds the interpreters or the model reference if this throws
+        boolean built = false;
+        try {
+            interpreters = new InterpreterPool(tfliteModel, numThreads);
+            tflite = interpreters.primary();
+            final int[] inputShape = tflite.getInputTensor(0).shape();
+            inputHeight = inputShape[1];
+            inputWidth = inputShape[2];
+            intValues = new int[inputWidth * inputHeight];
+            labels = loadLabels();
+            labelProbabilities = new float[labels.length];
+            serialSlot = newSlot();
+            frameSlots = Collections.singletonList(serialSlot);
+            preprocessor = new ImagePreprocessor(getW(), getH(), getNormalization(), PREPROCESS_THREADS);
+            built = true;
+        } finally {
+            if (!built) {
+                if (interpreters != null) {
+                    interpreters.close();
+                }
+                tflite = null;
+                tfliteModel = null;
+                ModelRegistry.get().releaseModel(getModelPath());
+            }
+        }
+        if (startup != null) {
+            startup.end(StartupTimeline.Phase.INTERPRETER, SystemClock.elapsedRealtimeNanos());
+        }
         Log.d(TAG, "Created a YOLOv2 Detector.");
     }
 
-    /** Detects a frame from the camera, only called when the model is not running*/
-    void detectFrame(Bitmap bitmap, SpannableStringBuilder builder) {
+    private FrameSlot newSlot() {
+        final int[] outputBytes = new int[tflite.getOutputTensorCount()];
+        for (int i = 0; i < outputBytes.length; ++i) {
+            outputBytes[i] = tflite.getOutputTensor(i).numBytes();
+        }
+        return new FrameSlot(getW(), getH(), getInputBytes(), outputBytes, isQuantized());
+    }
+
+    private int getInputBytes() {
+        return DIM_BATCH_SIZE * getW() * getH() * PIXEL_DIM * getNumBytesPerChannel();
+    }
+
+    /** Sets who receives every frame's overlay, in pipeline mode or not; call before the first frame */
+    void setResultListener(ResultListener listener) {
+        resultListener = listener;
+    }
+
+    /** Detects a bitmap taken at {@code timestampNanos}, in the elapsedRealtimeNanos base */
+    private void detectFrame(Bitmap bitmap, long timestampNanos) {
         if (tflite == null) {
 //            Log.e(TAG, "Image detector has not been initialized; Skipped.");
-            builder.append(new SpannableString("Uninitialized Detector."));
+            Log.w(TAG, "Uninitialized Detector.");
         }
-        convertBitmapToByteBuffer(bitmap);
-        long startTime = SystemClock.uptimeMillis();
-        runInference();
-        long cpTime = SystemClock.uptimeMillis();
-//        Log.d(TAG, "Timecost to run model inference: " + Long.toString(cpTime - startTime));
+        serialSlot.frameTimestampNanos = timestampNanos;
+        serialSlot.captureRealtimeNanos = serialSlot.frameTimestampNanos;
+        serialSlot.predicted = false;
+        serialSlot.reused = false;
+        final long startNanos = System.nanoTime();
+        convertBitmapToByteBuffer(bitmap, serialSlot);
+        serialSlot.preprocessNanos = System.nanoTime() - startNanos;
+        recordLatency(LatencyMonitor.Stage.PREPROCESS, serialSlot.preprocessNanos);
+        runDetection(serialSlot);
+    }
 
-        showResults();
-        long endTime = SystemClock.uptimeMillis();
-//        Log.d(TAG, "Timecost to run prediction: " + Long.toString(endTime - cpTime));
+    /**
+     * Detects a camera frame without waiting for its results, which the returned future gets
+     * once they are published; the {@link Image} can be closed as soon as this returns. In
+     * pipeline mode this only waits for a free slot, and the future completes on the
+     * postprocess thread; otherwise the frame is detected on this thread before returning.
+     * Call from the one thread that feeds frames.
+     *
+     * @param rotation clockwise rotation in degrees that turns the frame upright
+     * @param realtimeTimestamps whether the camera timestamps frames in the
+     *                           elapsedRealtimeNanos base
+     * @return completes with the results of this frame, tied to it by the image's timestamp
+     */
+    public DetectionFuture detect(Image image, int rotation, boolean realtimeTimestamps) {
+        return detect(image, rotation, realtimeTimestamps, null);
+    }
+
+    /**
+     * Like {@link #detect(Image, int, boolean)}, for an image whose reader another thread may
+     * close: the planes are copied under {@code source}'s lock, and not at all once it is
+     * closed, in which case the future fails. Waiting for a slot and inference run without
+     * the lock.
+     *
+     * @param source the image's reader, or null if the caller keeps it open
+     */
+    public DetectionFuture detect(Image image, int rotation, boolean realtimeTimestamps, Detector.ImageSource source) {
+        if (pipeline != null && !awaitPipelineSlot()) {
+            return DetectionFuture.failed(image.getTimestamp(), new IllegalStateException("Detector closed"));
+        }
+        if (source == null) {
+            loadFrame(image, rotation, realtimeTimestamps);
+        } else {
+            synchronized (source.getLock()) {
+                if (!source.isOpen()) {
+                    // The pipeline slot stays pending for the next frame
+                    return DetectionFuture.failed(image.getTimestamp(), new IllegalStateException("Image source closed"));
+                }
+                loadFrame(image, rotation, realtimeTimestamps);
+            }
+        }
+        final FrameSlot slot = pipeline != null ? pendingSlot : serialSlot;
+        final DetectionFuture future = new DetectionFuture(slot.frameTimestampNanos);
+        slot.future = future;
+        if (pipeline != null) {
+            submitLoadedFrame();
+        } else {
+            try {
+                detectLoadedFrame();
+            } catch (RuntimeException e) {
+                fail(slot, e);
+            }
+        }
+        return future;
+    }
+
+    /**
+     * Detects a bitmap taken at {@code timestampNanos}, in the elapsedRealtimeNanos base, on
+     * this thread. Bitmaps do not go through the pipeline.
+     *
+     * @return completed with the results of this bitmap
+     */
+    public DetectionFuture detect(Bitmap bitmap, long timestampNanos) {
+        if (pipeline != null) {
+            throw new IllegalStateException("The pipeline takes camera frames; detect bitmaps before starting it");
+        }
+        final DetectionFuture future = new DetectionFuture(timestampNanos);
+        serialSlot.future = future;
+        try {
+            detectFrame(bitmap, timestampNanos);
+        } catch (RuntimeException e) {
+            fail(serialSlot, e);
+        }
+        return future;
+    }
+
+    /** Ends the future of the slot's frame, if any, without results */
+    private static void fail(FrameSlot slot, Throwable cause) {
+        final DetectionFuture future = slot.future;
+        slot.future = null;
+        if (future != null) {
+            future.fail(cause);
+        }
+    }
+
+    /**
+     * Delivers the results of every frame from now on, in order, on the thread that finishes
+     * each. A detector kept idle for reuse keeps its subscribers.
+     */
+    public void subscribe(ResultPublisher.Subscriber subscriber) {
+        published.subscribe(subscriber);
+    }
+
+    public void unsubscribe(ResultPublisher.Subscriber subscriber) {
+        published.unsubscribe(subscriber);
+    }
+
+    /**
+     * Copies the planes of a camera frame into the detector, so the {@link Image} can be closed
+     * before inference runs. In pipeline mode the frame goes into the slot from
+     * {@link #awaitPipelineSlot}. A frame the scene gate finds unchanged, or the tracker can
+     * predict, is only timestamped.
+     */
+    private void loadFrame(Image image, int rotation, boolean realtimeTimestamps) {
+        final FrameSlot slot = pipeline != null ? pendingSlot : serialSlot;
+        if (pipeline == null) {
+            applyRequestedInputSize();
+        } else if (slot == null) {
+            throw new IllegalStateException("No pipeline slot; call awaitPipelineSlot() first");
+        }
+        slot.frameTimestampNanos = image.getTimestamp();
+        slot.captureRealtimeNanos = realtimeTimestamps ? slot.frameTimestampNanos : SystemClock.elapsedRealtimeNanos();
+        final Image.Plane luma = image.getPlanes()[0];
+        slot.reused = sceneGate != null && !sceneGate.shouldInfer(luma.getBuffer(),
+                image.getWidth(), image.getHeight(), luma.getRowStride(), slot.frameTimestampNanos);
+        slot.predicted = !slot.reused && tracker != null && !tracker.shouldDetect(slot.frameTimestampNanos);
+        if (!slot.skipsInference()) {
+            if (sceneGate != null) {
+                sceneGate.onInferred();
+            }
+            loadYuvFrame(image, rotation, slot);
+        }
+        if (realtimeTimestamps) {
+            recordLatency(LatencyMonitor.Stage.ACQUISITION, SystemClock.elapsedRealtimeNanos() - slot.captureRealtimeNanos);
+        }
+    }
+
+    /** Detects the frame last loaded with {@link #loadFrame} */
+    private void detectLoadedFrame() {
+        if (tflite == null) {
+            Log.w(TAG, "Uninitialized Detector.");
+        }
+        if (!serialSlot.skipsInference()) {
+            convertYuvToByteBuffer(serialSlot);
+        }
+        runDetection(serialSlot);
+    }
+
+    private void runDetection(FrameSlot slot) {
+        infer(slot, 0);
+        postprocess(slot);
+        deliverResults();
+    }
+
+    /** Hands {@link #resultFrame} to the listener, if there is one */
+    private void deliverResults() {
+        final ResultListener listener = resultListener;
+        if (listener != null) {
+            listener.onResults(resultFrame);
+        }
+    }
+
+    /** Runs the slot's frame on the interpreter of inference worker {@code worker} */
+    private void infer(FrameSlot slot, int worker) {
+        if (slot.skipsInference()) {
+            slot.inferenceNanos = 0;
+            return;
+        }
+        final long startNanos = System.nanoTime();
+        runInference(interpreters.get(worker), slot);
+        final long inferenceNanos = System.nanoTime() - startNanos;
+        slot.inferenceNanos = inferenceNanos;
+        recordLatency(LatencyMonitor.Stage.INFERENCE, inferenceNanos);
+
+        // Frames still in flight at the previous size say nothing about the new one
+        final InputSizeController sizing = inputSizeController;
+        if (sizing != null) {
+            synchronized (sizing) {
+                if (slot.width == sizing.getSize()) {
+                    requestedInputSize = sizing.onInference(inferenceNanos);
+                }
+            }
+        }
+
+        final TensorRecorder session = recorder;
+        if (session != null) {
+            try {
+                // Workers finish out of order, so frames are recorded by completion, not capture
+                synchronized (session) {
+                    session.append(slot.frameTimestampNanos, inferenceNanos, slot.imgData, slot.outputs[0]);
+                }
+            } catch (IOException | IllegalStateException e) {
+                // Out of space, or stopped meanwhile; the file keeps what was appended
+                Log.w(TAG, "Stopped recording tensors", e);
+                stopRecording();
+            }
+        }
+    }
+
+    /** Runs {@code interpreter} on the slot's buffers, through arguments prepared with them */
+    private static void runInference(Interpreter interpreter, FrameSlot slot) {
+        slot.rewindOutputs();
+        interpreter.runForMultipleInputsOutputs(slot.inputArgs, slot.outputArgs);
+    }
+
+    /**
+     * Records the raw output, and optionally the input, of every inference to {@code path}
+     * until {@link #stopRecording}, for replay off the device with the yolo-core ReplayDriver.
+     * Inputs are large, a float 416x416 frame is 2 MB, so record them only for short sessions.
+     * The recording format holds one output tensor, so a multi-head model is not recorded.
+     */
+    void startRecording(File path, boolean recordInputs) throws IOException {
+        stopRecording();
+        if (tflite.getOutputTensorCount() != 1) {
+            Log.w(TAG, "Not recording tensors, the model has " + tflite.getOutputTensorCount() + " outputs");
+            return;
+        }
+        final Tensor output = tflite.getOutputTensor(0);
+        final DataType outputType = output.dataType();
+        final int recordedType;
+        float scale = 0f;
+        int zeroPoint = 0;
+        if (outputType == DataType.UINT8 || outputType == DataType.INT8) {
+            recordedType = outputType == DataType.INT8 ? TensorRecording.TYPE_INT8 : TensorRecording.TYPE_UINT8;
+            scale = output.quantizationParams().getScale();
+            zeroPoint = output.quantizationParams().getZeroPoint();
+        } else {
+            recordedType = TensorRecording.TYPE_FLOAT32;
+        }
+        recorder = new TensorRecorder(path, recordInputs ? serialSlot.imgData.capacity() : 0,
+                serialSlot.outputs[0].capacity(), recordedType, scale, zeroPoint, getModelPath());
+        Log.d(TAG, "Recording tensors to " + path);
+    }
+
+    /** Ends the recording session, if any, and trims the file */
+    void stopRecording() {
+        final TensorRecorder session = recorder;
+        recorder = null;
+        if (session == null) {
+            return;
+        }
+        try {
+            Log.d(TAG, "Recorded " + session.getFrameCount() + " frames, " + session.getSizeBytes() + " bytes");
+            session.close();
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to close the tensor recording", e);
+        }
+    }
+
+    /** Decodes or predicts the frame's recognitions and fills {@link #resultFrame} with them */
+    private void postprocess(FrameSlot slot) {
+        final long startNanos = System.nanoTime();
+        final RecognitionTracker tracking = tracker;
+        // An unchanged scene shows the last frame's recognitions again
+        if (slot.predicted) {
+            tracking.predict(slot.frameTimestampNanos, lastResults);
+        } else if (!slot.reused) {
+            if (tracking != null) {
+                decodeResults(slot.outputs, slot.outputFloats, detected);
+                tracking.update(detected, slot.frameTimestampNanos, lastResults);
+            } else {
+                decodeResults(slot.outputs, slot.outputFloats, lastResults);
+            }
+        }
+        showResults(lastResults);
+        final ResultSnapshot snapshot = published.publish(lastResults, slot.frameTimestampNanos,
+                slot.captureRealtimeNanos, getW(), getH());
+        final DetectionFuture future = slot.future;
+        if (future != null) {
+            slot.future = null;
+            future.complete(snapshot);
+        }
+        final long predictionNanos = System.nanoTime() - startNanos;
         // Print the results.
-        printTopKLabels(builder);
+        final OverlayFrame frame = resultFrame;
+        frame.clear();
+        frame.setBoxes(lastResults, labels, getW(), getH());
+        printTopKLabels(frame);
 
-        long duration1 = cpTime - startTime;
-        long duration2 = endTime - cpTime;
-        SpannableString span = new SpannableString("Inference: "+ duration1 + " ms Prediction: "+duration2+" ms");
-        span.setSpan(new ForegroundColorSpan(android.graphics.Color.LTGRAY), 0, span.length(), 0);
-        builder.append(span);
-        sortedLabels.clear();
+        final StringBuilder status = frame.status;
+        if (slot.reused) {
+            status.append("Scene unchanged, inference skipped (");
+            OverlayFrame.appendFixed(status, 100 * sceneGate.getSkipRatio(), 0).append("% of frames)");
+        } else if (slot.predicted) {
+            status.append("Tracked, inference skipped (");
+            OverlayFrame.appendFixed(status, 100 * tracking.getSkipRatio(), 0).append("% of frames)");
+        } else {
+            status.append("Preprocess: ");
+            OverlayFrame.appendFixed(status, slot.preprocessNanos / 1e6, 1).append(" ms Inference: ");
+            OverlayFrame.appendFixed(status, slot.inferenceNanos / 1e6, 1).append(" ms Prediction: ");
+            OverlayFrame.appendFixed(status, predictionNanos / 1e6, 1).append(" ms");
+        }
     }
 
-    /**  Reference to tensorflow lite demo*/
-    private void recreateInterpreter() {
-        if (tflite != null) {
-            tflite.close();
-            tflite = new Interpreter(tfliteModel, tfliteOptions);
+    /**
+     * Runs preprocess, inference and postprocess as separate stages on their own threads, so the
+     * next frame is converted and the previous one decoded while the interpreter works on the
+     * current one. {@link #detect} then only waits for a free slot and hands the frame over.
+     *
+     * With several interpreters, frames go to them in turn and run side by side; results are
+     * put back in capture order before they are decoded and published.
+     *
+     * @param depth frames in flight, each with its own input and output buffers; 2 for double
+     *              buffering, 3 for triple. Needs one more than {@code numInterpreters} to keep
+     *              every interpreter busy.
+     * @param numInterpreters interpreters sharing the model, each with {@link #getNumThreads}
+     *                        threads
+     */
+    void startPipeline(int depth, int numInterpreters) {
+        if (pipeline != null) {
+            throw new IllegalStateException("Pipeline already started");
+        }
+        interpreters.resize(numInterpreters);
+        final List<FrameSlot> slots = new ArrayList<>(depth);
+        slots.add(serialSlot);
+        for (int i = 1; i < depth; ++i) {
+            slots.add(newSlot());
         }
+        final DetectionPipeline<FrameSlot> stages = new DetectionPipeline<>(slots);
+        stages.setFailureHandler((slot, cause) -> fail(slot, cause));
+        stages.addStage("Preprocess", slot -> {
+            if (!slot.skipsInference()) {
+                convertYuvToByteBuffer(slot);
+            }
+        });
+        stages.addStage("Inference", numInterpreters, this::infer);
+        stages.addStage("Postprocess", slot -> {
+            postprocess(slot);
+            deliverResults();
+        });
+        stages.start();
+        frameSlots = slots;
+        pipeline = stages;
+    }
+
+    boolean isPipelined() {
+        return pipeline != null;
     }
 
+    /**
+     * Waits until the pipeline can take another frame, which is when the slowest stage is done
+     * with one. Returns false if the pipeline closed or the wait was interrupted.
+     */
+    private boolean awaitPipelineSlot() {
+        applyRequestedInputSize();
+        if (pendingSlot == null) {
+            try {
+                pendingSlot = pipeline.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return pendingSlot != null;
+    }
+
+    /** Hands the frame last loaded with {@link #loadFrame} to the pipeline */
+    private void submitLoadedFrame() {
+        final FrameSlot slot = pendingSlot;
+        pendingSlot = null;
+        pipeline.submit(slot);
+    }
+
+    /**
+     * Runs the model only on the frames where tracks become uncertain, and answers the others
+     * with the tracks predicted to their timestamp. Call before the first frame.
+     *
+     * @param maxSkipFrames most frames in a row answered without inference
+     */
+    void enableTracking(int maxSkipFrames) {
+        tracker = new RecognitionTracker(maxSkipFrames);
+    }
 
+    /**
+     * Lets inference times choose the input size among {@code sizes}, each a multiple of the
+     * model's stride: the smallest is used while inference runs over {@code budgetNanos}, larger
+     * ones while it fits. Call before the first frame, at the model's own input size.
+     */
+    void enableAdaptiveInputSize(int[] sizes, long budgetNanos) {
+        inputSizeController = new InputSizeController(sizes, budgetNanos, getW());
+    }
+
+    /**
+     * Resizes the interpreters, the preprocessor and {@code slots} to the given input, then runs a
+     * blank frame through every interpreter: it allocates the resized tensors on its next run,
+     * and this way the output shape is known before decoding.
+     */
+    private void applyInputSize(int width, int height, int[] outputBytes, List<FrameSlot> slots) {
+        interpreters.resizeInput(new int[] {DIM_BATCH_SIZE, height, width, PIXEL_DIM});
+        inputWidth = width;
+        inputHeight = height;
+        intValues = new int[width * height];
+        preprocessor.close();
+        preprocessor = new ImagePreprocessor(width, height, getNormalization(), PREPROCESS_THREADS);
+        for (FrameSlot slot : slots) {
+            slot.allocate(width, height, getInputBytes(), outputBytes, isQuantized());
+        }
+        for (int worker = 0; worker < interpreters.size(); ++worker) {
+            runInference(interpreters.get(worker), serialSlot);
+        }
+    }
+
+    private void applyRequestedInputSize() {
+        final int size = requestedInputSize;
+        if (size > 0 && (size != inputWidth || size != inputHeight)) {
+            try {
+                resizeInput(size);
+            } catch (RuntimeException e) {
+                // The model does not take this size; stay where it is
+                Log.w(TAG, "Failed to resize the input to " + size + ", adaptive input size off", e);
+                inputSizeController = null;
+                requestedInputSize = 0;
+            }
+        }
+    }
+
+    /**
+     * Resizes the interpreter input to {@code size} x {@code size} and reallocates every buffer
+     * that depends on it, without rebuilding the interpreter or stopping the camera. In pipeline
+     * mode this holds every slot first, so no frame is in flight; call it from the thread that
+     * feeds frames.
+     *
+     * If the model fails at the new size, everything is put back at the old one before the
+     * exception is thrown. A tensor recording ends here, as its frames have a fixed size.
+     */
+    void resizeInput(int size) {
+        final List<FrameSlot> held = new ArrayList<>();
+        try {
+            if (pipeline != null) {
+                if (pendingSlot != null) {
+                    held.add(pendingSlot);
+                    pendingSlot = null;
+                }
+                while (held.size() < pipeline.getDepth()) {
+                    final FrameSlot slot = pipeline.acquire();
+                    if (slot == null) {
+                        return;
+                    }
+                    held.add(slot);
+                }
+            }
+            final int previousWidth = inputWidth;
+            final int previousHeight = inputHeight;
+            final int[] previousOutputBytes = new int[tflite.getOutputTensorCount()];
+            final int[] outputBytes = new int[previousOutputBytes.length];
+            for (int i = 0; i < outputBytes.length; ++i) {
+                final Tensor output = tflite.getOutputTensor(i);
+                previousOutputBytes[i] = output.numBytes();
+                final int[] outputShape = output.shape();
+                final int strideY = inputHeight / outputShape[1];
+                final int strideX = inputWidth / outputShape[2];
+                if (size % strideY != 0 || size % strideX != 0) {
+                    throw new IllegalArgumentException("Input size " + size + " is not a multiple of the stride " + strideY);
+                }
+                // A fully convolutional output grows with the grid, channels stay
+                outputBytes[i] = output.numBytes() / (outputShape[1] * outputShape[2])
+                        * (size / strideY) * (size / strideX);
+            }
+
+            if (recorder != null) {
+                Log.w(TAG, "Stopping the tensor recording, its frames cannot change size");
+                stopRecording();
+            }
+            if (!held.contains(serialSlot)) {
+                held.add(serialSlot);
+            }
+            try {
+                applyInputSize(size, size, outputBytes, held);
+                for (int i = 0; i < outputBytes.length; ++i) {
+                    if (tflite.getOutputTensor(i).numBytes() != outputBytes[i]) {
+                        throw new IllegalStateException("Output " + i + " is " + tflite.getOutputTensor(i).numBytes()
+                                + " bytes at input size " + size + ", expected " + outputBytes[i]);
+                    }
+                }
+                onInputResized();
+            } catch (RuntimeException e) {
+                // Back to the size the decoder and every buffer were built for
+                applyInputSize(previousWidth, previousHeight, previousOutputBytes, held);
+                onInputResized();
+                throw e;
+            }
+
+            // Boxes are in input coordinates, so what was seen at the old size no longer lines up, and
+            // the gate must not republish the now empty results for a still scene
+            if (tracker != null) {
+                tracker.reset();
+            }
+            if (sceneGate != null) {
+                sceneGate.reset();
+            }
+            lastResults.clear();
+            Log.d(TAG, "Input resized to " + size + "x" + size);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (pipeline != null) {
+                for (FrameSlot slot : held) {
+                    pipeline.release(slot);
+                }
+            }
+        }
+    }
+
+    /**
+     * Runs the model only when the scene has changed since the last inferred frame, judged on a
+     * luma thumbnail, and shows the previous results otherwise. Call before the first frame.
+     *
+     * @param threshold mean absolute luma difference, 0 to 255, above which the scene changed
+     * @param maxReuseNanos longest time the previous results are reused
+     */
+    void enableSceneGate(float threshold, long maxReuseNanos) {
+        final SceneChangeGate gate = new SceneChangeGate(SCENE_THUMB_WIDTH, SCENE_THUMB_HEIGHT);
+        gate.setThreshold(threshold);
+        gate.setMaxReuseNanos(maxReuseNanos);
+        sceneGate = gate;
+    }
+
+    /** Share of frames the scene gate skipped, empty when it is off */
+    String describeSceneGate() {
+        return sceneGate != null
+                ? String.format("Scene gate: %d inferred, %d reused, %.0f%% skipped, last difference %.1f",
+                        sceneGate.getFramesPassed(), sceneGate.getFramesSkipped(),
+                        100 * sceneGate.getSkipRatio(), sceneGate.getLastDifference())
+                : "";
+    }
+
+    /** Tracks, detection interval and skip ratio, empty when tracking is off */
+    String describeTracking() {
+        return tracker != null ? tracker.describe() : "";
+    }
+
+    /** Per-stage occupancy and queue wait of the pipeline, empty when it is not running */
+    String describePipeline() {
+        return pipeline != null ? pipeline.describe() : "";
+    }
+
+    /**
+     * Runs a blank frame through every interpreter, so each allocates its tensors now instead of
+     * on the first camera frame. Call after {@link #startPipeline}, which adds the interpreters,
+     * and before the first frame.
+     */
+    void warmUp() {
+        final ByteBuffer input = serialSlot.imgData;
+        for (int i = 0; i < input.capacity(); ++i) {
+            input.put(i, (byte) 0);
+        }
+        for (int worker = 0; worker < interpreters.size(); ++worker) {
+            runInference(interpreters.get(worker), serialSlot);
+        }
+        arenaBytes = Math.max(0, Debug.getNativeHeapAllocatedSize() - nativeBaselineBytes);
+    }
+
+    /**
+     * Native memory the interpreters took, their arenas mostly, as measured by {@link #warmUp};
+     * an estimate, as other threads allocate meanwhile
+     */
+    long getArenaBytes() {
+        return arenaBytes;
+    }
+
+    /** Recreates every interpreter; call before {@link #startPipeline} */
     public void setNumThreads(int numThreads) {
-        tfliteOptions.setNumThreads(numThreads);
-        recreateInterpreter();
+        if (pipeline != null) {
+            throw new IllegalStateException("Cannot recreate the interpreter while the pipeline runs");
+        }
+        this.numThreads = numThreads;
+        if (tflite != null) {
+            interpreters.setNumThreads(numThreads);
+            tflite = interpreters.primary();
+        }
+    }
+
+    int getNumThreads() {
+        return numThreads;
+    }
+
+    /**
+     * Times inference on a fixed input for each candidate thread count and keeps the
+     * interpreter on the best one. Call before {@link #startPipeline}.
+     */
+    ThreadCountTuner.Result tuneNumThreads(ThreadCountTuner tuner, int[] candidates) {
+        // A blank frame; latency does not depend on the pixels
+        final ByteBuffer input = serialSlot.imgData;
+        for (int i = 0; i < input.capacity(); ++i) {
+            input.put(i, (byte) 0);
+        }
+        final ThreadCountTuner.Result result = tuner.tune(candidates, new ThreadCountTuner.Benchmark() {
+            @Override
+            public void setNumThreads(int numThreads) {
+                ImageDetector.this.setNumThreads(numThreads);
+            }
+
+            @Override
+            public long runOnceNanos() {
+                final long start = System.nanoTime();
+                infer(serialSlot, 0);
+                return System.nanoTime() - start;
+            }
+        });
+        if (numThreads != result.bestNumThreads) {
+            setNumThreads(result.bestNumThreads);
+        }
+        return result;
+    }
+
+    /**
+     * Waits until the frames already in the pipeline have been published, so a detector being
+     * replaced finishes what it started. Call after the last frame was fed, from any thread.
+     */
+    void awaitIdle() {
+        final DetectionPipeline<FrameSlot> stages = pipeline;
+        if (stages == null) {
+            return;
+        }
+        // Every slot free again means no frame is left in any stage
+        final int inFlight = stages.getDepth() - (pendingSlot != null ? 1 : 0);
+        final List<FrameSlot> held = new ArrayList<>(inFlight);
+        try {
+            while (held.size() < inFlight) {
+                final FrameSlot slot = stages.acquire();
+                if (slot == null) {
+                    return;
+                }
+                held.add(slot);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            for (FrameSlot slot : held) {
+                stages.release(slot);
+            }
+        }
+    }
+
+    /**
+     * Forgets what it saw before, e.g. before an idle detector serves again: the tracks, the
+     * scene gate's reference frame and the published results, so nothing of the last scene is
+     * shown or announced as the new one. Call while no frame is in flight.
+     */
+    void forgetResults() {
+        if (tracker != null) {
+            tracker.reset();
+        }
+        if (sceneGate != null) {
+            sceneGate.reset();
+        }
+        lastResults.clear();
+        published.clear();
     }
 
     /** Closes tflite model, free memory
       Reference to tensorflow lite demo*/
     public void close() {
-        tflite.close();
+        if (tflite == null) {
+            return;
+        }
+        if (pipeline != null) {
+            pipeline.close();
+        }
+        // Frames still in flight will not finish now
+        for (FrameSlot slot : frameSlots) {
+            fail(slot, new IllegalStateException("Detector closed"));
+        }
+        stopRecording();
+        preprocessor.close();
+        interpreters.close();
         tflite = null;
         tfliteModel = null;
+        ModelRegistry.get().unregister(this);
+        ModelRegistry.get().releaseModel(getModelPath());
     }
 
 
-    /** load the .tflite file
+    /** Writes Image data into a bytebuffer
      *  Reference to tensorflow lite demo*/
-    private MappedByteBuffer loadModelFile(Activity activity) throws IOException {
-        AssetFileDescriptor fileDescriptor = activity.getAssets().openFd(getModelPath());
-        FileInputStream inputStream = new FileInputStream(fileDescriptor.getFileDescriptor());
-        FileChannel fileChannel = inputStream.getChannel();
-        long startOffset = fileDescriptor.getStartOffset();
-        long declaredLength = fileDescriptor.getDeclaredLength();
-        return fileChannel.map(FileChannel.MapMode.READ_ONLY, startOffset, declaredLength);
+    private void convertBitmapToByteBuffer(Bitmap bitmap, FrameSlot slot) {
+        final ByteBuffer imgData = slot.imgData;
+        imgData.rewind();
+        bitmap.getPixels(intValues, 0, bitmap.getWidth(), 0, 0, bitmap.getWidth(), bitmap.getHeight());
+        // Convert the image to floating point, or raw bytes for a quantized model, in bulk.
+        if (isQuantized()) {
+            preprocessor.process(intValues, imgData);
+        } else {
+            preprocessor.process(intValues, slot.imgFloats);
+        }
     }
 
+    private void loadYuvFrame(Image image, int rotation, FrameSlot slot) {
+        final Image.Plane[] planes = image.getPlanes();
+        slot.frame.setFrame(planes[0].getBuffer(), planes[1].getBuffer(), planes[2].getBuffer(),
+                image.getWidth(), image.getHeight(),
+                planes[0].getRowStride(), planes[1].getRowStride(), planes[1].getPixelStride(), rotation);
+    }
 
-
-    /** Writes Image data into a bytebuffer
-     *  Reference to tensorflow lite demo*/
-    private void convertBitmapToByteBuffer(Bitmap bitmap) {
-        if (imgData == null) {
-            return;
+    /** Converts, crops and resizes the loaded YUV frame straight into the input tensor, no Bitmap in between */
+    private void convertYuvToByteBuffer(FrameSlot slot) {
+        final long startNanos = System.nanoTime();
+        slot.imgData.rewind();
+        if (isQuantized()) {
+            preprocessor.process(slot.frame, slot.imgData);
+        } else {
+            preprocessor.process(slot.frame, slot.imgFloats);
         }
-        imgData.rewind();
-        bitmap.getPixels(intValues, 0, bitmap.getWidth(), 0, 0, bitmap.getWidth(), bitmap.getHeight());
-        // Convert the image to floating point.
-        int pixel = 0;
-//        long startTime = SystemClock.uptimeMillis();
-        for (int i = 0; i < getW(); ++i) {
-            for (int j = 0; j < getH(); ++j) {
-                final int val = intValues[pixel++];
-                addPixelValue(val);
-            }
+        slot.preprocessNanos = System.nanoTime() - startNanos;
+        recordLatency(LatencyMonitor.Stage.PREPROCESS, slot.preprocessNanos);
+    }
+
+    /**
+     * Records acquisition, preprocess, inference, decode and NMS times of every frame into
+     * {@code monitor}; null stops recording.
+     */
+    void setLatencyMonitor(LatencyMonitor monitor) {
+        latency = monitor;
+    }
+
+    /** Records one stage's duration, if a monitor is set; safe from any stage's thread */
+    protected void recordLatency(LatencyMonitor.Stage stage, long nanos) {
+        final LatencyMonitor monitor = latency;
+        if (monitor != null) {
+            monitor.record(stage, nanos);
         }
-//        long endTime = SystemClock.uptimeMillis();
-//        Log.d(TAG, "Timecost to put values into ByteBuffer: " + Long.toString(endTime - startTime));
     }
 
-    /** Prints top-K labels, to be shown in UI as the results.
+    /**
+     * Results of the frame postprocessed last, safe to read from any thread. Its capture time is
+     * in the elapsedRealtimeNanos base; the frame's load time stands in when the camera's
+     * timestamps use another base.
+     */
+    ResultSnapshot getLatestResults() {
+        return published.latest();
+    }
+
+    /** Time spent converting the last frame's pixels into the input tensor, in nanoseconds */
+    long getLastPreprocessNanos() {
+        return preprocessor.getLastDurationNanos();
+    }
+
+    /** Prints top-K labels, to be shown in UI as the results, highest first.
      *Reference to tensorflow lite demo*/
-    private void printTopKLabels(SpannableStringBuilder builder) {
-        for (int i = 0; i < getNumLabels(); ++i) {
-            sortedLabels.add(
-//                    new AbstractMap.SimpleEntry<>(labelList.get(i), getProbability(i)));
-            new AbstractMap.SimpleEntry<>(labels[i], getProbability(i)));
-            if (sortedLabels.size() > RESULTS_TO_SHOW) {
-                sortedLabels.poll();
-            }
+    private void printTopKLabels(OverlayFrame frame) {
+        final float[] probabilities = labelProbabilities;
+        for (int i = 0; i < probabilities.length; ++i) {
+            probabilities[i] = getProbability(i);
         }
-
-        final int size = sortedLabels.size();
+        final int size = topLabels.select(probabilities, probabilities.length);
         for (int i = 0; i < size; i++) {
-            Map.Entry<String, Float> label = sortedLabels.poll();
-            SpannableString span =
-                    new SpannableString(String.format("%s: %4.2f\n", label.getKey(), label.getValue()));
-            int color;
-            // Make it white when probability larger than threshold.
-            if (label.getValue() > PROB_THRESHOLD) {
-                color = android.graphics.Color.WHITE;
-            } else {
-                color = SECONDARY_COLOR;
-            }
-            // Make first item bigger.
-            if (i == size - 1) {
-                float sizeScale = (i == size - 1) ? 1.25f : 0.8f;
-                span.setSpan(new RelativeSizeSpan(sizeScale), 0, span.length(), 0);
-            }
-            span.setSpan(new ForegroundColorSpan(color), 0, span.length(), 0);
-            builder.insert(0, span);
+            frame.setLabel(i, labels[topLabels.indices[i]], topLabels.values[i]);
         }
     }
 
 
     protected abstract String getModelPath();
 
-    protected abstract int getW();
+    /** Interpreter input width, from its input tensor */
+    protected int getW() {
+        return inputWidth;
+    }
 
-    protected abstract int getH();
+    protected int getH() {
+        return inputHeight;
+    }
+
+    /** Called after {@link #resizeInput} with no frame in flight, to rebuild what depends on the tensor shapes */
+    protected void onInputResized() {
+    }
 
     protected abstract int getNumBytesPerChannel();
 
-    protected abstract float getProbability(int labelIndex);
+    /** A uint8 model takes one raw byte per channel instead of a normalized float */
+    protected boolean isQuantized() {
+        return getNumBytesPerChannel() == 1;
+    }
 
-    protected abstract void showResults();
+    protected abstract float getProbability(int labelIndex);
 
-    protected abstract String getObjLocation();
+    /**
+     * Decodes the output tensors of one frame, in the model's output order, into {@code results}.
+     * {@code floatOutputs} are float views over {@code outputs}, for a float model.
+     */
+    protected abstract void decodeResults(ByteBuffer[] outputs, FloatBuffer[] floatOutputs, DetectionBatch results);
 
     /**
-     * load label list from induvidual detector class
+     * Publishes the results of one frame, detected or predicted by the tracker; {@code results}
+     * is refilled for the next frame once this returns
      */
-    protected abstract String[] loadLabels();
+    protected abstract void showResults(DetectionBatch results);
+
+    /** What {@code results} holds and where, to be spoken; called from any thread */
+    protected abstract String describeLocations(ResultSnapshot results);
 
     /**
-     * Add pixelValue to byteBuffer.
+     * load label list from induvidual detector class
      */
-    protected abstract void addPixelValue(int pixelValue);
+    protected abstract String[] loadLabels();
 
     /**
-     * run inference on one image
+     * Normalization applied to each RGB channel when filling a float input tensor.
      */
-    protected abstract void runInference();
+    protected abstract ImagePreprocessor.NormalizationSpec getNormalization();
 
     /**
      * Get the total number of labels.
@@ -0,0 +1,96 @@
+package com.example.yolodetector;
+
+import java.nio.MappedByteBuffer;
+import org.tensorflow.lite.Interpreter;
+
+/**
+ * Interpreters over one memory-mapped model, one per inference worker. They share the model's
+ * pages but each has its own tensors, so each runs a different frame at the same time; on many
+ * cores two interpreters with a few threads each get more frames through than one with all of
+ * them.
+ *
+ * Not thread-safe: resize and recreate the interpreters with no inference running; each
+ * interpreter is only run by its own worker.
+ */
+final class InterpreterPool {
+
+    private final MappedByteBuffer model;
+    private final Interpreter.Options options = new Interpreter.Options();
+    private Interpreter[] interpreters;
+
+    /** Input shape the interpreters were resized to, null for the model's own */
+    private int[] inputShape = null;
+
+    /**
+     * @param numThreads threads of each interpreter, or -1 for the runtime's default
+     */
+    InterpreterPool(MappedByteBuffer model, int numThreads) {
+        this.model = model;
+        if (numThreads > 0) {
+            options.setNumThreads(numThreads);
+        }
+        interpreters = new Interpreter[] {new Interpreter(model, options)};
+    }
+
+    /** The first interpreter, which also answers questions about the tensors */
+    Interpreter primary() {
+        return interpreters[0];
+    }
+
+    Interpreter get(int worker) {
+        return interpreters[worker];
+    }
+
+    int size() {
+        return interpreters.length;
+    }
+
+    /**
+     * Adds or closes interpreters until there are {@code size}; new ones take the current input
+     * shape and allocate their tensors on their first run.
+     */
+    void resize(int size) {
+        if (size < 1) {
+            throw new IllegalArgumentException("A pool needs at least one interpreter");
+        }
+        final Interpreter[] resized = new Interpreter[size];
+        for (int i = 0; i < size; ++i) {
+            resized[i] = i < interpreters.length ? interpreters[i] : newInterpreter();
+        }
+        for (int i = size; i < interpreters.length; ++i) {
+            interpreters[i].close();
+        }
+        interpreters = resized;
+    }
+
+    /** Rebuilds every interpreter with {@code numThreads} threads each */
+    void setNumThreads(int numThreads) {
+        options.setNumThreads(numThreads);
+        for (int i = 0; i < interpreters.length; ++i) {
+            interpreters[i].close();
+            interpreters[i] = newInterpreter();
+        }
+    }
+
+    /** Resizes input 0 of every interpreter */
+    void resizeInput(int[] shape) {
+        inputShape = shape.clone();
+        for (Interpreter interpreter : interpreters) {
+            interpreter.resizeInput(0, inputShape);
+        }
+    }
+
+    private Interpreter newInterpreter() {
+        final Interpreter interpreter = new Interpreter(model, options);
+        if (inputShape != null) {
+            interpreter.resizeInput(0, inputShape);
+        }
+        return interpreter;
+    }
+
+    void close() {
+        for (Interpreter interpreter : interpreters) {
+            interpreter.close();
+        }
+    }
+}
@@ -0,0 +1,223 @@
+package com.example.yolodetector;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.AssetFileDescriptor;
+import android.util.Log;
+import com.example.yolodetector.core.MemoryBudget;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Process-wide owner of the models: maps each .tflite asset once for every detector that runs
+ * it, and keeps detectors that stopped serving, e.g. after a model swap or a pause, ready for
+ * reuse as long as their interpreter arenas fit the memory budget. Idle detectors over the
+ * budget are closed least recently used first, and all of them when the system runs low on
+ * memory.
+ *
+ * Mapped model pages are clean and file-backed, so the system can drop them; only the arenas
+ * count against the budget. Thread-safe.
+ */
+final class ModelRegistry {
+
+    private static final String TAG = "YoloDetector";
+
+    private static final long MB = 1024 * 1024;
+
+    /** Arena bytes kept by default, until {@link #setBudgetBytes} */
+    private static final long DEFAULT_BUDGET_BYTES = 64 * MB;
+
+    private static ModelRegistry instance = null;
+
+    static synchronized ModelRegistry get() {
+        if (instance == null) {
+            instance = new ModelRegistry();
+        }
+        return instance;
+    }
+
+    /** One mapped asset and the detectors holding it */
+    private static final class Model {
+        final MappedByteBuffer buffer;
+        int users = 0;
+
+        /** Arena estimate of its registered detectors, serving or idle */
+        long arenaBytes = 0;
+
+        Model(MappedByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+    }
+
+    private final Map<String, Model> models = new HashMap<>();
+
+    /** Arena estimate of every registered detector; serving ones are pinned */
+    private final MemoryBudget<ImageDetector> arenas = new MemoryBudget<>(DEFAULT_BUDGET_BYTES);
+
+    /** At most one idle detector per model path */
+    private final Map<String, ImageDetector> idle = new HashMap<>();
+
+    private ModelRegistry() {
+    }
+
+    /**
+     * Maps the model asset, or shares the mapping another detector made, with its pages faulted
+     * in. Each call is matched by a {@link #releaseModel}.
+     */
+    synchronized MappedByteBuffer acquireModel(Context context, String path) throws IOException {
+        Model model = models.get(path);
+        if (model == null) {
+            model = new Model(map(context, path));
+            models.put(path, model);
+        }
+        model.users++;
+        return model.buffer;
+    }
+
+    private static MappedByteBuffer map(Context context, String path) throws IOException {
+        try (AssetFileDescriptor fileDescriptor = context.getAssets().openFd(path);
+             FileInputStream inputStream = new FileInputStream(fileDescriptor.getFileDescriptor());
+             FileChannel fileChannel = inputStream.getChannel()) {
+            final MappedByteBuffer buffer = fileChannel.map(FileChannel.MapMode.READ_ONLY,
+                    fileDescriptor.getStartOffset(), fileDescriptor.getDeclaredLength());
+            buffer.load();
+            return buffer;
+        }
+    }
+
+    /** Drops the mapping once no detector holds it; the pages go when it is collected */
+    synchronized void releaseModel(String path) {
+        final Model model = models.get(path);
+        if (model != null && --model.users == 0) {
+            models.remove(path);
+        }
+    }
+
+    /** Accounts a warmed-up detector that serves from now on */
+    synchronized void register(ImageDetector detector) {
+        if (arenas.contains(detector)) {
+            return;
+        }
+        arenas.add(detector, detector.getArenaBytes());
+        models.get(detector.getModelPath()).arenaBytes += detector.getArenaBytes();
+    }
+
+    /** Takes back the idle detector of {@code path} to serve again, or null if there is none */
+    synchronized ImageDetector takeIdle(String path) {
+        final ImageDetector detector = idle.remove(path);
+        if (detector != null) {
+            arenas.pin(detector);
+        }
+        return detector;
+    }
+
+    /**
+     * Keeps a detector that stopped serving, with no frame in flight, for {@link #takeIdle}, or
+     * closes it if another detector of its model is already idle. Idle detectors over the budget
+     * are closed.
+     */
+    void park(ImageDetector detector) {
+        final List<ImageDetector> closing = new ArrayList<>();
+        synchronized (this) {
+            final String path = detector.getModelPath();
+            if (idle.containsKey(path) || !arenas.contains(detector)) {
+                closing.add(detector);
+            } else {
+                idle.put(path, detector);
+                arenas.unpin(detector);
+                closing.addAll(evicted(arenas.evict()));
+            }
+        }
+        close(closing);
+    }
+
+    /** Forgets a closed detector */
+    synchronized void unregister(ImageDetector detector) {
+        if (arenas.contains(detector)) {
+            arenas.remove(detector);
+            forget(detector);
+        }
+    }
+
+    /** Takes a detector no longer in {@link #arenas} out of the idle set and its model's total */
+    private void forget(ImageDetector detector) {
+        final String path = detector.getModelPath();
+        if (idle.get(path) == detector) {
+            idle.remove(path);
+        }
+        final Model model = models.get(path);
+        if (model != null) {
+            model.arenaBytes -= detector.getArenaBytes();
+        }
+    }
+
+    /** Arena bytes idle detectors may keep, with the serving ones counted in */
+    void setBudgetBytes(long budgetBytes) {
+        final List<ImageDetector> closing;
+        synchronized (this) {
+            arenas.setBudgetBytes(budgetBytes);
+            closing = evicted(arenas.evict());
+        }
+        close(closing);
+    }
+
+    /**
+     * Releases memory as the system asks: every idle detector once it runs low, or once the app
+     * is in the background. Hiding the UI alone keeps them, for a quick return.
+     */
+    void trim(int level) {
+        if (level < ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW || level == ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+            return;
+        }
+        closeIdle();
+    }
+
+    /** Closes every idle detector */
+    void closeIdle() {
+        final List<ImageDetector> closing;
+        synchronized (this) {
+            closing = evicted(arenas.evictUnpinned());
+        }
+        close(closing);
+    }
+
+    private List<ImageDetector> evicted(List<ImageDetector> detectors) {
+        for (ImageDetector detector : detectors) {
+            forget(detector);
+        }
+        return detectors;
+    }
+
+    private static void close(List<ImageDetector> detectors) {
+        for (ImageDetector detector : detectors) {
+            Log.d(TAG, "Releasing idle " + detector.getModelPath());
+            detector.close();
+        }
+    }
+
+    /**
+     * Per model: the mapping, whether its pages are resident, the detectors holding it and the
+     * arenas they allocated
+     */
+    synchronized String describe() {
+        final StringBuilder text = new StringBuilder(String.format(Locale.US,
+                "Models: arenas %.1f of %.1f MB", arenas.getUsedBytes() / (double) MB,
+                arenas.getBudgetBytes() / (double) MB));
+        for (Map.Entry<String, Model> entry : models.entrySet()) {
+            final Model model = entry.getValue();
+            text.append('\n').append(String.format(Locale.US,
+                    "%s: mapped %.1f MB (%s), %d detectors (%d idle), arenas %.1f MB",
+                    entry.getKey(), model.buffer.capacity() / (double) MB,
+                    model.buffer.isLoaded() ? "resident" : "partly paged out", model.users,
+                    idle.containsKey(entry.getKey()) ? 1 : 0, model.arenaBytes / (double) MB));
+        }
+        return text.toString();
+    }
+}
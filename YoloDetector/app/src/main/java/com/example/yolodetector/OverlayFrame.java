@@ -0,0 +1,155 @@
+package com.example.yolodetector;
+
+import com.example.yolodetector.core.DetectionBatch;
+
+/**
+ * What {@link DetectionOverlayView} draws for one frame: boxes in model input coordinates, the
+ * top class probabilities and a status line. Preallocated and refilled every frame, so the
+ * receiver of a frame copies it with {@link #copyFrom} instead of keeping it.
+ */
+final class OverlayFrame {
+
+    /** Boxes beyond this many are not drawn */
+    static final int MAX_BOXES = 32;
+
+    static final int MAX_LABELS = 8;
+
+    /** Coordinate space of the boxes, the model input the frame was cropped to */
+    int sourceWidth;
+    int sourceHeight;
+
+    int boxCount;
+    final float[] left = new float[MAX_BOXES];
+    final float[] top = new float[MAX_BOXES];
+    final float[] right = new float[MAX_BOXES];
+    final float[] bottom = new float[MAX_BOXES];
+    final float[] scores = new float[MAX_BOXES];
+    final String[] names = new String[MAX_BOXES];
+
+    /** Top class probabilities, highest first */
+    int labelCount;
+    final String[] labelNames = new String[MAX_LABELS];
+    final float[] labelProbs = new float[MAX_LABELS];
+
+    final StringBuilder status = new StringBuilder(128);
+
+    /** System.nanoTime when the frame was handed to the overlay */
+    long publishedNanos;
+
+    void clear() {
+        boxCount = 0;
+        labelCount = 0;
+        status.setLength(0);
+        for (int i = 0; i < MAX_BOXES; ++i) {
+            names[i] = null;
+        }
+        for (int i = 0; i < MAX_LABELS; ++i) {
+            labelNames[i] = null;
+        }
+    }
+
+    void setBoxes(DetectionBatch results, String[] labels, int width, int height) {
+        sourceWidth = width;
+        sourceHeight = height;
+        boxCount = Math.min(results.size(), MAX_BOXES);
+        for (int i = 0; i < boxCount; ++i) {
+            left[i] = results.x1[i];
+            top[i] = results.y1[i];
+            right[i] = results.x2[i];
+            bottom[i] = results.y2[i];
+            scores[i] = results.scores[i];
+            names[i] = labels[results.ids[i]];
+        }
+    }
+
+    /** Sets top label {@code rank}, 0 for the highest */
+    void setLabel(int rank, String name, float probability) {
+        labelNames[rank] = name;
+        labelProbs[rank] = probability;
+        labelCount = Math.max(labelCount, rank + 1);
+    }
+
+    void copyFrom(OverlayFrame other) {
+        sourceWidth = other.sourceWidth;
+        sourceHeight = other.sourceHeight;
+        boxCount = other.boxCount;
+        System.arraycopy(other.left, 0, left, 0, MAX_BOXES);
+        System.arraycopy(other.top, 0, top, 0, MAX_BOXES);
+        System.arraycopy(other.right, 0, right, 0, MAX_BOXES);
+        System.arraycopy(other.bottom, 0, bottom, 0, MAX_BOXES);
+        System.arraycopy(other.scores, 0, scores, 0, MAX_BOXES);
+        System.arraycopy(other.names, 0, names, 0, MAX_BOXES);
+        labelCount = other.labelCount;
+        System.arraycopy(other.labelNames, 0, labelNames, 0, MAX_LABELS);
+        System.arraycopy(other.labelProbs, 0, labelProbs, 0, MAX_LABELS);
+        copyStatusFrom(other);
+        publishedNanos = other.publishedNanos;
+    }
+
+    void copyStatusFrom(OverlayFrame other) {
+        status.setLength(0);
+        status.append(other.status);
+    }
+
+    /**
+     * Whether the boxes and labels look the same on screen: same names, boxes within half a
+     * source pixel and scores equal to the displayed percent. The status line is not compared.
+     */
+    boolean sameResultsAs(OverlayFrame other) {
+        if (boxCount != other.boxCount || labelCount != other.labelCount
+                || sourceWidth != other.sourceWidth || sourceHeight != other.sourceHeight) {
+            return false;
+        }
+        for (int i = 0; i < boxCount; ++i) {
+            if (names[i] != other.names[i] || percent(scores[i]) != percent(other.scores[i])
+                    || Math.abs(left[i] - other.left[i]) > 0.5f || Math.abs(top[i] - other.top[i]) > 0.5f
+                    || Math.abs(right[i] - other.right[i]) > 0.5f || Math.abs(bottom[i] - other.bottom[i]) > 0.5f) {
+                return false;
+            }
+        }
+        for (int i = 0; i < labelCount; ++i) {
+            if (labelNames[i] != other.labelNames[i] || percent(labelProbs[i]) != percent(other.labelProbs[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    boolean sameStatusAs(OverlayFrame other) {
+        final int length = status.length();
+        if (length != other.status.length()) {
+            return false;
+        }
+        for (int i = 0; i < length; ++i) {
+            if (status.charAt(i) != other.status.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static int percent(float probability) {
+        return Math.round(100 * probability);
+    }
+
+    /** Appends {@code value} with {@code decimals} digits after the point, without allocating */
+    static StringBuilder appendFixed(StringBuilder out, double value, int decimals) {
+        long scale = 1;
+        for (int i = 0; i < decimals; ++i) {
+            scale *= 10;
+        }
+        long scaled = Math.round(Math.abs(value) * scale);
+        if (value < 0 && scaled != 0) {
+            out.append('-');
+        }
+        out.append(scaled / scale);
+        if (decimals > 0) {
+            out.append('.');
+            scaled %= scale;
+            for (long digit = scale / 10; digit > 0; digit /= 10) {
+                out.append((char) ('0' + scaled / digit % 10));
+            }
+        }
+        return out;
+    }
+}
@@ -0,0 +1,60 @@
+package com.example.yolodetector;
+
+import com.example.yolodetector.core.DetectionBatch;
+import com.example.yolodetector.core.ObjectTracker;
+
+/**
+ * Puts an {@link ObjectTracker} above the detector's results: detected frames update the
+ * tracks, skipped frames are answered with the tracks predicted to their timestamp. Frames are
+ * decided on the inference thread and answered on the postprocess thread, hence the locking.
+ */
+class RecognitionTracker {
+
+    private final ObjectTracker tracker;
+
+    RecognitionTracker(int maxSkipFrames) {
+        tracker = new ObjectTracker(maxSkipFrames);
+    }
+
+    /** Whether the frame needs inference; call once per frame, in order */
+    synchronized boolean shouldDetect(long timestampNanos) {
+        return tracker.shouldDetect(timestampNanos);
+    }
+
+    /** Feeds a detected frame to the tracker and writes the tracks into {@code tracks} */
+    synchronized void update(DetectionBatch detected, long timestampNanos, DetectionBatch tracks) {
+        tracker.update(detected.x1, detected.y1, detected.x2, detected.y2, detected.scores, detected.ids,
+                detected.size(), timestampNanos);
+        getTracks(tracks);
+    }
+
+    /** Writes the tracks predicted to a skipped frame into {@code tracks} */
+    synchronized void predict(long timestampNanos, DetectionBatch tracks) {
+        tracker.predict(timestampNanos);
+        getTracks(tracks);
+    }
+
+    private void getTracks(DetectionBatch tracks) {
+        tracks.clear();
+        for (int i = 0; i < tracker.getTrackCount(); ++i) {
+            final ObjectTracker.Track track = tracker.getTrack(i);
+            tracks.add(track.getClassId(), track.getScore(),
+                    track.getX1(), track.getY1(), track.getX2(), track.getY2(), track.getId());
+        }
+    }
+
+    /** Forgets every track */
+    synchronized void reset() {
+        tracker.reset();
+    }
+
+    synchronized double getSkipRatio() {
+        return tracker.getSkipRatio();
+    }
+
+    /** Skip ratio, current detection interval and live tracks, for the log */
+    synchronized String describe() {
+        return String.format("Tracking: %d tracks, detecting every %d frames, %.0f%% of frames skipped",
+                tracker.getTrackCount(), tracker.getDetectionInterval(), 100 * tracker.getSkipRatio());
+    }
+}
@@ -0,0 +1,36 @@
+package com.example.yolodetector;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Build;
+
+import com.example.yolodetector.core.ThreadCountTuner;
+
+/**
+ * Remembers the tuned interpreter thread count per device and model, so the sweep in
+ * {@link ThreadCountTuner} only runs on the first start.
+ */
+class ThreadProfileStore {
+
+    private static final String PREFS_NAME = "thread_profiles";
+
+    private final SharedPreferences prefs;
+
+    ThreadProfileStore(Context context) {
+        prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    /** Device model and OS level; an OS update can change the kernels, so it retunes */
+    private static String key(String modelPath) {
+        return Build.MANUFACTURER + "/" + Build.MODEL + "/" + Build.VERSION.SDK_INT + "/" + modelPath;
+    }
+
+    /** The saved thread count for the model on this device, or 0 if it was never tuned */
+    int getNumThreads(String modelPath) {
+        return prefs.getInt(key(modelPath), 0);
+    }
+
+    void putNumThreads(String modelPath, int numThreads) {
+        prefs.edit().putInt(key(modelPath), numThreads).apply();
+    }
+}
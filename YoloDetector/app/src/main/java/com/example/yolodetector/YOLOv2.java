@@ -1,43 +1,45 @@
 package com.example.yolodetector;
 
 import android.app.Activity;
-import android.graphics.RectF;
 
+import com.example.yolodetector.core.DetectionBatch;
+import com.example.yolodetector.core.ImagePreprocessor;
+import com.example.yolodetector.core.LatencyMonitor;
+import com.example.yolodetector.core.ModelDescriptor;
+import com.example.yolodetector.core.MultiHeadDecoder;
+import com.example.yolodetector.core.NmsEngine;
+import com.example.yolodetector.core.ResultSnapshot;
+import com.example.yolodetector.core.StartupTimeline;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Comparator;
-import java.util.PriorityQueue;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import org.tensorflow.lite.DataType;
+import org.tensorflow.lite.Tensor;
 
 public class YOLOv2 extends ImageDetector implements Detector {
 
 
     private float[] labelProbArray = null;
-    private float[][][][] pred = null;
 
-    private String[] loc = null;
-    private boolean locFlag = false;
-    private boolean locFlagR = true;
+    /** Anchors, classes and heads of the model, from its descriptor asset */
+    private ModelDescriptor descriptor = null;
 
-    private static final int MAX_RESULTS = 5;
-
-    private static final int NUM_CLASSES = 80;
+    private MultiHeadDecoder decoder = null;
 
-    private static final int NUM_BOXES_PER_BLOCK = 5;
+    private NmsEngine nms = null;
 
-    private static final int GRID_WIDTH = 13;
-    private static final int GRID_HEIGHT = 13;
+    /** Most objects one announcement names */
+    private static final int MAX_RESULTS = 5;
 
-    private static final int BLOCK_SIZE = 32;
+    /** Objects less likely than this are not announced */
+    private static final float ANNOUNCE_THRESHOLD = 0.3f;
 
-    private int actual_size = 0;
+    private static final float NMS_IOU_THRESHOLD = 0.5f;
 
-    private static final double[] ANCHORS = {
-            0.57273, 0.677385,
-            1.87446, 2.06253,
-            3.33843, 5.47434,
-            7.88282, 3.52778,
-            9.77052, 9.16828
-    };
+    /** Spoken locations split the frame into this many rows and columns, numbered 1 to 9 */
+    private static final int REGION_GRID = 3;
 
     private static final String[] LABELS = {
             "person",
@@ -122,31 +124,86 @@ public class YOLOv2 extends ImageDetector implements Detector {
             "toothbrush"
     };
 
+    static final String MODEL_PATH = "tiny_model.tflite";
+
+    /** Geometry of the float and quantized models alike */
+    static final String DESCRIPTOR_PATH = "tiny_yolov2.properties";
+
     YOLOv2(Activity activity) throws IOException {
-        super(activity);
-        labelProbArray = new float[getNumLabels()];
-        pred = new float[1][13][13][425];
-        loc = new String[getNumLabels()];
+        this(activity, -1);
     }
 
-    @Override
-    protected String[] loadLabels(){
-        return LABELS;
+    /** Builds the interpreter once with {@code numThreads} threads, -1 for the default */
+    YOLOv2(Activity activity, int numThreads) throws IOException {
+        this(activity, numThreads, null);
+    }
+
+    /** Also records loading the model into {@code startup}, if not null */
+    YOLOv2(Activity activity, int numThreads, StartupTimeline startup) throws IOException {
+        super(activity, numThreads, startup);
+        // The interpreters and the model reference are already held, and nobody else can close them
+        try {
+            labelProbArray = new float[getNumLabels()];
+            try (InputStream in = activity.getAssets().open(getDescriptorPath())) {
+                descriptor = ModelDescriptor.parse(in);
+            }
+            if (descriptor.getNumClasses() != LABELS.length) {
+                throw new IOException(getDescriptorPath() + " has " + descriptor.getNumClasses() + " classes, "
+                        + LABELS.length + " labels");
+            }
+            configureDecoder();
+        } catch (IOException | RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Sizes the decoder and NMS from the descriptor and the interpreter's current tensor shapes,
+     * keeping their settings
+     */
+    private void configureDecoder() {
+        final int[][] outputShapes = new int[tflite.getOutputTensorCount()][];
+        for (int h = 0; h < outputShapes.length; ++h) {
+            outputShapes[h] = tflite.getOutputTensor(h).shape();
+        }
+        final MultiHeadDecoder configured = MultiHeadDecoder.forTensorShapes(
+                descriptor, tflite.getInputTensor(0).shape(), outputShapes);
+        for (int h = 0; h < outputShapes.length; ++h) {
+            final Tensor output = tflite.getOutputTensor(h);
+            final DataType outputType = output.dataType();
+            if (outputType == DataType.UINT8 || outputType == DataType.INT8) {
+                final Tensor.QuantizationParams params = output.quantizationParams();
+                configured.setQuantization(h, params.getScale(), params.getZeroPoint(), outputType == DataType.INT8);
+            }
+        }
+        final NmsEngine suppression = new NmsEngine(configured.getCapacity(), MAX_RESULTS, NMS_IOU_THRESHOLD);
+        if (decoder != null) {
+            configured.setScoreThreshold(decoder.getScoreThreshold());
+            suppression.setMode(nms.getMode());
+        }
+        decoder = configured;
+        nms = suppression;
     }
 
     @Override
-    protected String getModelPath() {
-        return "tiny_model.tflite";
+    protected void onInputResized() {
+        configureDecoder();
     }
 
     @Override
-    protected int getW() {
-        return 416;
+    protected String[] loadLabels(){
+        return LABELS;
     }
 
     @Override
-    protected int getH() {
-        return 416;
+    protected String getModelPath() {
+        return MODEL_PATH;
+    }
+
+    /** Asset describing the model's anchors, classes and heads */
+    protected String getDescriptorPath() {
+        return DESCRIPTOR_PATH;
     }
 
     @Override
@@ -155,10 +212,8 @@ public class YOLOv2 extends ImageDetector implements Detector {
     }
 
     @Override
-    protected void addPixelValue(int pixelValue) {
-        imgData.putFloat(((pixelValue >> 16) & 0xFF) / 255.f);
-        imgData.putFloat(((pixelValue >> 8) & 0xFF) / 255.f);
-        imgData.putFloat((pixelValue & 0xFF) / 255.f);
+    protected ImagePreprocessor.NormalizationSpec getNormalization() {
+        return ImagePreprocessor.NormalizationSpec.UNIT;
     }
 
     @Override
@@ -166,186 +221,69 @@ public class YOLOv2 extends ImageDetector implements Detector {
         return labelProbArray[labelIndex];
     }
 
-    @Override
-    protected void runInference() {
-        tflite.run(imgData, pred);
+    /** Minimum class confidence for a box to be considered, 0.01 by default */
+    void setScoreThreshold(float threshold) {
+        decoder.setScoreThreshold(threshold);
     }
 
-
-    private float expit(final float x) {
-        return (float) (1. / (1. + Math.exp(-x)));
+    /** Selects greedy, Fast or Matrix NMS */
+    void setNmsMode(NmsEngine.Mode mode) {
+        nms.setMode(mode);
     }
 
-    private void softmax(final float[] vals) {
-        float max = Float.NEGATIVE_INFINITY;
-        for (final float val : vals) {
-            max = Math.max(max, val);
-        }
-        float sum = 0.0f;
-        for (int i = 0; i < vals.length; ++i) {
-            vals[i] = (float) Math.exp(vals[i] - max);
-            sum += vals[i];
-        }
-        for (int i = 0; i < vals.length; ++i) {
-            vals[i] = vals[i] / sum;
-        }
-    }
-
-    private float iou(RectF r1, RectF r2){
-        float b = Math.max(r1.bottom, r2.bottom);
-        float l = Math.max(r1.left, r2.left);
-        float r = Math.max(r1.right, r2.right);
-        float t = Math.max(r1.top, r2.top);
-
-        float intersection = Math.max(0,b-t+1)*Math.max(0,r-l+1);
-        float area1 = (r1.bottom-r1.top+1)*(r1.right-r1.left+1);
-        float area2 = (r2.bottom-r2.top+1)*(r2.right-r2.left+1);
-
-        return intersection / (area1+area2-intersection);
+    @Override
+    public String getLabel(int id) {
+        return LABELS[id];
     }
 
     @Override
-    public ArrayList<Recognition> recognizeImage(){
-        final PriorityQueue<Detector.Recognition> pq =
-                new PriorityQueue<Detector.Recognition>(1,
-                        new Comparator<Detector.Recognition>() {
-                            @Override
-                            public int compare(final Detector.Recognition R1, final Detector.Recognition R2) {
-                                return Float.compare(R2.getConfidence(), R1.getConfidence());
-                            }
-                        });
-//        Set<Classifier.Recognition> rset = new HashSet<Classifier.Recognition>();
-//        float[][] classes = new float[GRID_WIDTH*GRID_HEIGHT*NUM_BOXES_PER_BLOCK][NUM_CLASSES];
-        for (int y = 0; y < GRID_HEIGHT; ++y) {
-            for (int x = 0; x < GRID_WIDTH; ++x) {
-                for (int b = 0; b < NUM_BOXES_PER_BLOCK; ++b) {
-
-                    final float xPos = (x + expit(pred[0][y][x][b*85])) * BLOCK_SIZE;
-                    final float yPos = (y + expit(pred[0][y][x][b*85+1])) * BLOCK_SIZE;
-
-                    final float w = (float) (Math.exp(pred[0][y][x][b*85+2]) * ANCHORS[2 * b + 0]) * BLOCK_SIZE;
-                    final float h = (float) (Math.exp(pred[0][y][x][b*85+3]) * ANCHORS[2 * b + 1]) * BLOCK_SIZE;
-
-                    final RectF rect = new RectF(
-                                    Math.max(0, xPos - w / 2),
-                                    Math.max(0, yPos - h / 2),
-                                    Math.min(416 - 1, xPos + w / 2),
-                                    Math.min(416 - 1, yPos + h / 2));
-
-                    final float confidence = expit(pred[0][y][x][b*85+4]);
-
-                    int detectedClass = -1;
-                    float maxClass = 0;
-
-                    final float[] classes = new float[NUM_CLASSES];
-
-                    for (int c = 0; c < NUM_CLASSES; ++c) {
-                        classes[c] = pred[0][y][x][b*85+5+c];
-                    }
-                    softmax(classes);
-
-                    for (int c = 0; c < NUM_CLASSES; ++c) {
-                        if (classes[c] > maxClass) {
-                            detectedClass = c;
-                            maxClass = classes[c];
-                        }
-                    }
-                    final float confidenceInClass = maxClass * confidence;
-                    if (confidenceInClass > 0.01) {
-                        pq.add(new Detector.Recognition(detectedClass, LABELS[detectedClass], confidenceInClass, rect));
-                    }
-                }
-            }
+    protected void decodeResults(ByteBuffer[] outputs, FloatBuffer[] floatOutputs, DetectionBatch results) {
+        final long startNanos = System.nanoTime();
+        final int count;
+        if (decoder.isQuantized()) {
+            count = decoder.decodeQuantized(outputs);
+        } else {
+            count = decoder.decode(floatOutputs);
         }
-        ArrayList<ArrayList<Detector.Recognition>> cla = new ArrayList<ArrayList<Detector.Recognition>>(80);
-        //initialize the array
-        for (int i=0; i<NUM_CLASSES; i++){
-            ArrayList<Detector.Recognition> temparray  = new ArrayList<Detector.Recognition>();
-            RectF temploc = new RectF(0,0,0,0);
-            float tempconf = 0.0f;
-            temparray.add(new Detector.Recognition(-1, LABELS[0], tempconf, temploc));
-            cla.add(temparray);
+        final long decodedNanos = System.nanoTime();
+        final int kept = nms.run(decoder.x1, decoder.y1, decoder.x2, decoder.y2,
+                decoder.scores, decoder.classes, count);
+        recordLatency(LatencyMonitor.Stage.DECODE, decodedNanos - startNanos);
+        recordLatency(LatencyMonitor.Stage.NMS, System.nanoTime() - decodedNanos);
+
+        results.clear();
+        for (int i = 0; i < kept; ++i) {
+            final int idx = nms.keep[i];
+            results.add(decoder.classes[idx], nms.keepScores[i],
+                    decoder.x1[idx], decoder.y1[idx], decoder.x2[idx], decoder.y2[idx], DetectionBatch.NO_TRACK);
         }
-        //fill in the array with objects
-        for (int i = 0; i <pq.size(); ++i){
-            Detector.Recognition temp = pq.poll();
-            ArrayList<Detector.Recognition> temparray = cla.get(temp.getId());
-            temparray.add(temp);
-            if (temparray.get(0).getId()==-1){
-                temparray.remove(0);
-            }
-            cla.set(temp.getId(),temparray);
-        }
-
-
-
-        for (int i=0; i<cla.size(); i++){
-            ArrayList<Detector.Recognition> temparray = cla.get(i);
-            if (temparray.get(0).getId()!=-1){
-                while (temparray.size()!=0){
-                    Detector.Recognition temp = temparray.get(0);
-                    int j=1;
-
-                    while (j<temparray.size()){
-                        if (iou(temp.getLocation(), temparray.get(j).getLocation())>0.5){
-                            temparray.remove(j);
-                        }
-                        else{
-                            j+=1;
-                        }
-                    }
-                    pq.add(temparray.remove(0));
-                }
-            }
-
-        }
-
-        final ArrayList<Detector.Recognition> recognitions = new ArrayList<Detector.Recognition>();
-        for (int i = 0; i < Math.min(pq.size(), MAX_RESULTS); ++i) {
-            recognitions.add(pq.poll());
-        }
-        return recognitions;     //Recogn -> location -> 4 values
     }
 
     @Override
-    protected void showResults(){
-        ArrayList<Detector.Recognition> recognitions  = recognizeImage();
-        labelProbArray = new float[getNumLabels()];
-        if (locFlagR){
-            locFlag = false;
-        }
-        if(!locFlag) {
-            actual_size = 0;
-            for (int i = 0; i < recognitions.size(); i++) {
-                labelProbArray[recognitions.get(i).getId()] = recognitions.get(i).getConfidence();
-                if (recognitions.get(i).getConfidence()>=0.3) {
-                    RectF pos = recognitions.get(i).getLocation();
-                    int t = (int) (pos.top + pos.bottom) / (2*138);
-                    int l = (int) (pos.left + pos.right) / (2*138);
-                    String region = Integer.toString(3 * t + l + 1);
-                    loc[i] = recognitions.get(i).getName() + " " + region;
-                    actual_size+=1;
-                }
-            }
+    protected void showResults(DetectionBatch results){
+        Arrays.fill(labelProbArray, 0f);
+        for (int i = 0; i < results.size(); i++) {
+            labelProbArray[results.ids[i]] = results.scores[i];
         }
     }
 
+    /** Names up to {@link #MAX_RESULTS} likely objects, each with its region, 1 to 9 row by row */
     @Override
-    protected String getObjLocation(){
-        locFlag = true;
-        locFlagR = false;
-        String ret = "";
-        if (loc != null){
-            for (int i=0; i<Math.min(actual_size, MAX_RESULTS); i++){
-                ret = ret+loc[i]+"    ";
+    protected String describeLocations(ResultSnapshot results){
+        final StringBuilder out = new StringBuilder();
+        int spoken = 0;
+        for (int i = 0; i < results.size() && spoken < MAX_RESULTS; i++) {
+            if (results.getScore(i) < ANNOUNCE_THRESHOLD) {
+                continue;
             }
-            locFlagR = true;
-            return ret;
-        }
-        else{
-            locFlagR = true;
-            return "Empty Array";
+            final float centerX = (results.getX1(i) + results.getX2(i)) / 2;
+            final float centerY = (results.getY1(i) + results.getY2(i)) / 2;
+            int t = Math.min(REGION_GRID - 1, (int) (REGION_GRID * centerY / results.getSourceHeight()));
+            int l = Math.min(REGION_GRID - 1, (int) (REGION_GRID * centerX / results.getSourceWidth()));
+            out.append(LABELS[results.getId(i)]).append(' ').append(REGION_GRID * t + l + 1).append("    ");
+            spoken++;
         }
+        return out.toString();
     }
 
 }
@@ -0,0 +1,39 @@
+package com.example.yolodetector;
+
+import android.app.Activity;
+
+import com.example.yolodetector.core.StartupTimeline;
+import java.io.IOException;
+
+/**
+ * Tiny YOLOv2 with uint8 weights, activations, input and output.
+ *
+ * Pixels are fed as raw bytes and the output is decoded in the quantized domain with the
+ * scale and zero point stored in the model.
+ */
+public class YOLOv2Quantized extends YOLOv2 {
+
+    static final String MODEL_PATH = "tiny_model_quant.tflite";
+
+    YOLOv2Quantized(Activity activity) throws IOException {
+        this(activity, -1);
+    }
+
+    YOLOv2Quantized(Activity activity, int numThreads) throws IOException {
+        super(activity, numThreads);
+    }
+
+    YOLOv2Quantized(Activity activity, int numThreads, StartupTimeline startup) throws IOException {
+        super(activity, numThreads, startup);
+    }
+
+    @Override
+    protected String getModelPath() {
+        return MODEL_PATH;
+    }
+
+    @Override
+    protected int getNumBytesPerChannel() {
+        return 1;
+    }
+}
@@ -0,0 +1,110 @@
+package com.example.yolodetector.bench;
+
+import com.example.yolodetector.core.ModelDescriptor;
+import com.example.yolodetector.core.MultiHeadDecoder;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Decoding raw outputs into candidate boxes: tiny YOLOv2 at 13x13 (416) and 19x19 (608), and a
+ * tiny YOLOv3 style model with a 13x13 and a 26x26 head, at several fractions of boxes whose
+ * objectness passes the gate. Each benchmark decodes every head in one {@link MultiHeadDecoder}
+ * pass: gated, full reference, and quantized.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DecodeBenchmark {
+
+    private static final int NUM_CLASSES = 80;
+
+    @Param({"13x13", "19x19", "13x13+26x26"})
+    public String grid;
+
+    @Param({"0.01", "0.05", "0.2"})
+    public double positiveFraction;
+
+    private MultiHeadDecoder gated;
+    private MultiHeadDecoder full;
+    private MultiHeadDecoder quantized;
+    private FloatBuffer[] floatOutputs;
+    private ByteBuffer[] quantizedOutputs;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        final ModelDescriptor descriptor;
+        final int inputSize;
+        switch (grid) {
+            case "13x13":
+                descriptor = yoloV2();
+                inputSize = 416;
+                break;
+            case "19x19":
+                descriptor = yoloV2();
+                inputSize = 608;
+                break;
+            case "13x13+26x26":
+                descriptor = yoloV3Tiny();
+                inputSize = 416;
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown grid " + grid);
+        }
+        gated = new MultiHeadDecoder(descriptor, inputSize, inputSize);
+        full = new MultiHeadDecoder(descriptor, inputSize, inputSize);
+        full.setEarlyRejection(false);
+        quantized = new MultiHeadDecoder(descriptor, inputSize, inputSize);
+        floatOutputs = new FloatBuffer[descriptor.getNumHeads()];
+        quantizedOutputs = new ByteBuffer[descriptor.getNumHeads()];
+        for (int h = 0; h < descriptor.getNumHeads(); ++h) {
+            final float[] output = SyntheticFrames.floatOutput(
+                    gated.getOutputSize(h) / descriptor.getBoxSize(), NUM_CLASSES, positiveFraction, h + 1);
+            floatOutputs[h] = FloatBuffer.wrap(output);
+            quantizedOutputs[h] = SyntheticFrames.quantize(output, 0.1f, 128);
+            quantized.setQuantization(h, 0.1f, 128, false);
+        }
+    }
+
+    private static ModelDescriptor yoloV2() {
+        return new ModelDescriptor("bench-yolov2", NUM_CLASSES, ModelDescriptor.Layout.CELL_ANCHOR,
+                ModelDescriptor.Activation.SOFTMAX, new int[] {32},
+                new double[][] {SyntheticFrames.YOLOV2_ANCHORS});
+    }
+
+    private static ModelDescriptor yoloV3Tiny() {
+        return new ModelDescriptor("bench-yolov3-tiny", NUM_CLASSES, ModelDescriptor.Layout.CELL_ANCHOR,
+                ModelDescriptor.Activation.SOFTMAX, new int[] {32, 16},
+                new double[][] {SyntheticFrames.YOLOV3_COARSE_ANCHORS, SyntheticFrames.YOLOV3_FINE_ANCHORS});
+    }
+
+    @Benchmark
+    public int gated() {
+        return gated.decode(floatOutputs);
+    }
+
+    @Benchmark
+    public int full() {
+        return full.decode(floatOutputs);
+    }
+
+    @Benchmark
+    public int quantized() {
+        return quantized.decodeQuantized(quantizedOutputs);
+    }
+}
@@ -0,0 +1,83 @@
+package com.example.yolodetector.bench;
+
+import com.example.yolodetector.core.ImagePreprocessor;
+import com.example.yolodetector.core.YuvConverter;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Filling the input tensor from ARGB pixels and from a 640x480 YUV_420_888 frame. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class PreprocessBenchmark {
+
+    private static final int FRAME_WIDTH = 640;
+    private static final int FRAME_HEIGHT = 480;
+
+    @Param({"320", "416", "608"})
+    public int inputSize;
+
+    @Param({"1", "2", "4"})
+    public int threads;
+
+    private ImagePreprocessor preprocessor;
+    private YuvConverter yuv;
+    private int[] pixels;
+    private FloatBuffer floatTensor;
+    private ByteBuffer byteTensor;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        preprocessor = new ImagePreprocessor(inputSize, inputSize, ImagePreprocessor.NormalizationSpec.UNIT, threads);
+        pixels = SyntheticFrames.argbPixels(inputSize, inputSize, 1);
+        floatTensor = ByteBuffer.allocateDirect(inputSize * inputSize * 3 * 4)
+                .order(ByteOrder.nativeOrder()).asFloatBuffer();
+        byteTensor = ByteBuffer.allocateDirect(inputSize * inputSize * 3);
+        yuv = new YuvConverter(inputSize, inputSize);
+        final int chroma = FRAME_WIDTH * FRAME_HEIGHT / 2;
+        yuv.setFrame(SyntheticFrames.plane(FRAME_WIDTH * FRAME_HEIGHT, 2),
+                SyntheticFrames.plane(chroma - 1, 3), SyntheticFrames.plane(chroma - 1, 4),
+                FRAME_WIDTH, FRAME_HEIGHT, FRAME_WIDTH, FRAME_WIDTH, 2, 90);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        preprocessor.close();
+    }
+
+    @Benchmark
+    public FloatBuffer argbToFloat() {
+        preprocessor.process(pixels, floatTensor);
+        return floatTensor;
+    }
+
+    @Benchmark
+    public FloatBuffer yuvToFloat() {
+        preprocessor.process(yuv, floatTensor);
+        return floatTensor;
+    }
+
+    @Benchmark
+    public ByteBuffer yuvToUint8() {
+        preprocessor.process(yuv, byteTensor);
+        return byteTensor;
+    }
+}
@@ -0,0 +1,74 @@
+package com.example.yolodetector.bench;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/** Seeded synthetic inputs and raw outputs, shaped like what the camera and the model produce. */
+final class SyntheticFrames {
+
+    /** Tiny YOLOv2 (VOC/COCO) anchors for a 13x13 or 19x19 head */
+    static final double[] YOLOV2_ANCHORS = {
+            0.57273, 0.677385,
+            1.87446, 2.06253,
+            3.33843, 5.47434,
+            7.88282, 3.52778,
+            9.77052, 9.16828
+    };
+
+    /** Tiny YOLOv3 anchors in grid units: the coarse head, then the fine head */
+    static final double[] YOLOV3_COARSE_ANCHORS = {2.53125, 2.5625, 4.21875, 5.28125, 10.75, 9.96875};
+    static final double[] YOLOV3_FINE_ANCHORS = {0.625, 0.875, 1.4375, 1.6875, 2.3125, 3.625};
+
+    private SyntheticFrames() {
+    }
+
+    /**
+     * A float output tensor where {@code positiveFraction} of the boxes have a plausible
+     * objectness and the rest look like background.
+     */
+    static float[] floatOutput(int numBoxes, int numClasses, double positiveFraction, long seed) {
+        final Random random = new Random(seed);
+        final int stride = numClasses + 5;
+        final float[] out = new float[numBoxes * stride];
+        for (int box = 0; box < numBoxes; ++box) {
+            final int offset = box * stride;
+            for (int k = 0; k < 4; ++k) {
+                out[offset + k] = (float) random.nextGaussian();
+            }
+            out[offset + 4] = random.nextDouble() < positiveFraction
+                    ? (float) (random.nextGaussian() + 2)
+                    : (float) (random.nextGaussian() * 2 - 7);
+            for (int c = 0; c < numClasses; ++c) {
+                out[offset + 5 + c] = (float) (random.nextGaussian() * 3);
+            }
+        }
+        return out;
+    }
+
+    /** The float output quantized to uint8 with the given scale and zero point */
+    static ByteBuffer quantize(float[] output, float scale, int zeroPoint) {
+        final ByteBuffer raw = ByteBuffer.allocateDirect(output.length);
+        for (int i = 0; i < output.length; ++i) {
+            final int q = Math.max(0, Math.min(255, Math.round(output[i] / scale) + zeroPoint));
+            raw.put(i, (byte) q);
+        }
+        return raw;
+    }
+
+    /** Random opaque ARGB pixels */
+    static int[] argbPixels(int width, int height, long seed) {
+        final Random random = new Random(seed);
+        final int[] pixels = new int[width * height];
+        for (int i = 0; i < pixels.length; ++i) {
+            pixels[i] = 0xff000000 | random.nextInt(0x1000000);
+        }
+        return pixels;
+    }
+
+    /** Random bytes for one YUV plane */
+    static ByteBuffer plane(int size, long seed) {
+        final byte[] bytes = new byte[size];
+        new Random(seed).nextBytes(bytes);
+        return ByteBuffer.wrap(bytes);
+    }
+}
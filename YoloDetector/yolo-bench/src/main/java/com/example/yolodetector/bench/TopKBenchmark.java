@@ -0,0 +1,95 @@
+package com.example.yolodetector.bench;
+
+import com.example.yolodetector.core.TopKSelector;
+import java.util.AbstractMap;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Picking the top labels for display out of the per-class probabilities: the boxed entry per
+ * label through a PriorityQueue that ImageDetector.printTopKLabels used, against the primitive
+ * {@link TopKSelector} it uses now.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class TopKBenchmark {
+
+    private static final int RESULTS_TO_SHOW = 3;
+
+    @Param({"20", "80"})
+    public int numLabels;
+
+    /** Labels with a nonzero probability; the rest are zero, as after NMS */
+    @Param({"5", "80"})
+    public int detected;
+
+    private String[] labels;
+    private float[] probabilities;
+
+    private final PriorityQueue<Map.Entry<String, Float>> sortedLabels =
+            new PriorityQueue<>(
+                    RESULTS_TO_SHOW,
+                    new Comparator<Map.Entry<String, Float>>() {
+                        @Override
+                        public int compare(Map.Entry<String, Float> o1, Map.Entry<String, Float> o2) {
+                            return (o1.getValue()).compareTo(o2.getValue());
+                        }
+                    });
+
+    private final TopKSelector selector = new TopKSelector(RESULTS_TO_SHOW);
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        final Random random = new Random(1);
+        labels = new String[numLabels];
+        probabilities = new float[numLabels];
+        for (int i = 0; i < numLabels; ++i) {
+            labels[i] = "label" + i;
+            if (i < Math.min(detected, numLabels)) {
+                probabilities[random.nextInt(numLabels)] = random.nextFloat();
+            }
+        }
+    }
+
+    @Benchmark
+    public void priorityQueue(Blackhole blackhole) {
+        for (int i = 0; i < numLabels; ++i) {
+            sortedLabels.add(new AbstractMap.SimpleEntry<>(labels[i], probabilities[i]));
+            if (sortedLabels.size() > RESULTS_TO_SHOW) {
+                sortedLabels.poll();
+            }
+        }
+        while (!sortedLabels.isEmpty()) {
+            blackhole.consume(sortedLabels.poll());
+        }
+    }
+
+    @Benchmark
+    public void primitive(Blackhole blackhole) {
+        final int count = selector.select(probabilities, numLabels);
+        for (int i = 0; i < count; ++i) {
+            blackhole.consume(labels[selector.indices[i]]);
+            blackhole.consume(selector.values[i]);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.example.yolodetector.core;
+
+/**
+ * Detections of one frame as parallel primitive arrays, allocated once and refilled every frame:
+ * class ids, scores, corners in input pixels and tracker ids. Readers index the arrays up to
+ * {@link #size()} without creating objects.
+ *
+ * Not thread-safe.
+ */
+public class DetectionBatch {
+
+    /** Tracker id of a detection no tracker follows */
+    public static final int NO_TRACK = -1;
+
+    public final int[] ids;
+    public final float[] scores;
+    public final float[] x1;
+    public final float[] y1;
+    public final float[] x2;
+    public final float[] y2;
+    public final int[] trackIds;
+
+    private int size = 0;
+
+    /** @param capacity most detections a frame keeps; more are dropped by {@link #add} */
+    public DetectionBatch(int capacity) {
+        ids = new int[capacity];
+        scores = new float[capacity];
+        x1 = new float[capacity];
+        y1 = new float[capacity];
+        x2 = new float[capacity];
+        y2 = new float[capacity];
+        trackIds = new int[capacity];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return ids.length;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    /** Appends a detection; returns false, dropping it, when the batch is full */
+    public boolean add(int id, float score, float left, float top, float right, float bottom, int trackId) {
+        if (size == ids.length) {
+            return false;
+        }
+        ids[size] = id;
+        scores[size] = score;
+        x1[size] = left;
+        y1[size] = top;
+        x2[size] = right;
+        y2[size] = bottom;
+        trackIds[size] = trackId;
+        ++size;
+        return true;
+    }
+
+    /** Replaces the contents with {@code other}'s, up to this batch's capacity */
+    public void copyFrom(DetectionBatch other) {
+        final int n = Math.min(other.size, ids.length);
+        System.arraycopy(other.ids, 0, ids, 0, n);
+        System.arraycopy(other.scores, 0, scores, 0, n);
+        System.arraycopy(other.x1, 0, x1, 0, n);
+        System.arraycopy(other.y1, 0, y1, 0, n);
+        System.arraycopy(other.x2, 0, x2, 0, n);
+        System.arraycopy(other.y2, 0, y2, 0, n);
+        System.arraycopy(other.trackIds, 0, trackIds, 0, n);
+        size = n;
+    }
+
+    public float centerX(int i) {
+        return (x1[i] + x2[i]) / 2;
+    }
+
+    public float centerY(int i) {
+        return (y1[i] + y2[i]) / 2;
+    }
+}
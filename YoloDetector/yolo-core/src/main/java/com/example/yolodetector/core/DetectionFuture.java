@@ -0,0 +1,176 @@
+package com.example.yolodetector.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Results of one submitted frame, tied to it by its timestamp, for a caller that hands frames
+ * over without waiting for them. Completed once, by whichever thread finishes the frame; a
+ * frame that fails, or is still in flight when the detector closes, fails it instead.
+ *
+ * Thread-safe. Callbacks run on the completing thread, or right away if already done.
+ */
+public class DetectionFuture implements Future<ResultSnapshot> {
+
+    /** Told how the frame ended, once */
+    public interface Callback {
+        void onResults(ResultSnapshot results);
+
+        void onFailure(Throwable cause);
+    }
+
+    private final long frameTimestampNanos;
+
+    private ResultSnapshot results = null;
+    private Throwable failure = null;
+    private boolean cancelled = false;
+
+    /** Callbacks waiting for the frame, null once it is done */
+    private List<Callback> callbacks = new ArrayList<>(1);
+
+    /**
+     * @param frameTimestampNanos capture time of the frame, in the camera's timestamp base
+     */
+    public DetectionFuture(long frameTimestampNanos) {
+        this.frameTimestampNanos = frameTimestampNanos;
+    }
+
+    /** A future for a frame that could not be submitted */
+    public static DetectionFuture failed(long frameTimestampNanos, Throwable cause) {
+        final DetectionFuture future = new DetectionFuture(frameTimestampNanos);
+        future.fail(cause);
+        return future;
+    }
+
+    /** Capture time of the frame these are the results of */
+    public long getFrameTimestampNanos() {
+        return frameTimestampNanos;
+    }
+
+    /** Hands over the frame's results; returns false if it was already done */
+    public boolean complete(ResultSnapshot snapshot) {
+        final List<Callback> waiting;
+        synchronized (this) {
+            if (callbacks == null) {
+                return false;
+            }
+            results = snapshot;
+            waiting = finish();
+        }
+        for (Callback callback : waiting) {
+            callback.onResults(snapshot);
+        }
+        return true;
+    }
+
+    /** Ends the frame without results; returns false if it was already done */
+    public boolean fail(Throwable cause) {
+        final List<Callback> waiting;
+        synchronized (this) {
+            if (callbacks == null) {
+                return false;
+            }
+            failure = cause;
+            waiting = finish();
+        }
+        for (Callback callback : waiting) {
+            callback.onFailure(cause);
+        }
+        return true;
+    }
+
+    /** Marks the future done and wakes waiting threads; returns the callbacks to run */
+    private List<Callback> finish() {
+        final List<Callback> waiting = callbacks;
+        callbacks = null;
+        notifyAll();
+        return waiting;
+    }
+
+    /**
+     * Calls {@code callback} when the frame is done, or right away if it is. A cancelled future
+     * calls {@link Callback#onFailure} with a {@link CancellationException}.
+     */
+    public void addCallback(Callback callback) {
+        synchronized (this) {
+            if (callbacks != null) {
+                callbacks.add(callback);
+                return;
+            }
+        }
+        if (results != null) {
+            callback.onResults(results);
+        } else {
+            callback.onFailure(failure);
+        }
+    }
+
+    /**
+     * Stops waiting for the frame: its results are dropped when they come. The frame itself
+     * still runs, as it shares the detector with the frames around it.
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        final List<Callback> waiting;
+        final CancellationException cause = new CancellationException("Frame " + frameTimestampNanos + " cancelled");
+        synchronized (this) {
+            if (callbacks == null) {
+                return false;
+            }
+            cancelled = true;
+            failure = cause;
+            waiting = finish();
+        }
+        for (Callback callback : waiting) {
+            callback.onFailure(cause);
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized boolean isCancelled() {
+        return cancelled;
+    }
+
+    @Override
+    public synchronized boolean isDone() {
+        return callbacks == null;
+    }
+
+    @Override
+    public synchronized ResultSnapshot get() throws InterruptedException, ExecutionException {
+        while (callbacks != null) {
+            wait();
+        }
+        return report();
+    }
+
+    @Override
+    public synchronized ResultSnapshot get(long timeout, TimeUnit unit)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (callbacks != null) {
+            final long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                throw new TimeoutException("Frame " + frameTimestampNanos + " not done");
+            }
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        return report();
+    }
+
+    private ResultSnapshot report() throws ExecutionException {
+        if (cancelled) {
+            throw (CancellationException) failure;
+        }
+        if (failure != null) {
+            throw new ExecutionException(failure);
+        }
+        return results;
+    }
+}
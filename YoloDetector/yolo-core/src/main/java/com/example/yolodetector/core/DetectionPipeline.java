@@ -0,0 +1,364 @@
+package com.example.yolodetector.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Runs frames through a fixed sequence of stages, each on its own thread, connected by bounded
+ * queues.
+ *
+ * The pipeline owns a fixed set of slots, one per frame in flight; its depth. A producer
+ * {@link #acquire}s a free slot, fills it and {@link #submit}s it; the slot visits every stage
+ * in order and becomes free again after the last one. With a depth of two or three, stage N
+ * works on one frame while stage N+1 works on the previous one, and a producer that runs ahead
+ * blocks in {@link #acquire} instead of queueing stale frames. Frames leave in the order they
+ * were submitted.
+ *
+ * A stage can have several workers, each on its own thread, e.g. one per interpreter. Frames
+ * are numbered on submission and handed to its workers round-robin; a frame that finishes early
+ * waits in front of the next stage until the frames before it got there, so every stage sees the
+ * frames in order. Such a pipeline needs at least one slot per worker to keep them all busy.
+ *
+ * @param <S> slot type, holding the buffers of one frame
+ */
+public class DetectionPipeline<S> {
+
+    /** Works on one slot; runs on the stage's own thread */
+    public interface Stage<S> {
+        void process(S slot);
+    }
+
+    /** Works on one slot; runs on the thread of worker {@code worker}, numbered from 0 */
+    public interface WorkerStage<S> {
+        void process(S slot, int worker);
+    }
+
+    /** Told about a frame a stage failed on, on that stage's thread, before its slot is freed */
+    public interface FailureHandler<S> {
+        void onFailed(S slot, RuntimeException cause);
+    }
+
+    /** Frames waiting to enter a stage, released in submission order */
+    private static final class Entry {
+        final boolean[] arrived;
+        long next = 0;
+
+        Entry(int depth) {
+            arrived = new boolean[depth];
+        }
+    }
+
+    private final List<S> slots;
+    private final BlockingQueue<Integer> free;
+    private final List<String> names = new ArrayList<>();
+    private final List<WorkerStage<S>> stages = new ArrayList<>();
+    private final List<Integer> workers = new ArrayList<>();
+    private final List<Entry> entries = new ArrayList<>();
+    /** Queue of each worker of each stage */
+    private final List<List<BlockingQueue<Integer>>> queues = new ArrayList<>();
+    private final List<Thread> threads = new ArrayList<>();
+
+    /** When each slot entered its current queue, by slot index */
+    private final long[] enqueuedAt;
+
+    /** Submission number of each slot's frame, by slot index */
+    private final long[] sequence;
+
+    /** Whether a stage failed on the slot's frame, so the remaining stages pass it on untouched */
+    private final boolean[] failedFrame;
+
+    /** What the failed stage threw, by slot index */
+    private final RuntimeException[] failures;
+
+    private volatile FailureHandler<S> failureHandler = null;
+
+    private final AtomicLong submitted = new AtomicLong();
+
+    private AtomicLongArray busyNanos;
+    private AtomicLongArray waitNanos;
+    private AtomicLongArray frames;
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private volatile RuntimeException lastFailure = null;
+
+    private long startedAt;
+    private volatile boolean closed = false;
+
+    public DetectionPipeline(List<S> slots) {
+        if (slots.isEmpty()) {
+            throw new IllegalArgumentException("A pipeline needs at least one slot");
+        }
+        this.slots = new ArrayList<>(slots);
+        free = new ArrayBlockingQueue<>(slots.size());
+        for (int i = 0; i < slots.size(); ++i) {
+            free.add(i);
+        }
+        enqueuedAt = new long[slots.size()];
+        sequence = new long[slots.size()];
+        failedFrame = new boolean[slots.size()];
+        failures = new RuntimeException[slots.size()];
+    }
+
+    /** Receives the frames that fail, e.g. to tell whoever waits for their results */
+    public void setFailureHandler(FailureHandler<S> handler) {
+        failureHandler = handler;
+    }
+
+    /** Appends a stage; all stages must be added before {@link #start} */
+    public void addStage(String name, final Stage<S> stage) {
+        addStage(name, 1, new WorkerStage<S>() {
+            @Override
+            public void process(S slot, int worker) {
+                stage.process(slot);
+            }
+        });
+    }
+
+    /** Appends a stage run by {@code workerCount} workers; all stages must be added before {@link #start} */
+    public void addStage(String name, int workerCount, WorkerStage<S> stage) {
+        if (!threads.isEmpty()) {
+            throw new IllegalStateException("Pipeline already started");
+        }
+        if (workerCount < 1) {
+            throw new IllegalArgumentException("A stage needs at least one worker");
+        }
+        names.add(name);
+        stages.add(stage);
+        workers.add(workerCount);
+        entries.add(new Entry(slots.size()));
+        // Never more slots than the depth in flight, so a put never blocks
+        final List<BlockingQueue<Integer>> stageQueues = new ArrayList<>(workerCount);
+        for (int w = 0; w < workerCount; ++w) {
+            stageQueues.add(new ArrayBlockingQueue<Integer>(slots.size()));
+        }
+        queues.add(stageQueues);
+    }
+
+    public void start() {
+        if (stages.isEmpty()) {
+            throw new IllegalStateException("A pipeline needs at least one stage");
+        }
+        busyNanos = new AtomicLongArray(stages.size());
+        waitNanos = new AtomicLongArray(stages.size());
+        frames = new AtomicLongArray(stages.size());
+        startedAt = System.nanoTime();
+        for (int i = 0; i < stages.size(); ++i) {
+            for (int w = 0; w < workers.get(i); ++w) {
+                final int stage = i;
+                final int worker = w;
+                final Thread thread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        runWorker(stage, worker);
+                    }
+                }, "Pipeline-" + names.get(i) + (workers.get(i) > 1 ? "-" + w : ""));
+                thread.setDaemon(true);
+                threads.add(thread);
+                thread.start();
+            }
+        }
+    }
+
+    private void runWorker(int stage, int worker) {
+        final BlockingQueue<Integer> in = queues.get(stage).get(worker);
+        final WorkerStage<S> work = stages.get(stage);
+        try {
+            while (!closed) {
+                final int slot = in.take();
+                if (failedFrame[slot]) {
+                    deliver(stage + 1, slot);
+                    continue;
+                }
+                final long start = System.nanoTime();
+                waitNanos.addAndGet(stage, start - enqueuedAt[slot]);
+                try {
+                    work.process(slots.get(slot), worker);
+                } catch (RuntimeException e) {
+                    // Skip the remaining stages for this frame rather than stall the pipeline
+                    lastFailure = e;
+                    failed.incrementAndGet();
+                    failedFrame[slot] = true;
+                    failures[slot] = e;
+                    deliver(stage + 1, slot);
+                    continue;
+                }
+                final long end = System.nanoTime();
+                busyNanos.addAndGet(stage, end - start);
+                frames.incrementAndGet(stage);
+                deliver(stage + 1, slot);
+            }
+        } catch (InterruptedException e) {
+            // closed
+        }
+    }
+
+    /**
+     * Hands a slot to {@code stage}, or frees it after the last one. A stage takes its frames in
+     * submission order, each on the next worker in turn, so a frame that overtook another one on
+     * a parallel stage waits here for it.
+     */
+    private void deliver(int stage, int slot) {
+        if (stage == stages.size()) {
+            if (!failedFrame[slot]) {
+                completed.incrementAndGet();
+            } else {
+                final FailureHandler<S> handler = failureHandler;
+                final RuntimeException cause = failures[slot];
+                failures[slot] = null;
+                if (handler != null) {
+                    handler.onFailed(slots.get(slot), cause);
+                }
+            }
+            free.add(slot);
+            return;
+        }
+        enqueuedAt[slot] = System.nanoTime();
+        final Entry entry = entries.get(stage);
+        final List<BlockingQueue<Integer>> stageQueues = queues.get(stage);
+        synchronized (entry) {
+            entry.arrived[slot] = true;
+            boolean released = true;
+            while (released) {
+                released = false;
+                for (int i = 0; i < entry.arrived.length; ++i) {
+                    if (entry.arrived[i] && sequence[i] == entry.next) {
+                        entry.arrived[i] = false;
+                        stageQueues.get((int) (entry.next % stageQueues.size())).add(i);
+                        entry.next++;
+                        released = true;
+                    }
+                }
+            }
+        }
+    }
+
+    /** Waits for a free slot; returns null once the pipeline is closed */
+    public S acquire() throws InterruptedException {
+        while (!closed) {
+            final Integer slot = free.poll(50, TimeUnit.MILLISECONDS);
+            if (slot != null) {
+                return slots.get(slot);
+            }
+        }
+        return null;
+    }
+
+    /** Hands a slot returned by {@link #acquire} to the first stage */
+    public void submit(S slot) {
+        final int index = indexOf(slot);
+        if (closed) {
+            free.add(index);
+            return;
+        }
+        sequence[index] = submitted.getAndIncrement();
+        failedFrame[index] = false;
+        deliver(0, index);
+    }
+
+    /** Returns a slot from {@link #acquire} without running it, e.g. when its frame went away */
+    public void release(S slot) {
+        free.add(indexOf(slot));
+    }
+
+    private int indexOf(S slot) {
+        for (int i = 0; i < slots.size(); ++i) {
+            if (slots.get(i) == slot) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("Not a slot of this pipeline");
+    }
+
+    /** Stops the stage threads and waits for each to finish its current frame */
+    public void close() {
+        closed = true;
+        for (Thread thread : threads) {
+            thread.interrupt();
+        }
+        boolean interrupted = false;
+        for (Thread thread : threads) {
+            while (true) {
+                try {
+                    thread.join();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public int getDepth() {
+        return slots.size();
+    }
+
+    public int getNumStages() {
+        return stages.size();
+    }
+
+    public String getStageName(int stage) {
+        return names.get(stage);
+    }
+
+    public int getNumWorkers(int stage) {
+        return workers.get(stage);
+    }
+
+    /** Frames currently held by the producer or a stage */
+    public int getInFlight() {
+        return slots.size() - free.size();
+    }
+
+    public long getFramesCompleted() {
+        return completed.get();
+    }
+
+    public long getFramesFailed() {
+        return failed.get();
+    }
+
+    /** The last exception a stage threw, or null */
+    public RuntimeException getLastFailure() {
+        return lastFailure;
+    }
+
+    /**
+     * Fraction of the time since {@link #start} that the stage spent working on a frame, averaged
+     * over its workers
+     */
+    public double getOccupancy(int stage) {
+        final long elapsed = (System.nanoTime() - startedAt) * workers.get(stage);
+        return elapsed > 0 ? (double) busyNanos.get(stage) / elapsed : 0;
+    }
+
+    /** Mean time a frame waited in the queue in front of the stage, in nanoseconds */
+    public long getMeanWaitNanos(int stage) {
+        final long n = frames.get(stage);
+        return n > 0 ? waitNanos.get(stage) / n : 0;
+    }
+
+    /** One line per stage: occupancy and mean queue wait */
+    public String describe() {
+        final StringBuilder sb = new StringBuilder();
+        sb.append("Pipeline depth ").append(getDepth())
+                .append(", completed ").append(getFramesCompleted())
+                .append(", failed ").append(getFramesFailed());
+        for (int i = 0; i < stages.size(); ++i) {
+            sb.append('\n').append(names.get(i));
+            if (workers.get(i) > 1) {
+                sb.append(" x").append(workers.get(i));
+            }
+            sb.append(": busy ").append(Math.round(getOccupancy(i) * 100)).append("%")
+                    .append(", wait ").append(getMeanWaitNanos(i) / 1000).append(" us");
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,153 @@
+package com.example.yolodetector.core;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Schedules detection on frame arrival through a single-slot, latest-wins mailbox.
+ *
+ * The camera thread {@link #offer}s every frame; a newer frame replaces one that has not been
+ * picked up yet. Processing runs on the given executor only while there is something in the
+ * mailbox, and frames older than the maximum age are dropped instead of processed. Nothing
+ * here holds a lock while a frame is processed, so {@link #pause} never waits on inference.
+ *
+ * @param <T> frame type, e.g. a camera Image
+ */
+public class FrameScheduler<T> {
+
+    /** Processes one frame; takes ownership of it and must release it when done */
+    public interface FrameProcessor<T> {
+        void process(T frame);
+    }
+
+    /** Timestamps and releases frames */
+    public interface FrameAdapter<T> {
+        /** Capture time of the frame, on the same clock as {@link Clock#nanoTime} */
+        long getTimestampNanos(T frame);
+
+        void release(T frame);
+    }
+
+    public interface Clock {
+        long nanoTime();
+    }
+
+    /** Disables the frame age deadline */
+    public static final long NO_DEADLINE = Long.MAX_VALUE;
+
+    private final Executor executor;
+    private final FrameProcessor<T> processor;
+    private final FrameAdapter<T> adapter;
+    private final Clock clock;
+    private volatile long maxFrameAgeNanos;
+
+    private final AtomicReference<T> mailbox = new AtomicReference<>();
+    private final AtomicBoolean scheduled = new AtomicBoolean(false);
+    private volatile boolean paused = false;
+
+    private final AtomicLong captured = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong processed = new AtomicLong();
+
+    private final Runnable drain = new Runnable() {
+        @Override
+        public void run() {
+            drainMailbox();
+        }
+    };
+
+    public FrameScheduler(Executor executor, FrameProcessor<T> processor, FrameAdapter<T> adapter,
+                          Clock clock, long maxFrameAgeNanos) {
+        this.executor = executor;
+        this.processor = processor;
+        this.adapter = adapter;
+        this.clock = clock;
+        this.maxFrameAgeNanos = maxFrameAgeNanos;
+    }
+
+    /** Hands over a new frame; called from the camera thread */
+    public void offer(T frame) {
+        captured.incrementAndGet();
+        if (paused) {
+            drop(frame);
+            return;
+        }
+        final T previous = mailbox.getAndSet(frame);
+        if (previous != null) {
+            drop(previous);
+        }
+        if (scheduled.compareAndSet(false, true)) {
+            executor.execute(drain);
+        }
+    }
+
+    private void drainMailbox() {
+        try {
+            drainLoop();
+        } catch (RuntimeException e) {
+            // Let later frames schedule a new drain instead of stalling behind the failure
+            scheduled.set(false);
+            throw e;
+        }
+    }
+
+    private void drainLoop() {
+        while (true) {
+            final T frame = mailbox.getAndSet(null);
+            if (frame == null) {
+                scheduled.set(false);
+                // A frame may have landed after the swap but before the flag was cleared
+                if (mailbox.get() == null || !scheduled.compareAndSet(false, true)) {
+                    return;
+                }
+                continue;
+            }
+            if (paused || clock.nanoTime() - adapter.getTimestampNanos(frame) > maxFrameAgeNanos) {
+                drop(frame);
+                continue;
+            }
+            processor.process(frame);
+            processed.incrementAndGet();
+        }
+    }
+
+    private void drop(T frame) {
+        adapter.release(frame);
+        dropped.incrementAndGet();
+    }
+
+    /** Stops processing new frames and drops the pending one; does not wait for a running frame */
+    public void pause() {
+        paused = true;
+        final T pending = mailbox.getAndSet(null);
+        if (pending != null) {
+            drop(pending);
+        }
+    }
+
+    public void resume() {
+        paused = false;
+    }
+
+    public boolean isPaused() {
+        return paused;
+    }
+
+    public void setMaxFrameAgeNanos(long maxFrameAgeNanos) {
+        this.maxFrameAgeNanos = maxFrameAgeNanos;
+    }
+
+    public long getFramesCaptured() {
+        return captured.get();
+    }
+
+    public long getFramesDropped() {
+        return dropped.get();
+    }
+
+    public long getFramesProcessed() {
+        return processed.get();
+    }
+}
@@ -0,0 +1,305 @@
+package com.example.yolodetector.core;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Converts a block of ARGB pixels, or a YUV camera frame, into the input tensor in bulk.
+ *
+ * For float models each channel goes through a 256-entry lookup table built from a
+ * {@link NormalizationSpec}; uint8 models get the raw channel bytes, since their input
+ * quantization already maps 0..255 onto the range the model was trained with. Every row is
+ * converted into a scratch array and written with one bulk put. Rows are split into bands that
+ * run on worker threads; the calling thread always converts the first band.
+ */
+public class ImagePreprocessor {
+
+    /**
+     * Per-channel normalization, value = (channel - mean) / std, in RGB order.
+     */
+    public static class NormalizationSpec {
+
+        /** Maps 0..255 to 0..1 */
+        public static final NormalizationSpec UNIT = new NormalizationSpec(0.0f, 255.0f);
+
+        final float[] mean;
+        final float[] std;
+
+        public NormalizationSpec(float mean, float std) {
+            this(new float[] {mean, mean, mean}, new float[] {std, std, std});
+        }
+
+        public NormalizationSpec(float[] mean, float[] std) {
+            if (mean.length != 3 || std.length != 3) {
+                throw new IllegalArgumentException("Normalization needs one mean and std per RGB channel");
+            }
+            this.mean = mean.clone();
+            this.std = std.clone();
+        }
+
+        /** Builds the lookup table of one channel */
+        public float[] buildTable(int channel) {
+            final float[] table = new float[256];
+            for (int v = 0; v < 256; ++v) {
+                table[v] = (v - mean[channel]) / std[channel];
+            }
+            return table;
+        }
+    }
+
+    private static final int PIXEL_DIM = 3;
+
+    private final int width;
+    private final int height;
+    private final float[] lutR;
+    private final float[] lutG;
+    private final float[] lutB;
+
+    private final Band[] bands;
+    private final ExecutorService workers;
+
+    /** Bands still running on worker threads */
+    private final AtomicInteger pending = new AtomicInteger();
+    private volatile Thread caller;
+    private volatile Throwable workerError;
+
+    /** Target the band views were created for, so they are only rebuilt when it changes */
+    private Buffer lastTarget;
+
+    private long lastDurationNanos = 0;
+
+    public ImagePreprocessor(int width, int height, NormalizationSpec spec, int numThreads) {
+        this.width = width;
+        this.height = height;
+        lutR = spec.buildTable(0);
+        lutG = spec.buildTable(1);
+        lutB = spec.buildTable(2);
+
+        final int numBands = Math.max(1, Math.min(numThreads, height));
+        bands = new Band[numBands];
+        for (int i = 0; i < numBands; ++i) {
+            bands[i] = new Band(height * i / numBands, height * (i + 1) / numBands);
+        }
+        workers = numBands > 1 ? Executors.newFixedThreadPool(numBands - 1, new ThreadFactory() {
+            private int count = 0;
+
+            @Override
+            public Thread newThread(Runnable r) {
+                final Thread thread = new Thread(r, "Preprocess-" + (++count));
+                thread.setDaemon(true);
+                return thread;
+            }
+        }) : null;
+    }
+
+    /**
+     * Writes {@code width * height} ARGB pixels into {@code target} as normalized RGB floats,
+     * starting at index 0. The position of {@code target} is not used or changed.
+     */
+    public void process(int[] argb, FloatBuffer target) {
+        setTarget(target);
+        run(argb, null);
+    }
+
+    /**
+     * Writes {@code width * height} ARGB pixels into {@code target} as raw RGB bytes for a uint8
+     * model, starting at index 0. The position of {@code target} is not used or changed.
+     */
+    public void process(int[] argb, ByteBuffer target) {
+        setTarget(target);
+        run(argb, null);
+    }
+
+    /**
+     * Converts the frame loaded into {@code yuv} straight into {@code target} as normalized RGB
+     * floats, without an intermediate ARGB image.
+     */
+    public void process(YuvConverter yuv, FloatBuffer target) {
+        checkSize(yuv);
+        setTarget(target);
+        run(null, yuv);
+    }
+
+    /**
+     * Converts the frame loaded into {@code yuv} straight into {@code target} as raw RGB bytes.
+     */
+    public void process(YuvConverter yuv, ByteBuffer target) {
+        checkSize(yuv);
+        setTarget(target);
+        run(null, yuv);
+    }
+
+    private void checkSize(YuvConverter yuv) {
+        if (yuv.getOutWidth() != width || yuv.getOutHeight() != height) {
+            throw new IllegalArgumentException("YUV converter output " + yuv.getOutWidth() + "x"
+                    + yuv.getOutHeight() + " does not match input " + width + "x" + height);
+        }
+    }
+
+    private void setTarget(FloatBuffer target) {
+        if (target != lastTarget) {
+            for (Band band : bands) {
+                band.setTarget(target.duplicate());
+            }
+            lastTarget = target;
+        }
+    }
+
+    private void setTarget(ByteBuffer target) {
+        if (target != lastTarget) {
+            for (Band band : bands) {
+                band.setTarget(target.duplicate());
+            }
+            lastTarget = target;
+        }
+    }
+
+    private void run(int[] argb, YuvConverter yuv) {
+        final long startTime = System.nanoTime();
+        for (Band band : bands) {
+            band.pixels = argb;
+            band.yuv = yuv;
+        }
+
+        if (workers != null) {
+            caller = Thread.currentThread();
+            workerError = null;
+            pending.set(bands.length - 1);
+            for (int i = 1; i < bands.length; ++i) {
+                workers.execute(bands[i]);
+            }
+        }
+        bands[0].convert();
+        if (workers != null) {
+            while (pending.get() > 0) {
+                LockSupport.park(this);
+            }
+            if (workerError != null) {
+                throw new RuntimeException("Preprocessing worker failed", workerError);
+            }
+        }
+        lastDurationNanos = System.nanoTime() - startTime;
+    }
+
+    /** Wall time of the last {@link #process} call */
+    public long getLastDurationNanos() {
+        return lastDurationNanos;
+    }
+
+    public int getNumThreads() {
+        return bands.length;
+    }
+
+    public void close() {
+        if (workers != null) {
+            workers.shutdown();
+        }
+    }
+
+    /** A range of rows converted by one thread, with its own row scratch and buffer view */
+    private class Band implements Runnable {
+        final int rowStart;
+        final int rowEnd;
+        float[] row;
+        byte[] rowBytes;
+        FloatBuffer view;
+        ByteBuffer byteView;
+        int[] pixels;
+        YuvConverter yuv;
+
+        Band(int rowStart, int rowEnd) {
+            this.rowStart = rowStart;
+            this.rowEnd = rowEnd;
+        }
+
+        void setTarget(FloatBuffer target) {
+            view = target;
+            byteView = null;
+            if (row == null) {
+                row = new float[width * PIXEL_DIM];
+            }
+        }
+
+        void setTarget(ByteBuffer target) {
+            byteView = target;
+            view = null;
+            if (rowBytes == null) {
+                rowBytes = new byte[width * PIXEL_DIM];
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                convert();
+            } catch (Throwable t) {
+                workerError = t;
+            } finally {
+                if (pending.decrementAndGet() == 0) {
+                    LockSupport.unpark(caller);
+                }
+            }
+        }
+
+        void convert() {
+            if (byteView != null) {
+                convertBytes();
+                return;
+            }
+            final float[] row = this.row;
+            view.position(rowStart * width * PIXEL_DIM);
+            for (int y = rowStart; y < rowEnd; ++y) {
+                if (yuv != null) {
+                    yuv.convertRow(y, row, lutR, lutG, lutB);
+                } else {
+                    convertRow(y, row);
+                }
+                view.put(row);
+            }
+        }
+
+        void convertRow(int y, float[] row) {
+            final int[] pixels = this.pixels;
+            final float[] r = lutR;
+            final float[] g = lutG;
+            final float[] b = lutB;
+            int pixel = y * width;
+            for (int x = 0, i = 0; x < width; ++x, i += PIXEL_DIM) {
+                final int val = pixels[pixel++];
+                row[i] = r[(val >> 16) & 0xFF];
+                row[i + 1] = g[(val >> 8) & 0xFF];
+                row[i + 2] = b[val & 0xFF];
+            }
+        }
+
+        void convertBytes() {
+            final byte[] row = rowBytes;
+            byteView.position(rowStart * width * PIXEL_DIM);
+            for (int y = rowStart; y < rowEnd; ++y) {
+                if (yuv != null) {
+                    yuv.convertRow(y, row);
+                } else {
+                    convertRow(y, row);
+                }
+                byteView.put(row);
+            }
+        }
+
+        void convertRow(int y, byte[] row) {
+            final int[] pixels = this.pixels;
+            int pixel = y * width;
+            for (int x = 0, i = 0; x < width; ++x, i += PIXEL_DIM) {
+                final int val = pixels[pixel++];
+                row[i] = (byte) (val >> 16);
+                row[i + 1] = (byte) (val >> 8);
+                row[i + 2] = (byte) val;
+            }
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package com.example.yolodetector.core;
+
+import java.util.Arrays;
+
+/**
+ * Picks the model input size that holds inference within a latency budget: a slow device
+ * drops to a smaller input to keep the frame rate, a fast one climbs to a larger input for
+ * small objects.
+ *
+ * Inference times feed an exponential moving average. Once enough frames have been seen at the
+ * current size, the controller steps down a size when the average is over budget, and steps up
+ * when the average scaled by the next size's area, which is how a fully convolutional model's
+ * cost grows, stays under {@link #UPSCALE_HEADROOM} of the budget. The average restarts after
+ * every switch, so one size is judged only by its own frames.
+ *
+ * Not thread-safe.
+ */
+public class InputSizeController {
+
+    /** Weight of the newest frame in the moving average */
+    static final double SMOOTHING = 0.1;
+
+    /** Frames at a size before it is judged */
+    static final int MIN_FRAMES = 10;
+
+    /** Share of the budget the next size up must be expected to fit in */
+    static final double UPSCALE_HEADROOM = 0.8;
+
+    private final int[] sizes;
+    private final long budgetNanos;
+
+    private int index;
+    private double averageNanos = 0;
+    private int frames = 0;
+    private int switches = 0;
+
+    /**
+     * @param sizes candidate square input sizes, e.g. 320, 416, 608
+     * @param budgetNanos inference time to stay within
+     * @param initialSize size the interpreter starts at; must be one of {@code sizes}
+     */
+    public InputSizeController(int[] sizes, long budgetNanos, int initialSize) {
+        if (sizes.length == 0) {
+            throw new IllegalArgumentException("No input sizes");
+        }
+        this.sizes = sizes.clone();
+        Arrays.sort(this.sizes);
+        this.budgetNanos = budgetNanos;
+        index = Arrays.binarySearch(this.sizes, initialSize);
+        if (index < 0) {
+            throw new IllegalArgumentException("Initial size " + initialSize + " is not a candidate");
+        }
+    }
+
+    /** Records one inference at the current size and returns the size to use from now on */
+    public int onInference(long nanos) {
+        averageNanos = frames == 0 ? nanos : averageNanos + SMOOTHING * (nanos - averageNanos);
+        if (++frames < MIN_FRAMES) {
+            return sizes[index];
+        }
+        if (averageNanos > budgetNanos && index > 0) {
+            switchTo(index - 1);
+        } else if (index + 1 < sizes.length && averageNanos * area(index + 1) / area(index)
+                < UPSCALE_HEADROOM * budgetNanos) {
+            switchTo(index + 1);
+        }
+        return sizes[index];
+    }
+
+    private double area(int i) {
+        return (double) sizes[i] * sizes[i];
+    }
+
+    private void switchTo(int next) {
+        index = next;
+        frames = 0;
+        averageNanos = 0;
+        ++switches;
+    }
+
+    public int getSize() {
+        return sizes[index];
+    }
+
+    /** Moving average of inference time at the current size, 0 before its first frame */
+    public long getAverageNanos() {
+        return (long) averageNanos;
+    }
+
+    public int getSwitches() {
+        return switches;
+    }
+}
@@ -0,0 +1,133 @@
+package com.example.yolodetector.core;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Fixed-size histogram of nanosecond durations that any number of threads record into without
+ * locks or allocation.
+ *
+ * Buckets are log-linear: values under {@link #SUB_BUCKETS} ns each get their own bucket, and
+ * every power of two above is split into {@link #SUB_BUCKETS} equal buckets, so a reported
+ * percentile is within about 3% of the recorded value from 1 ns up to {@link #MAX_NANOS}.
+ * Longer values count in the last bucket. A snapshot taken while other threads record may
+ * miss their latest values, never more.
+ */
+public class LatencyHistogram {
+
+    /** Linear buckets per power of two */
+    static final int SUB_BUCKETS = 32;
+    private static final int SUB_BITS = 5;
+
+    /** Largest value told apart, about 68 s */
+    public static final long MAX_NANOS = (1L << 36) - 1;
+
+    private static final int BUCKETS = bucketOf(MAX_NANOS) + 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    static int bucketOf(long nanos) {
+        final long value = Math.min(Math.max(nanos, 0), MAX_NANOS);
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        final int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+    }
+
+    /** Smallest value that falls in {@code bucket} */
+    static long lowerBound(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        final int shift = bucket / SUB_BUCKETS - 1;
+        return (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+    }
+
+    /** Records one duration; negative values count as 0 */
+    public void record(long nanos) {
+        counts.incrementAndGet(bucketOf(nanos));
+        count.incrementAndGet();
+        sum.addAndGet(Math.max(nanos, 0));
+        long seen = max.get();
+        while (nanos > seen && !max.compareAndSet(seen, nanos)) {
+            seen = max.get();
+        }
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    /** Clears every bucket; values recorded meanwhile may survive */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; ++i) {
+            counts.set(i, 0);
+        }
+        count.set(0);
+        sum.set(0);
+        max.set(0);
+    }
+
+    /** Percentiles of everything recorded so far */
+    public Snapshot snapshot() {
+        final long[] copy = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; ++i) {
+            copy[i] = counts.get(i);
+            total += copy[i];
+        }
+        final long maxNanos = max.get();
+        return new Snapshot(total, total > 0 ? sum.get() / total : 0,
+                percentile(copy, total, 0.50, maxNanos),
+                percentile(copy, total, 0.95, maxNanos),
+                percentile(copy, total, 0.99, maxNanos),
+                maxNanos);
+    }
+
+    /** Midpoint of the bucket holding the {@code fraction} quantile, capped at the maximum */
+    private static long percentile(long[] counts, long total, double fraction, long maxNanos) {
+        if (total == 0) {
+            return 0;
+        }
+        final long rank = Math.max(1, (long) Math.ceil(fraction * total));
+        long seen = 0;
+        for (int i = 0; i < counts.length; ++i) {
+            seen += counts[i];
+            if (seen >= rank) {
+                final long lower = lowerBound(i);
+                final long upper = i + 1 < counts.length ? lowerBound(i + 1) - 1 : MAX_NANOS;
+                return Math.min(lower + (upper - lower) / 2, maxNanos);
+            }
+        }
+        return maxNanos;
+    }
+
+    /** Percentiles at one point in time, in nanoseconds */
+    public static final class Snapshot {
+        public final long count;
+        public final long meanNanos;
+        public final long p50Nanos;
+        public final long p95Nanos;
+        public final long p99Nanos;
+        public final long maxNanos;
+
+        Snapshot(long count, long meanNanos, long p50Nanos, long p95Nanos, long p99Nanos, long maxNanos) {
+            this.count = count;
+            this.meanNanos = meanNanos;
+            this.p50Nanos = p50Nanos;
+            this.p95Nanos = p95Nanos;
+            this.p99Nanos = p99Nanos;
+            this.maxNanos = maxNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("n=%d p50 %.2f p95 %.2f p99 %.2f max %.2f ms",
+                    count, p50Nanos / 1e6, p95Nanos / 1e6, p99Nanos / 1e6, maxNanos / 1e6);
+        }
+    }
+}
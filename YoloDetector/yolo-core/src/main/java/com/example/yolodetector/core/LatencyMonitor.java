@@ -0,0 +1,102 @@
+package com.example.yolodetector.core;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * One {@link LatencyHistogram} per stage a frame goes through, from the sensor to the spoken
+ * announcement, plus the end-to-end glass-to-voice time a blind user actually waits.
+ *
+ * Every stage records from its own thread without locks; snapshots and exports can be taken
+ * from any thread at any time.
+ */
+public class LatencyMonitor {
+
+    /** Where a frame's time goes, in the order it goes there */
+    public enum Stage {
+        /** Sensor exposure to the frame's planes copied into the detector */
+        ACQUISITION,
+        /** Pixels converted into the input tensor */
+        PREPROCESS,
+        /** Interpreter run */
+        INFERENCE,
+        /** Output tensors decoded into candidate boxes */
+        DECODE,
+        /** Non-maximum suppression of the candidates */
+        NMS,
+        /** Results handed to the UI thread until they are on screen */
+        UI_PUBLISH,
+        /** Speech requested until the engine starts speaking */
+        TTS_START,
+        /** Sensor exposure of the announced frame to the engine starting to speak */
+        GLASS_TO_VOICE
+    }
+
+    private static final Stage[] STAGES = Stage.values();
+
+    private final LatencyHistogram[] histograms = new LatencyHistogram[STAGES.length];
+
+    public LatencyMonitor() {
+        for (int i = 0; i < histograms.length; ++i) {
+            histograms[i] = new LatencyHistogram();
+        }
+    }
+
+    public void record(Stage stage, long nanos) {
+        histograms[stage.ordinal()].record(nanos);
+    }
+
+    public LatencyHistogram getHistogram(Stage stage) {
+        return histograms[stage.ordinal()];
+    }
+
+    public LatencyHistogram.Snapshot snapshot(Stage stage) {
+        return histograms[stage.ordinal()].snapshot();
+    }
+
+    public void reset() {
+        for (LatencyHistogram histogram : histograms) {
+            histogram.reset();
+        }
+    }
+
+    /** One line per stage that has recorded anything, for logcat */
+    public String describe() {
+        final StringBuilder text = new StringBuilder("Latency:");
+        for (Stage stage : STAGES) {
+            final LatencyHistogram.Snapshot snapshot = snapshot(stage);
+            if (snapshot.count > 0) {
+                text.append('\n').append(stage.name().toLowerCase()).append(": ").append(snapshot);
+            }
+        }
+        return text.toString();
+    }
+
+    /**
+     * Writes one CSV row per stage, {@code time,stage,count,mean,p50,p95,p99,max} with the
+     * durations in nanoseconds.
+     *
+     * @param timeMillis wall clock time of the export, to line rows up across exports
+     */
+    public void exportCsv(Writer out, long timeMillis) throws IOException {
+        for (Stage stage : STAGES) {
+            final LatencyHistogram.Snapshot snapshot = snapshot(stage);
+            out.write(timeMillis + "," + stage.name().toLowerCase() + "," + snapshot.count + ","
+                    + snapshot.meanNanos + "," + snapshot.p50Nanos + "," + snapshot.p95Nanos + ","
+                    + snapshot.p99Nanos + "," + snapshot.maxNanos + "\n");
+        }
+    }
+
+    /** Appends {@link #exportCsv} rows to {@code file}, with a header if the file is new */
+    public void appendCsv(File file, long timeMillis) throws IOException {
+        final boolean header = !file.exists() || file.length() == 0;
+        try (Writer out = new FileWriter(file, true)) {
+            if (header) {
+                out.write("time,stage,count,mean_ns,p50_ns,p95_ns,p99_ns,max_ns\n");
+            }
+            exportCsv(out, timeMillis);
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package com.example.yolodetector.core;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Accounts the memory of cached resources, such as interpreter arenas, against a byte budget
+ * and picks which to release when it is exceeded: the least recently used among those not in
+ * use. Resources in use are pinned; they count against the budget but are never picked.
+ *
+ * Not thread-safe.
+ *
+ * @param <K> resource type, compared by identity or equals
+ */
+public class MemoryBudget<K> {
+
+    private static final class Entry {
+        long bytes;
+        int pins;
+    }
+
+    /** Least recently used first; lookups do not reorder, only {@link #touch} does */
+    private final LinkedHashMap<K, Entry> entries = new LinkedHashMap<>();
+
+    private long budgetBytes;
+    private long usedBytes = 0;
+
+    public MemoryBudget(long budgetBytes) {
+        setBudgetBytes(budgetBytes);
+    }
+
+    /** Takes effect at the next {@link #evict} */
+    public void setBudgetBytes(long budgetBytes) {
+        if (budgetBytes < 0) {
+            throw new IllegalArgumentException("Budget must not be negative: " + budgetBytes);
+        }
+        this.budgetBytes = budgetBytes;
+    }
+
+    public long getBudgetBytes() {
+        return budgetBytes;
+    }
+
+    /** Adds a resource, pinned, as the most recently used; re-adding one updates its size */
+    public void add(K key, long bytes) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            entry = new Entry();
+            entry.pins = 1;
+        }
+        touch(key, entry);
+        usedBytes += bytes - entry.bytes;
+        entry.bytes = bytes;
+    }
+
+    /** Marks the resource in use and most recently used */
+    public void pin(K key) {
+        final Entry entry = entry(key);
+        touch(key, entry);
+        entry.pins++;
+    }
+
+    /** Moves the resource to the most recently used end */
+    private void touch(K key, Entry entry) {
+        entries.remove(key);
+        entries.put(key, entry);
+    }
+
+    /** Ends one {@link #pin} or the pin of {@link #add}; the resource becomes evictable at none */
+    public void unpin(K key) {
+        final Entry entry = entry(key);
+        if (entry.pins == 0) {
+            throw new IllegalStateException("Not pinned: " + key);
+        }
+        entry.pins--;
+    }
+
+    private Entry entry(K key) {
+        final Entry entry = entries.get(key);
+        if (entry == null) {
+            throw new IllegalArgumentException("Not in the budget: " + key);
+        }
+        return entry;
+    }
+
+    /** Forgets a resource released elsewhere; does nothing if it is not accounted */
+    public void remove(K key) {
+        final Entry entry = entries.remove(key);
+        if (entry != null) {
+            usedBytes -= entry.bytes;
+        }
+    }
+
+    public boolean contains(K key) {
+        return entries.containsKey(key);
+    }
+
+    public boolean isPinned(K key) {
+        final Entry entry = entries.get(key);
+        return entry != null && entry.pins > 0;
+    }
+
+    /**
+     * Removes unpinned resources, least recently used first, until the used bytes fit the
+     * budget or only pinned ones are left
+     *
+     * @return the removed resources, for the caller to release
+     */
+    public List<K> evict() {
+        return evict(budgetBytes);
+    }
+
+    /** Removes every unpinned resource, e.g. when the system is low on memory */
+    public List<K> evictUnpinned() {
+        // Below any total, so empty resources go too
+        return evict(-1);
+    }
+
+    private List<K> evict(long targetBytes) {
+        final List<K> evicted = new ArrayList<>();
+        final Iterator<Map.Entry<K, Entry>> it = entries.entrySet().iterator();
+        while (usedBytes > targetBytes && it.hasNext()) {
+            final Map.Entry<K, Entry> next = it.next();
+            if (next.getValue().pins == 0) {
+                usedBytes -= next.getValue().bytes;
+                evicted.add(next.getKey());
+                it.remove();
+            }
+        }
+        return evicted;
+    }
+
+    public long getUsedBytes() {
+        return usedBytes;
+    }
+
+    /** Bytes of one resource, 0 if it is not accounted */
+    public long getBytes(K key) {
+        final Entry entry = entries.get(key);
+        return entry != null ? entry.bytes : 0;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+}
@@ -0,0 +1,176 @@
+package com.example.yolodetector.core;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Properties;
+
+/**
+ * Geometry of a YOLO model, read from a small properties file shipped next to it, so a model
+ * with other anchors, classes or heads drops in without a new decoder.
+ *
+ * <pre>
+ * name = tiny-yolov2-coco
+ * classes = 80
+ * layout = cell_anchor          # [h][w][anchor][attr] or anchor_cell: [anchor][h][w][attr]
+ * class_activation = softmax    # softmax (YOLOv2) or sigmoid (YOLOv3)
+ * anchor_units = grid           # grid cells (YOLOv2) or input pixels (YOLOv3)
+ * heads = 1
+ * head.0.stride = 32
+ * head.0.anchors = 0.57273,0.677385, 1.87446,2.06253, ...
+ * </pre>
+ * Heads are listed in the order of the model's output tensors. Each box has the attributes
+ * x, y, w, h, objectness and one logit per class.
+ */
+public class ModelDescriptor {
+
+    /** How a head's output tensor is ordered */
+    public enum Layout {
+        /** [gridHeight][gridWidth][anchor][attribute], the TFLite export of Darknet models */
+        CELL_ANCHOR,
+        /** [anchor][gridHeight][gridWidth][attribute] */
+        ANCHOR_CELL
+    }
+
+    /** How class logits turn into probabilities */
+    public enum Activation {
+        /** One softmax across the classes, YOLOv2 */
+        SOFTMAX,
+        /** An independent sigmoid per class, YOLOv3 and later */
+        SIGMOID
+    }
+
+    private final String name;
+    private final int numClasses;
+    private final Layout layout;
+    private final Activation classActivation;
+    private final int[] strides;
+    /** Per head, anchor width and height pairs in grid cells of that head */
+    private final double[][] anchors;
+
+    public ModelDescriptor(String name, int numClasses, Layout layout, Activation classActivation,
+                           int[] strides, double[][] anchors) {
+        if (numClasses <= 0) {
+            throw new IllegalArgumentException("Model needs at least one class");
+        }
+        if (strides.length == 0 || strides.length != anchors.length) {
+            throw new IllegalArgumentException(strides.length + " strides for " + anchors.length + " anchor sets");
+        }
+        for (int h = 0; h < strides.length; ++h) {
+            if (strides[h] <= 0) {
+                throw new IllegalArgumentException("Head " + h + " has stride " + strides[h]);
+            }
+            if (anchors[h].length == 0 || anchors[h].length % 2 != 0) {
+                throw new IllegalArgumentException("Head " + h + " needs width and height pairs of anchors");
+            }
+        }
+        this.name = name;
+        this.numClasses = numClasses;
+        this.layout = layout;
+        this.classActivation = classActivation;
+        this.strides = strides.clone();
+        this.anchors = new double[anchors.length][];
+        for (int h = 0; h < anchors.length; ++h) {
+            this.anchors[h] = anchors[h].clone();
+        }
+    }
+
+    /**
+     * Reads a descriptor in the format above; the caller closes the stream.
+     *
+     * @throws IOException if the stream fails or the descriptor is incomplete or malformed
+     */
+    public static ModelDescriptor parse(InputStream in) throws IOException {
+        final Properties properties = new Properties();
+        properties.load(in);
+        try {
+            final int heads = Integer.parseInt(required(properties, "heads"));
+            if (heads <= 0) {
+                throw new IllegalArgumentException("heads = " + heads);
+            }
+            final boolean pixelAnchors = parseKeyword(properties.getProperty("anchor_units", "grid"),
+                    "grid", "pixels") == 1;
+            final int[] strides = new int[heads];
+            final double[][] anchors = new double[heads][];
+            for (int h = 0; h < heads; ++h) {
+                strides[h] = Integer.parseInt(required(properties, "head." + h + ".stride"));
+                final String[] values = required(properties, "head." + h + ".anchors").split(",");
+                anchors[h] = new double[values.length];
+                for (int a = 0; a < values.length; ++a) {
+                    anchors[h][a] = Double.parseDouble(values[a].trim());
+                    if (pixelAnchors) {
+                        anchors[h][a] /= strides[h];
+                    }
+                }
+            }
+            return new ModelDescriptor(
+                    properties.getProperty("name", ""),
+                    Integer.parseInt(required(properties, "classes")),
+                    Layout.values()[parseKeyword(properties.getProperty("layout", "cell_anchor"),
+                            "cell_anchor", "anchor_cell")],
+                    Activation.values()[parseKeyword(properties.getProperty("class_activation", "softmax"),
+                            "softmax", "sigmoid")],
+                    strides, anchors);
+        } catch (IllegalArgumentException e) {
+            // NumberFormatException included
+            throw new IOException("Malformed model descriptor: " + e.getMessage(), e);
+        }
+    }
+
+    private static String required(Properties properties, String key) throws IOException {
+        final String value = properties.getProperty(key);
+        if (value == null) {
+            throw new IOException("Model descriptor has no " + key);
+        }
+        return value.trim();
+    }
+
+    /** Index of {@code value} among {@code keywords} */
+    private static int parseKeyword(String value, String... keywords) {
+        for (int i = 0; i < keywords.length; ++i) {
+            if (keywords[i].equalsIgnoreCase(value.trim())) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("'" + value.trim() + "' is not one of " + Arrays.toString(keywords));
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getNumClasses() {
+        return numClasses;
+    }
+
+    public Layout getLayout() {
+        return layout;
+    }
+
+    public Activation getClassActivation() {
+        return classActivation;
+    }
+
+    public int getNumHeads() {
+        return strides.length;
+    }
+
+    /** Input pixels per grid cell of the head */
+    public int getStride(int head) {
+        return strides[head];
+    }
+
+    public int getNumAnchors(int head) {
+        return anchors[head].length / 2;
+    }
+
+    /** Width and height pairs, in grid cells of the head */
+    public double[] getAnchors(int head) {
+        return anchors[head].clone();
+    }
+
+    /** Values per box: x, y, w, h, objectness and the class logits */
+    public int getBoxSize() {
+        return 5 + numClasses;
+    }
+}
@@ -0,0 +1,475 @@
+package com.example.yolodetector.core;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+
+/**
+ * Decodes every output head of a YOLO model described by a {@link ModelDescriptor} into one
+ * set of candidate arrays, in a single pass with no allocation per frame.
+ *
+ * Heads differ only in grid, stride and anchors, so one loop walks them all; the descriptor's
+ * layout sets how far apart cells and anchors are in a head's tensor. Boxes are gated on raw
+ * objectness before any box math or class scoring, quantized heads are decoded on the raw
+ * integers through per-head lookup tables, and the full decode is kept as the reference.
+ */
+public class MultiHeadDecoder {
+
+    private static final float DEFAULT_SCORE_THRESHOLD = 0.01f;
+
+    /**
+     * Margin subtracted from the objectness gate so rounding can never reject a box that the
+     * full decode would keep; boxes near the gate still go through the exact score test.
+     */
+    private static final float GATE_MARGIN = 1e-3f;
+
+    private final int numHeads;
+    private final int numClasses;
+    private final int boxSize;
+    private final boolean sigmoidClasses;
+    private final int inputWidth;
+    private final int inputHeight;
+
+    /** Per head: grid, stride, anchors, and the distance between neighbouring cells and anchors */
+    private final int[] gridWidth;
+    private final int[] gridHeight;
+    private final int[] stride;
+    private final int[] numAnchors;
+    private final double[][] anchors;
+    private final int[] cellStep;
+    private final int[] anchorStep;
+
+    /** Scratch buffer for the class scores of one box, reused for every box */
+    private final float[] classScratch;
+
+    private float scoreThreshold;
+    private float objectnessGate;
+    private boolean earlyRejection = true;
+
+    /** Quantized heads: parameters and lookup tables, per head, null until set */
+    private final float[] quantScale;
+    private final int[] quantZeroPoint;
+    private final int[] quantSignMask;
+    private final int[] quantObjectnessGate;
+    private final float[][] quantSigmoid;
+    private final double[][] quantExp;
+    private final float[][] quantExpDelta;
+
+    /** Decoded candidates of all heads, valid up to {@link #count} */
+    public final float[] x1;
+    public final float[] y1;
+    public final float[] x2;
+    public final float[] y2;
+    public final float[] scores;
+    public final int[] classes;
+    int count = 0;
+
+    /** @throws IllegalArgumentException if the input is not a whole number of cells of every head */
+    public MultiHeadDecoder(ModelDescriptor descriptor, int inputWidth, int inputHeight) {
+        numHeads = descriptor.getNumHeads();
+        numClasses = descriptor.getNumClasses();
+        boxSize = descriptor.getBoxSize();
+        sigmoidClasses = descriptor.getClassActivation() == ModelDescriptor.Activation.SIGMOID;
+        this.inputWidth = inputWidth;
+        this.inputHeight = inputHeight;
+
+        gridWidth = new int[numHeads];
+        gridHeight = new int[numHeads];
+        stride = new int[numHeads];
+        numAnchors = new int[numHeads];
+        anchors = new double[numHeads][];
+        cellStep = new int[numHeads];
+        anchorStep = new int[numHeads];
+        int capacity = 0;
+        for (int h = 0; h < numHeads; ++h) {
+            stride[h] = descriptor.getStride(h);
+            if (inputWidth % stride[h] != 0 || inputHeight % stride[h] != 0) {
+                throw new IllegalArgumentException("Input " + inputWidth + "x" + inputHeight
+                        + " is not a multiple of head " + h + "'s stride " + stride[h]);
+            }
+            gridWidth[h] = inputWidth / stride[h];
+            gridHeight[h] = inputHeight / stride[h];
+            numAnchors[h] = descriptor.getNumAnchors(h);
+            anchors[h] = descriptor.getAnchors(h);
+            if (descriptor.getLayout() == ModelDescriptor.Layout.CELL_ANCHOR) {
+                anchorStep[h] = boxSize;
+                cellStep[h] = numAnchors[h] * boxSize;
+            } else {
+                cellStep[h] = boxSize;
+                anchorStep[h] = gridWidth[h] * gridHeight[h] * boxSize;
+            }
+            capacity += gridWidth[h] * gridHeight[h] * numAnchors[h];
+        }
+
+        classScratch = new float[numClasses];
+        x1 = new float[capacity];
+        y1 = new float[capacity];
+        x2 = new float[capacity];
+        y2 = new float[capacity];
+        scores = new float[capacity];
+        classes = new int[capacity];
+
+        quantScale = new float[numHeads];
+        quantZeroPoint = new int[numHeads];
+        quantSignMask = new int[numHeads];
+        quantObjectnessGate = new int[numHeads];
+        quantSigmoid = new float[numHeads][];
+        quantExp = new double[numHeads][];
+        quantExpDelta = new float[numHeads][];
+        setScoreThreshold(DEFAULT_SCORE_THRESHOLD);
+    }
+
+    /**
+     * Builds the decoder for the interpreter's tensors and checks every output against the
+     * descriptor.
+     *
+     * @param inputShape NHWC input shape
+     * @param outputShapes one shape per head, in descriptor order
+     */
+    public static MultiHeadDecoder forTensorShapes(ModelDescriptor descriptor, int[] inputShape, int[][] outputShapes) {
+        if (inputShape.length != 4) {
+            throw new IllegalArgumentException("Expected an NHWC input tensor");
+        }
+        if (outputShapes.length != descriptor.getNumHeads()) {
+            throw new IllegalArgumentException("Model has " + outputShapes.length + " outputs, descriptor "
+                    + descriptor.getNumHeads() + " heads");
+        }
+        final MultiHeadDecoder decoder = new MultiHeadDecoder(descriptor, inputShape[2], inputShape[1]);
+        for (int h = 0; h < outputShapes.length; ++h) {
+            int elements = 1;
+            for (int dim : outputShapes[h]) {
+                elements *= dim;
+            }
+            if (elements != decoder.getOutputSize(h)) {
+                throw new IllegalArgumentException("Output " + h + " has " + elements + " values, head expects "
+                        + decoder.getOutputSize(h));
+            }
+        }
+        return decoder;
+    }
+
+    /**
+     * Sets the minimum class confidence (objectness * class probability) of a candidate.
+     * Since the class probability is at most 1, a box can only pass if its objectness alone
+     * does, which lets the gated decode test the raw logit against logit(threshold).
+     */
+    public void setScoreThreshold(float threshold) {
+        scoreThreshold = threshold;
+        if (threshold <= 0) {
+            objectnessGate = Float.NEGATIVE_INFINITY;
+        } else if (threshold >= 1) {
+            objectnessGate = Float.POSITIVE_INFINITY;
+        } else {
+            objectnessGate = (float) Math.log(threshold / (1. - threshold)) - GATE_MARGIN;
+        }
+        for (int h = 0; h < numHeads; ++h) {
+            updateQuantizedGate(h);
+        }
+    }
+
+    public float getScoreThreshold() {
+        return scoreThreshold;
+    }
+
+    /** Switches between the objectness-gated decode and the full reference decode */
+    public void setEarlyRejection(boolean enabled) {
+        earlyRejection = enabled;
+    }
+
+    /**
+     * Configures decoding of a quantized head, real = (raw - zeroPoint) * scale; heads of one
+     * model usually have their own parameters.
+     *
+     * @param signed true for int8 output, false for uint8
+     */
+    public void setQuantization(int head, float scale, int zeroPoint, boolean signed) {
+        if (!(scale > 0)) {
+            throw new IllegalArgumentException("Quantization scale must be positive: " + scale);
+        }
+        quantScale[head] = scale;
+        quantZeroPoint[head] = zeroPoint;
+        quantSignMask[head] = signed ? 0xFFFFFFFF : 0xFF;
+        quantSigmoid[head] = new float[256];
+        quantExp[head] = new double[256];
+        quantExpDelta[head] = new float[256];
+        for (int i = 0; i < 256; ++i) {
+            final float real = ((signed ? (byte) i : i) - zeroPoint) * scale;
+            quantSigmoid[head][i] = expit(real);
+            quantExp[head][i] = Math.exp(real);
+            quantExpDelta[head][i] = (float) Math.exp(-i * scale);
+        }
+        updateQuantizedGate(head);
+    }
+
+    /** Whether every head has quantization parameters */
+    public boolean isQuantized() {
+        for (int h = 0; h < numHeads; ++h) {
+            if (quantSigmoid[h] == null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void updateQuantizedGate(int head) {
+        if (quantScale[head] == 0.0f) {
+            return;
+        }
+        if (objectnessGate == Float.NEGATIVE_INFINITY) {
+            quantObjectnessGate[head] = Integer.MIN_VALUE;
+        } else if (objectnessGate == Float.POSITIVE_INFINITY) {
+            quantObjectnessGate[head] = Integer.MAX_VALUE;
+        } else {
+            // raw > floor(gate / scale + zeroPoint) is the same test as real > gate
+            quantObjectnessGate[head] = (int) Math.floor(objectnessGate / (double) quantScale[head] + quantZeroPoint[head]);
+        }
+    }
+
+    public int getNumHeads() {
+        return numHeads;
+    }
+
+    public int getGridWidth(int head) {
+        return gridWidth[head];
+    }
+
+    public int getGridHeight(int head) {
+        return gridHeight[head];
+    }
+
+    /** Values in the head's output tensor */
+    public int getOutputSize(int head) {
+        return gridWidth[head] * gridHeight[head] * numAnchors[head] * boxSize;
+    }
+
+    /** Maximum number of candidates a single frame can produce, over all heads */
+    public int getCapacity() {
+        return x1.length;
+    }
+
+    /**
+     * Decodes one frame, every head into the same candidate arrays.
+     *
+     * @param outputs one flat output tensor per head, read with absolute gets
+     * @return number of candidates above the score threshold
+     */
+    public int decode(final FloatBuffer[] outputs) {
+        int n = 0;
+        for (int h = 0; h < numHeads; ++h) {
+            n = earlyRejection ? decodeGated(h, outputs[h], n) : decodeFull(h, outputs[h], n);
+        }
+        count = n;
+        return n;
+    }
+
+    /**
+     * Decodes one frame of quantized heads, one byte per value, on the raw integers.
+     *
+     * @param outputs one raw output tensor per head, read with absolute gets
+     * @return number of candidates above the score threshold
+     */
+    public int decodeQuantized(final ByteBuffer[] outputs) {
+        if (!isQuantized()) {
+            throw new IllegalStateException("Quantization parameters have not been set for every head");
+        }
+        int n = 0;
+        for (int h = 0; h < numHeads; ++h) {
+            n = decodeQuantized(h, outputs[h], n);
+        }
+        count = n;
+        return n;
+    }
+
+    /** Writes a candidate at index n, its box clamped to the input */
+    private void emit(int n, float xPos, float yPos, float w, float h, float confidenceInClass, int detectedClass) {
+        x1[n] = Math.max(0, xPos - w / 2);
+        y1[n] = Math.max(0, yPos - h / 2);
+        x2[n] = Math.min(inputWidth - 1, xPos + w / 2);
+        y2[n] = Math.min(inputHeight - 1, yPos + h / 2);
+        scores[n] = confidenceInClass;
+        classes[n] = detectedClass;
+    }
+
+    private int decodeGated(final int head, final FloatBuffer output, int n) {
+        final int gw = gridWidth[head];
+        final int gh = gridHeight[head];
+        final int boxes = numAnchors[head];
+        final int cells = cellStep[head];
+        final int anchorsApart = anchorStep[head];
+        final int blockSize = stride[head];
+        final double[] anchor = anchors[head];
+        final float gate = objectnessGate;
+        for (int y = 0; y < gh; ++y) {
+            for (int x = 0; x < gw; ++x) {
+                final int cellOffset = (y * gw + x) * cells;
+                for (int b = 0; b < boxes; ++b) {
+                    final int offset = cellOffset + b * anchorsApart;
+
+                    final float objectness = output.get(offset + 4);
+                    if (!(objectness > gate)) {
+                        continue;
+                    }
+
+                    final int classOffset = offset + 5;
+                    int detectedClass = 0;
+                    float maxLogit = output.get(classOffset);
+                    for (int c = 1; c < numClasses; ++c) {
+                        final float logit = output.get(classOffset + c);
+                        if (logit > maxLogit) {
+                            detectedClass = c;
+                            maxLogit = logit;
+                        }
+                    }
+                    final float classProbability;
+                    if (sigmoidClasses) {
+                        classProbability = expit(maxLogit);
+                    } else {
+                        float sum = 0.0f;
+                        for (int c = 0; c < numClasses; ++c) {
+                            sum += (float) Math.exp(output.get(classOffset + c) - maxLogit);
+                        }
+                        classProbability = 1.0f / sum;
+                    }
+
+                    final float confidenceInClass = classProbability * expit(objectness);
+                    if (confidenceInClass > scoreThreshold) {
+                        final float xPos = (x + expit(output.get(offset))) * blockSize;
+                        final float yPos = (y + expit(output.get(offset + 1))) * blockSize;
+                        final float w = (float) (Math.exp(output.get(offset + 2)) * anchor[2 * b + 0]) * blockSize;
+                        final float h = (float) (Math.exp(output.get(offset + 3)) * anchor[2 * b + 1]) * blockSize;
+                        emit(n++, xPos, yPos, w, h, confidenceInClass, detectedClass);
+                    }
+                }
+            }
+        }
+        return n;
+    }
+
+    private int decodeFull(final int head, final FloatBuffer output, int n) {
+        final int gw = gridWidth[head];
+        final int gh = gridHeight[head];
+        final int boxes = numAnchors[head];
+        final int cells = cellStep[head];
+        final int anchorsApart = anchorStep[head];
+        final int blockSize = stride[head];
+        final double[] anchor = anchors[head];
+        final float[] probs = classScratch;
+        for (int y = 0; y < gh; ++y) {
+            for (int x = 0; x < gw; ++x) {
+                final int cellOffset = (y * gw + x) * cells;
+                for (int b = 0; b < boxes; ++b) {
+                    final int offset = cellOffset + b * anchorsApart;
+
+                    final float xPos = (x + expit(output.get(offset))) * blockSize;
+                    final float yPos = (y + expit(output.get(offset + 1))) * blockSize;
+                    final float w = (float) (Math.exp(output.get(offset + 2)) * anchor[2 * b + 0]) * blockSize;
+                    final float h = (float) (Math.exp(output.get(offset + 3)) * anchor[2 * b + 1]) * blockSize;
+                    final float confidence = expit(output.get(offset + 4));
+
+                    for (int c = 0; c < numClasses; ++c) {
+                        probs[c] = output.get(offset + 5 + c);
+                    }
+                    if (sigmoidClasses) {
+                        for (int c = 0; c < numClasses; ++c) {
+                            probs[c] = expit(probs[c]);
+                        }
+                    } else {
+                        softmax(probs);
+                    }
+
+                    int detectedClass = -1;
+                    float maxClass = 0;
+                    for (int c = 0; c < numClasses; ++c) {
+                        if (probs[c] > maxClass) {
+                            detectedClass = c;
+                            maxClass = probs[c];
+                        }
+                    }
+                    final float confidenceInClass = maxClass * confidence;
+                    if (confidenceInClass > scoreThreshold) {
+                        emit(n++, xPos, yPos, w, h, confidenceInClass, detectedClass);
+                    }
+                }
+            }
+        }
+        return n;
+    }
+
+    private int decodeQuantized(final int head, final ByteBuffer output, int n) {
+        final int gw = gridWidth[head];
+        final int gh = gridHeight[head];
+        final int boxes = numAnchors[head];
+        final int cells = cellStep[head];
+        final int anchorsApart = anchorStep[head];
+        final int blockSize = stride[head];
+        final double[] anchor = anchors[head];
+        final int gate = quantObjectnessGate[head];
+        final int signMask = quantSignMask[head];
+        final float[] sigmoid = quantSigmoid[head];
+        final double[] exp = quantExp[head];
+        final float[] expDelta = quantExpDelta[head];
+        for (int y = 0; y < gh; ++y) {
+            for (int x = 0; x < gw; ++x) {
+                final int cellOffset = (y * gw + x) * cells;
+                for (int b = 0; b < boxes; ++b) {
+                    final int offset = cellOffset + b * anchorsApart;
+
+                    // Sign-extended for int8, zero-extended for uint8
+                    final int objectness = output.get(offset + 4) & signMask;
+                    if (objectness <= gate) {
+                        continue;
+                    }
+
+                    final int classOffset = offset + 5;
+                    int detectedClass = 0;
+                    int maxRaw = output.get(classOffset) & signMask;
+                    for (int c = 1; c < numClasses; ++c) {
+                        final int raw = output.get(classOffset + c) & signMask;
+                        if (raw > maxRaw) {
+                            detectedClass = c;
+                            maxRaw = raw;
+                        }
+                    }
+                    final float classProbability;
+                    if (sigmoidClasses) {
+                        classProbability = sigmoid[maxRaw & 0xFF];
+                    } else {
+                        float sum = 0.0f;
+                        for (int c = 0; c < numClasses; ++c) {
+                            sum += expDelta[maxRaw - (output.get(classOffset + c) & signMask)];
+                        }
+                        classProbability = 1.0f / sum;
+                    }
+
+                    final float confidenceInClass = classProbability * sigmoid[objectness & 0xFF];
+                    if (confidenceInClass > scoreThreshold) {
+                        final float xPos = (x + sigmoid[output.get(offset) & 0xFF]) * blockSize;
+                        final float yPos = (y + sigmoid[output.get(offset + 1) & 0xFF]) * blockSize;
+                        final float w = (float) (exp[output.get(offset + 2) & 0xFF] * anchor[2 * b + 0]) * blockSize;
+                        final float h = (float) (exp[output.get(offset + 3) & 0xFF] * anchor[2 * b + 1]) * blockSize;
+                        emit(n++, xPos, yPos, w, h, confidenceInClass, detectedClass);
+                    }
+                }
+            }
+        }
+        return n;
+    }
+
+    public static float expit(final float x) {
+        return (float) (1. / (1. + Math.exp(-x)));
+    }
+
+    public static void softmax(final float[] vals) {
+        float max = Float.NEGATIVE_INFINITY;
+        for (final float val : vals) {
+            max = Math.max(max, val);
+        }
+        float sum = 0.0f;
+        for (int i = 0; i < vals.length; ++i) {
+            vals[i] = (float) Math.exp(vals[i] - max);
+            sum += vals[i];
+        }
+        for (int i = 0; i < vals.length; ++i) {
+            vals[i] = vals[i] / sum;
+        }
+    }
+}
@@ -0,0 +1,342 @@
+package com.example.yolodetector.core;
+
+/**
+ * Class-aware non-maximum suppression over primitive coordinate arrays.
+ *
+ * Candidates are ordered once through a lazily drained max-heap, so only the boxes that are
+ * actually visited pay for ordering. Greedy and Fast-NMS stop as soon as {@code maxResults}
+ * boxes are settled; Matrix-NMS decays the scores of the top {@code preNmsTopK} boxes.
+ * All scratch space is allocated up front for {@code capacity} candidates.
+ */
+public class NmsEngine {
+
+    public enum Mode {
+        /** Classic greedy suppression against the boxes kept so far */
+        GREEDY,
+        /** Fast-NMS: suppressed by any higher scoring box of the class, kept or not */
+        FAST,
+        /** Matrix-NMS: soft score decay instead of hard suppression */
+        MATRIX
+    }
+
+    private static final int DEFAULT_PRE_NMS_TOP_K = 200;
+
+    private static final float DEFAULT_MATRIX_SIGMA = 2.0f;
+
+    private final int capacity;
+    private final int maxResults;
+    private float iouThreshold;
+    private Mode mode = Mode.GREEDY;
+
+    /** Matrix-NMS: gaussian decay parameter */
+    private float matrixSigma = DEFAULT_MATRIX_SIGMA;
+
+    /** Matrix-NMS: minimum decayed score to keep a box */
+    private float matrixScoreThreshold = 0.0f;
+
+    /** Fast/Matrix-NMS: number of top boxes considered */
+    private final int preNmsTopK;
+
+    /** Max-heap of candidate indices */
+    private final int[] heap;
+
+    /** Candidates in descending score order, copied out of the heap as they are visited */
+    private final int[] order;
+    private final float[] sx1;
+    private final float[] sy1;
+    private final float[] sx2;
+    private final float[] sy2;
+    private final float[] sArea;
+    private final int[] sClass;
+
+    /** Greedy NMS: visit slots of the kept boxes */
+    private final int[] keepSlot;
+
+    /** Matrix-NMS scratch */
+    private final float[] iouMatrix;
+    private final float[] compensate;
+    private final float[] decayed;
+
+    /** Indices of the kept candidates in descending score order, valid up to {@link #keepCount} */
+    public final int[] keep;
+
+    /** Scores of the kept candidates; decayed scores in Matrix-NMS mode */
+    public final float[] keepScores;
+
+    int keepCount = 0;
+
+    public NmsEngine(int capacity, int maxResults, float iouThreshold) {
+        this(capacity, maxResults, iouThreshold, DEFAULT_PRE_NMS_TOP_K);
+    }
+
+    public NmsEngine(int capacity, int maxResults, float iouThreshold, int preNmsTopK) {
+        this.capacity = capacity;
+        this.maxResults = maxResults;
+        this.iouThreshold = iouThreshold;
+        this.preNmsTopK = Math.min(preNmsTopK, capacity);
+
+        heap = new int[capacity];
+        order = new int[capacity];
+        sx1 = new float[capacity];
+        sy1 = new float[capacity];
+        sx2 = new float[capacity];
+        sy2 = new float[capacity];
+        sArea = new float[capacity];
+        sClass = new int[capacity];
+
+        iouMatrix = new float[this.preNmsTopK * this.preNmsTopK];
+        compensate = new float[this.preNmsTopK];
+        decayed = new float[this.preNmsTopK];
+
+        keepSlot = new int[maxResults];
+        keep = new int[maxResults];
+        keepScores = new float[maxResults];
+    }
+
+    public void setMode(Mode mode) {
+        this.mode = mode;
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    public void setIouThreshold(float iouThreshold) {
+        this.iouThreshold = iouThreshold;
+    }
+
+    public void setMatrixSigma(float sigma) {
+        matrixSigma = sigma;
+    }
+
+    public void setMatrixScoreThreshold(float threshold) {
+        matrixScoreThreshold = threshold;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int getMaxResults() {
+        return maxResults;
+    }
+
+    /**
+     * Runs suppression over the first {@code count} candidates.
+     *
+     * @return number of kept candidates, also stored in {@link #keepCount}
+     */
+    public int run(float[] x1, float[] y1, float[] x2, float[] y2, float[] scores, int[] classes, int count) {
+        if (count > capacity) {
+            throw new IllegalArgumentException(
+                    "Candidate count " + count + " exceeds NMS capacity " + capacity);
+        }
+        keepCount = 0;
+        if (count == 0 || maxResults == 0) {
+            return 0;
+        }
+        buildHeap(scores, count);
+        switch (mode) {
+            case FAST:
+                runFast(x1, y1, x2, y2, scores, classes, count);
+                break;
+            case MATRIX:
+                runMatrix(x1, y1, x2, y2, scores, classes, count);
+                break;
+            default:
+                runGreedy(x1, y1, x2, y2, scores, classes, count);
+                break;
+        }
+        return keepCount;
+    }
+
+    private void runGreedy(float[] x1, float[] y1, float[] x2, float[] y2, float[] scores, int[] classes,
+                           int count) {
+        int heapSize = count;
+        int visited = 0;
+        while (heapSize > 0 && keepCount < maxResults) {
+            final int idx = heap[0];
+            heapSize = pop(scores, heapSize);
+            visit(visited, idx, x1, y1, x2, y2, classes);
+
+            boolean suppressed = false;
+            for (int k = 0; k < keepCount; ++k) {
+                final int s = keepSlot[k];
+                if (sClass[s] == sClass[visited] && iou(s, visited) > iouThreshold) {
+                    suppressed = true;
+                    break;
+                }
+            }
+            if (!suppressed) {
+                keepSlot[keepCount] = visited;
+                keep[keepCount] = idx;
+                keepScores[keepCount] = scores[idx];
+                ++keepCount;
+            }
+            ++visited;
+        }
+    }
+
+    private void runFast(float[] x1, float[] y1, float[] x2, float[] y2, float[] scores, int[] classes,
+                         int count) {
+        final int n = Math.min(count, preNmsTopK);
+        int heapSize = count;
+        for (int j = 0; j < n && keepCount < maxResults; ++j) {
+            final int idx = heap[0];
+            heapSize = pop(scores, heapSize);
+            visit(j, idx, x1, y1, x2, y2, classes);
+
+            boolean suppressed = false;
+            for (int i = 0; i < j; ++i) {
+                if (sClass[i] == sClass[j] && iou(i, j) > iouThreshold) {
+                    suppressed = true;
+                    break;
+                }
+            }
+            if (!suppressed) {
+                keep[keepCount] = idx;
+                keepScores[keepCount] = scores[idx];
+                ++keepCount;
+            }
+        }
+    }
+
+    private void runMatrix(float[] x1, float[] y1, float[] x2, float[] y2, float[] scores, int[] classes,
+                           int count) {
+        final int n = Math.min(count, preNmsTopK);
+        int heapSize = count;
+        for (int j = 0; j < n; ++j) {
+            final int idx = heap[0];
+            heapSize = pop(scores, heapSize);
+            visit(j, idx, x1, y1, x2, y2, classes);
+        }
+
+        // Pairwise IoU of each box with every higher scoring box of its class
+        for (int j = 0; j < n; ++j) {
+            float maxIou = 0.0f;
+            final int row = j * n;
+            for (int i = 0; i < j; ++i) {
+                final float v = sClass[i] == sClass[j] ? iou(i, j) : 0.0f;
+                iouMatrix[row + i] = v;
+                if (v > maxIou) {
+                    maxIou = v;
+                }
+            }
+            compensate[j] = maxIou;
+        }
+
+        for (int j = 0; j < n; ++j) {
+            float decay = 1.0f;
+            final int row = j * n;
+            for (int i = 0; i < j; ++i) {
+                final float v = iouMatrix[row + i];
+                if (v == 0.0f) {
+                    // no overlap only ever decays by a factor >= 1
+                    continue;
+                }
+                final float d = (float) Math.exp(-matrixSigma * (v * v - compensate[i] * compensate[i]));
+                if (d < decay) {
+                    decay = d;
+                }
+            }
+            decayed[j] = scores[order[j]] * decay;
+        }
+
+        // Decay can reorder boxes, so select the top results by insertion
+        for (int j = 0; j < n; ++j) {
+            final float score = decayed[j];
+            if (score <= matrixScoreThreshold) {
+                continue;
+            }
+            if (keepCount == maxResults && score <= keepScores[keepCount - 1]) {
+                continue;
+            }
+            int pos = keepCount < maxResults ? keepCount++ : keepCount - 1;
+            while (pos > 0 && keepScores[pos - 1] < score) {
+                keepScores[pos] = keepScores[pos - 1];
+                keep[pos] = keep[pos - 1];
+                --pos;
+            }
+            keepScores[pos] = score;
+            keep[pos] = order[j];
+        }
+    }
+
+    /** Copies candidate {@code idx} into visit slot {@code slot} */
+    private void visit(int slot, int idx, float[] x1, float[] y1, float[] x2, float[] y2, int[] classes) {
+        order[slot] = idx;
+        sx1[slot] = x1[idx];
+        sy1[slot] = y1[idx];
+        sx2[slot] = x2[idx];
+        sy2[slot] = y2[idx];
+        sArea[slot] = (x2[idx] - x1[idx] + 1) * (y2[idx] - y1[idx] + 1);
+        sClass[slot] = classes[idx];
+    }
+
+    private float iou(int a, int b) {
+        return iou(sx1[a], sy1[a], sx2[a], sy2[a], sArea[a], sx1[b], sy1[b], sx2[b], sy2[b], sArea[b]);
+    }
+
+    private static float iou(float ax1, float ay1, float ax2, float ay2, float areaA,
+                             float bx1, float by1, float bx2, float by2, float areaB) {
+        final float w = Math.min(ax2, bx2) - Math.max(ax1, bx1) + 1;
+        if (w <= 0) {
+            return 0.0f;
+        }
+        final float h = Math.min(ay2, by2) - Math.max(ay1, by1) + 1;
+        if (h <= 0) {
+            return 0.0f;
+        }
+        final float intersection = w * h;
+        return intersection / (areaA + areaB - intersection);
+    }
+
+    /**
+     * Intersection over union of two boxes in pixel coordinates, with inclusive edges.
+     */
+    public static float iou(float ax1, float ay1, float ax2, float ay2, float bx1, float by1, float bx2, float by2) {
+        return iou(ax1, ay1, ax2, ay2, (ax2 - ax1 + 1) * (ay2 - ay1 + 1),
+                bx1, by1, bx2, by2, (bx2 - bx1 + 1) * (by2 - by1 + 1));
+    }
+
+    /** Returns true if candidate a ranks above candidate b; ties go to the lower index */
+    private static boolean above(float[] scores, int a, int b) {
+        return scores[a] > scores[b] || (scores[a] == scores[b] && a < b);
+    }
+
+    private void buildHeap(float[] scores, int count) {
+        for (int i = 0; i < count; ++i) {
+            heap[i] = i;
+        }
+        for (int i = (count >>> 1) - 1; i >= 0; --i) {
+            siftDown(scores, i, count);
+        }
+    }
+
+    /** Removes the top of the heap and returns the new heap size */
+    private int pop(float[] scores, int size) {
+        final int last = size - 1;
+        heap[0] = heap[last];
+        siftDown(scores, 0, last);
+        return last;
+    }
+
+    private void siftDown(float[] scores, int pos, int size) {
+        final int item = heap[pos];
+        while (true) {
+            int child = 2 * pos + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && above(scores, heap[child + 1], heap[child])) {
+                ++child;
+            }
+            if (!above(scores, heap[child], item)) {
+                break;
+            }
+            heap[pos] = heap[child];
+            pos = child;
+        }
+        heap[pos] = item;
+    }
+}
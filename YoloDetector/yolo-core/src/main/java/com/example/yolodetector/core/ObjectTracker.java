@@ -0,0 +1,372 @@
+package com.example.yolodetector.core;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Follows detections from frame to frame, so the detector only has to run on some of them.
+ *
+ * Detections are associated with tracks of the same class by IoU against each track's box
+ * predicted to the frame's timestamp, best pair first. Every track runs a constant-velocity
+ * alpha-beta filter on its box center and size, which keeps its ID stable through jitter and
+ * predicts where it is on the frames the detector skips.
+ *
+ * {@link #shouldDetect} decides per frame whether the detector runs. The interval between
+ * detections grows by one frame after each detection in which every track matched tightly, up
+ * to {@code maxSkipFrames} skipped frames, and drops back to every frame as soon as a track
+ * appears, is missed or matches loosely, or when a track is predicted to have moved more than a
+ * fraction of its size since it was last detected. An empty scene is detected on every frame.
+ *
+ * Not thread-safe.
+ */
+public class ObjectTracker {
+
+    /** One object followed across frames; boxes are in the detector's input coordinates */
+    public static final class Track {
+        private final int id;
+        private final int classId;
+        private float score;
+
+        /** Filtered center and size at the last detection, and their rates per second */
+        private float cx, cy, w, h;
+        private float vx, vy, vw, vh;
+        private long measuredNanos;
+
+        /** Box at the last update or prediction */
+        private float x1, y1, x2, y2;
+        private long timestampNanos;
+
+        private int hits = 1;
+        private int misses = 0;
+        private float lastIou = 1f;
+        /** Detection matched in the current update, or -1 */
+        private int match = -1;
+
+        Track(int id, int classId, float score, float x1, float y1, float x2, float y2, long timestampNanos) {
+            this.id = id;
+            this.classId = classId;
+            this.score = score;
+            cx = (x1 + x2) / 2;
+            cy = (y1 + y2) / 2;
+            w = x2 - x1;
+            h = y2 - y1;
+            measuredNanos = timestampNanos;
+            predictTo(timestampNanos);
+        }
+
+        /** Moves the box to where the filter expects it at {@code timestampNanos} */
+        void predictTo(long timestampNanos) {
+            final float dt = Math.min(Math.max(timestampNanos - measuredNanos, 0L), MAX_EXTRAPOLATION_NANOS) / 1e9f;
+            final float px = cx + vx * dt;
+            final float py = cy + vy * dt;
+            final float pw = Math.max(w + vw * dt, MIN_SIZE);
+            final float ph = Math.max(h + vh * dt, MIN_SIZE);
+            x1 = px - pw / 2;
+            y1 = py - ph / 2;
+            x2 = px + pw / 2;
+            y2 = py + ph / 2;
+            this.timestampNanos = timestampNanos;
+        }
+
+        /** Corrects the prediction made for the detection's timestamp towards the detection */
+        void correct(float score, float dx1, float dy1, float dx2, float dy2, float alpha, float beta) {
+            final float dt = (timestampNanos - measuredNanos) / 1e9f;
+            final float zx = (dx1 + dx2) / 2;
+            final float zy = (dy1 + dy2) / 2;
+            final float zw = dx2 - dx1;
+            final float zh = dy2 - dy1;
+            final float px = (x1 + x2) / 2;
+            final float py = (y1 + y2) / 2;
+            final float pw = x2 - x1;
+            final float ph = y2 - y1;
+            if (dt <= 0f) {
+                cx = zx;
+                cy = zy;
+                w = zw;
+                h = zh;
+            } else if (hits == 1) {
+                // Second sighting: take the velocity as measured instead of easing into it
+                vx = (zx - cx) / dt;
+                vy = (zy - cy) / dt;
+                vw = (zw - w) / dt;
+                vh = (zh - h) / dt;
+                cx = zx;
+                cy = zy;
+                w = zw;
+                h = zh;
+            } else {
+                cx = px + alpha * (zx - px);
+                cy = py + alpha * (zy - py);
+                w = pw + alpha * (zw - pw);
+                h = ph + alpha * (zh - ph);
+                vx += beta * (zx - px) / dt;
+                vy += beta * (zy - py) / dt;
+                vw += beta * (zw - pw) / dt;
+                vh += beta * (zh - ph) / dt;
+            }
+            this.score = score;
+            measuredNanos = timestampNanos;
+            predictTo(timestampNanos);
+        }
+
+        public int getId() {
+            return id;
+        }
+
+        public int getClassId() {
+            return classId;
+        }
+
+        /** Score of the last detection matched to this track */
+        public float getScore() {
+            return score;
+        }
+
+        public float getX1() {
+            return x1;
+        }
+
+        public float getY1() {
+            return y1;
+        }
+
+        public float getX2() {
+            return x2;
+        }
+
+        public float getY2() {
+            return y2;
+        }
+
+        /** Center velocity, in input pixels per second */
+        public float getVelocityX() {
+            return vx;
+        }
+
+        public float getVelocityY() {
+            return vy;
+        }
+
+        /** Detections matched to this track, including the first */
+        public int getHits() {
+            return hits;
+        }
+
+        /** Consecutive detections that did not match this track */
+        public int getMisses() {
+            return misses;
+        }
+
+        /** Whether the box is extrapolated rather than corrected by a detection at its timestamp */
+        public boolean isPredicted() {
+            return timestampNanos != measuredNanos || misses > 0;
+        }
+    }
+
+    /** Predictions stop moving this long after the last detection */
+    static final long MAX_EXTRAPOLATION_NANOS = 500_000_000L;
+
+    /** Smallest predicted box side, in input pixels */
+    static final float MIN_SIZE = 1f;
+
+    private static final float DEFAULT_MATCH_IOU = 0.3f;
+    private static final float DEFAULT_STABLE_IOU = 0.6f;
+    private static final float DEFAULT_MAX_SHIFT = 0.5f;
+    private static final int DEFAULT_MAX_MISSES = 2;
+    private static final float ALPHA = 0.7f;
+    private static final float BETA = 0.3f;
+
+    private final int maxSkipFrames;
+    private final List<Track> tracks = new ArrayList<>();
+    private int nextId = 0;
+
+    private float matchIou = DEFAULT_MATCH_IOU;
+    private float stableIou = DEFAULT_STABLE_IOU;
+    private float maxShift = DEFAULT_MAX_SHIFT;
+    private int maxMisses = DEFAULT_MAX_MISSES;
+
+    /** Detections of the current update already matched to a track */
+    private boolean[] matched = new boolean[16];
+
+    /** Frames between detections, 1 for every frame */
+    private int interval = 1;
+    private int skipped = 0;
+
+    private long framesDetected = 0;
+    private long framesPredicted = 0;
+
+    /** @param maxSkipFrames most frames to predict in a row between two detections; 0 never skips */
+    public ObjectTracker(int maxSkipFrames) {
+        if (maxSkipFrames < 0) {
+            throw new IllegalArgumentException("maxSkipFrames must not be negative");
+        }
+        this.maxSkipFrames = maxSkipFrames;
+    }
+
+    /** Lowest IoU between a predicted track and a detection for them to be associated, 0.3 by default */
+    public void setMatchIou(float iou) {
+        matchIou = iou;
+    }
+
+    /** Lowest IoU of every match for the detection interval to grow, 0.6 by default */
+    public void setStableIou(float iou) {
+        stableIou = iou;
+    }
+
+    /**
+     * Predicted movement since the last detection, as a fraction of the track's smaller side,
+     * beyond which the next frame is detected; 0.5 by default.
+     */
+    public void setMaxShift(float fraction) {
+        maxShift = fraction;
+    }
+
+    /** Detections in a row a track may miss before it is dropped, 2 by default */
+    public void setMaxMisses(int misses) {
+        maxMisses = misses;
+    }
+
+    /**
+     * Decides whether the frame at {@code timestampNanos} goes through the detector, or whether
+     * {@link #predict} is enough. Call once per frame, in frame order.
+     */
+    public boolean shouldDetect(long timestampNanos) {
+        final boolean detect = skipped + 1 >= interval || isUncertain(timestampNanos);
+        if (detect) {
+            skipped = 0;
+            ++framesDetected;
+        } else {
+            ++skipped;
+            ++framesPredicted;
+        }
+        return detect;
+    }
+
+    private boolean isUncertain(long timestampNanos) {
+        for (int i = 0; i < tracks.size(); ++i) {
+            final Track track = tracks.get(i);
+            final float dt = Math.min(Math.max(timestampNanos - track.measuredNanos, 0L), MAX_EXTRAPOLATION_NANOS) / 1e9f;
+            final float shift = (float) Math.hypot(track.vx, track.vy) * dt;
+            if (shift > maxShift * Math.min(track.w, track.h)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Associates a frame's detections with the tracks, corrects the matched tracks, starts a
+     * track for every unmatched detection and drops tracks missed too often.
+     */
+    public void update(float[] x1, float[] y1, float[] x2, float[] y2, float[] scores, int[] classes,
+                       int count, long timestampNanos) {
+        if (matched.length < count) {
+            matched = new boolean[Math.max(count, matched.length * 2)];
+        }
+        for (int i = 0; i < count; ++i) {
+            matched[i] = false;
+        }
+        for (int t = 0; t < tracks.size(); ++t) {
+            final Track track = tracks.get(t);
+            track.predictTo(timestampNanos);
+            track.match = -1;
+        }
+
+        // With nothing tracked there is nothing to predict; an object entering must be seen at once
+        boolean stable = !tracks.isEmpty();
+
+        // Greedy association, best remaining pair first; both sides hold a handful of boxes
+        while (true) {
+            float best = matchIou;
+            Track bestTrack = null;
+            int bestDetection = -1;
+            for (int t = 0; t < tracks.size(); ++t) {
+                final Track track = tracks.get(t);
+                if (track.match >= 0) {
+                    continue;
+                }
+                for (int d = 0; d < count; ++d) {
+                    if (matched[d] || classes[d] != track.classId) {
+                        continue;
+                    }
+                    final float iou = NmsEngine.iou(track.x1, track.y1, track.x2, track.y2, x1[d], y1[d], x2[d], y2[d]);
+                    if (iou >= best) {
+                        best = iou;
+                        bestTrack = track;
+                        bestDetection = d;
+                    }
+                }
+            }
+            if (bestTrack == null) {
+                break;
+            }
+            bestTrack.match = bestDetection;
+            bestTrack.lastIou = best;
+            matched[bestDetection] = true;
+        }
+
+        for (int t = tracks.size() - 1; t >= 0; --t) {
+            final Track track = tracks.get(t);
+            final int d = track.match;
+            if (d >= 0) {
+                track.correct(scores[d], x1[d], y1[d], x2[d], y2[d], ALPHA, BETA);
+                ++track.hits;
+                track.misses = 0;
+                stable &= track.lastIou >= stableIou;
+            } else {
+                stable = false;
+                if (++track.misses > maxMisses) {
+                    tracks.remove(t);
+                }
+            }
+        }
+        for (int d = 0; d < count; ++d) {
+            if (!matched[d]) {
+                stable = false;
+                tracks.add(new Track(nextId++, classes[d], scores[d], x1[d], y1[d], x2[d], y2[d], timestampNanos));
+            }
+        }
+        interval = stable ? Math.min(interval + 1, maxSkipFrames + 1) : 1;
+    }
+
+    /** Moves every track to where it is expected at {@code timestampNanos}, for a skipped frame */
+    public void predict(long timestampNanos) {
+        for (int i = 0; i < tracks.size(); ++i) {
+            tracks.get(i).predictTo(timestampNanos);
+        }
+    }
+
+    public int getTrackCount() {
+        return tracks.size();
+    }
+
+    public Track getTrack(int index) {
+        return tracks.get(index);
+    }
+
+    /** Frames between two detections at the moment, 1 when every frame is detected */
+    public int getDetectionInterval() {
+        return interval;
+    }
+
+    public long getFramesDetected() {
+        return framesDetected;
+    }
+
+    public long getFramesPredicted() {
+        return framesPredicted;
+    }
+
+    /** Share of frames answered by prediction instead of the detector */
+    public double getSkipRatio() {
+        final long frames = framesDetected + framesPredicted;
+        return frames > 0 ? (double) framesPredicted / frames : 0;
+    }
+
+    /** Forgets every track, e.g. after the camera or model changed */
+    public void reset() {
+        tracks.clear();
+        interval = 1;
+        skipped = 0;
+    }
+}
@@ -0,0 +1,231 @@
+package com.example.yolodetector.core;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+
+/**
+ * Replays a {@link TensorRecording} through decode and NMS on the JVM, with no phone or
+ * TFLite runtime: every recorded output is decoded back to back, as fast as it goes.
+ *
+ * A run reports throughput and a digest of every kept box, so two runs, or two builds, can be
+ * compared in one number. {@link #findFirstMismatch} compares two decoders candidate by
+ * candidate, bit for bit.
+ *
+ * From the command line, with the {@link ModelDescriptor} of the model that recorded it:
+ * <pre>
+ * java -cp yolo-core.jar com.example.yolodetector.core.ReplayDriver session.ytr tiny_yolov2.properties --passes 10 --compare
+ * </pre>
+ */
+public class ReplayDriver {
+
+    /** Totals of a replay */
+    public static final class Stats {
+        public final int frames;
+        public final long candidates;
+        public final long kept;
+        public final long elapsedNanos;
+        /** Hash of every kept box's class, score and corners, in order */
+        public final long digest;
+
+        Stats(int frames, long candidates, long kept, long elapsedNanos, long digest) {
+            this.frames = frames;
+            this.candidates = candidates;
+            this.kept = kept;
+            this.elapsedNanos = elapsedNanos;
+            this.digest = digest;
+        }
+
+        public double getMicrosPerFrame() {
+            return frames > 0 ? elapsedNanos / 1e3 / frames : 0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d frames, %.1f us/frame, %d candidates, %d kept, digest %016x",
+                    frames, getMicrosPerFrame(), candidates, kept, digest);
+        }
+    }
+
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final TensorRecording recording;
+    private final MultiHeadDecoder decoder;
+    private final NmsEngine nms;
+
+    /** The decoder is set up for the recording's output quantization, if any */
+    public ReplayDriver(TensorRecording recording, MultiHeadDecoder decoder, NmsEngine nms) {
+        checkGeometry(recording, decoder);
+        recording.configure(decoder);
+        this.recording = recording;
+        this.decoder = decoder;
+        this.nms = nms;
+    }
+
+    /**
+     * Builds the decoder for a recording of a single-head model. The recorded output is taken
+     * to be a square grid of the descriptor's boxes, and the input that grid times the stride.
+     *
+     * @throws IllegalArgumentException if the model has several heads, or the recorded output
+     *     is not a square grid of its boxes
+     */
+    public static MultiHeadDecoder newDecoder(TensorRecording recording, ModelDescriptor descriptor) {
+        if (descriptor.getNumHeads() != 1) {
+            throw new IllegalArgumentException("A recording holds one output, " + descriptor.getName()
+                    + " has " + descriptor.getNumHeads() + " heads");
+        }
+        final int cellBytes = descriptor.getNumAnchors(0) * descriptor.getBoxSize() * elementBytes(recording);
+        final int grid = (int) Math.round(Math.sqrt(recording.getOutputBytes() / (double) cellBytes));
+        if (grid == 0 || grid * grid * cellBytes != recording.getOutputBytes()) {
+            throw new IllegalArgumentException("Recorded output has " + recording.getOutputBytes()
+                    + " bytes, not a square grid of " + descriptor.getName() + " cells");
+        }
+        final int inputSize = grid * descriptor.getStride(0);
+        return new MultiHeadDecoder(descriptor, inputSize, inputSize);
+    }
+
+    private static int elementBytes(TensorRecording recording) {
+        return recording.isQuantized() ? 1 : 4;
+    }
+
+    private static void checkGeometry(TensorRecording recording, MultiHeadDecoder decoder) {
+        if (decoder.getNumHeads() != 1) {
+            throw new IllegalArgumentException("A recording holds one output, the decoder has "
+                    + decoder.getNumHeads() + " heads");
+        }
+        final int expected = decoder.getOutputSize(0) * elementBytes(recording);
+        if (recording.getOutputBytes() != expected) {
+            throw new IllegalArgumentException("Recorded output has " + recording.getOutputBytes()
+                    + " bytes, the decoder expects " + expected);
+        }
+    }
+
+    private static int decode(MultiHeadDecoder decoder, ByteBuffer output) {
+        return decoder.isQuantized()
+                ? decoder.decodeQuantized(new ByteBuffer[] {output})
+                : decoder.decode(new FloatBuffer[] {output.asFloatBuffer()});
+    }
+
+    /** Decodes and suppresses every frame {@code passes} times; the digest covers the last pass */
+    public Stats run(int passes) throws IOException {
+        final int frames = recording.getFrameCount();
+        long candidates = 0;
+        long kept = 0;
+        long digest = FNV_OFFSET;
+        final long start = System.nanoTime();
+        for (int pass = 0; pass < passes; ++pass) {
+            digest = FNV_OFFSET;
+            for (int frame = 0; frame < frames; ++frame) {
+                final int count = decode(decoder, recording.getOutput(frame));
+                final int keep = nms.run(decoder.x1, decoder.y1, decoder.x2, decoder.y2,
+                        decoder.scores, decoder.classes, count);
+                candidates += count;
+                kept += keep;
+                digest = mix(digest, frame);
+                for (int i = 0; i < keep; ++i) {
+                    final int idx = nms.keep[i];
+                    digest = mix(digest, decoder.classes[idx]);
+                    digest = mix(digest, Float.floatToIntBits(nms.keepScores[i]));
+                    digest = mix(digest, Float.floatToIntBits(decoder.x1[idx]));
+                    digest = mix(digest, Float.floatToIntBits(decoder.y1[idx]));
+                    digest = mix(digest, Float.floatToIntBits(decoder.x2[idx]));
+                    digest = mix(digest, Float.floatToIntBits(decoder.y2[idx]));
+                }
+            }
+        }
+        return new Stats(frames * passes, candidates, kept, System.nanoTime() - start, digest);
+    }
+
+    private static long mix(long hash, int value) {
+        for (int shift = 0; shift < 32; shift += 8) {
+            hash ^= (value >>> shift) & 0xFF;
+            hash *= FNV_PRIME;
+        }
+        return hash;
+    }
+
+    /**
+     * Decodes every frame with both decoders and returns the first frame whose candidates differ
+     * in count, order, class or any bit of a score or corner, or -1 if none does.
+     */
+    public static int findFirstMismatch(TensorRecording recording, MultiHeadDecoder reference,
+                                        MultiHeadDecoder candidate) throws IOException {
+        checkGeometry(recording, reference);
+        checkGeometry(recording, candidate);
+        recording.configure(reference);
+        recording.configure(candidate);
+        for (int frame = 0; frame < recording.getFrameCount(); ++frame) {
+            final int expected = decode(reference, recording.getOutput(frame));
+            final int actual = decode(candidate, recording.getOutput(frame));
+            if (expected != actual) {
+                return frame;
+            }
+            for (int i = 0; i < expected; ++i) {
+                if (reference.classes[i] != candidate.classes[i]
+                        || !sameBits(reference.scores[i], candidate.scores[i])
+                        || !sameBits(reference.x1[i], candidate.x1[i])
+                        || !sameBits(reference.y1[i], candidate.y1[i])
+                        || !sameBits(reference.x2[i], candidate.x2[i])
+                        || !sameBits(reference.y2[i], candidate.y2[i])) {
+                    return frame;
+                }
+            }
+        }
+        return -1;
+    }
+
+    private static boolean sameBits(float a, float b) {
+        return Float.floatToIntBits(a) == Float.floatToIntBits(b);
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: ReplayDriver <recording> <descriptor> [--passes N] [--compare]");
+            System.exit(2);
+        }
+        int passes = 1;
+        boolean compare = false;
+        for (int i = 2; i < args.length; ++i) {
+            switch (args[i]) {
+                case "--passes":
+                    passes = Integer.parseInt(args[++i]);
+                    break;
+                case "--compare":
+                    compare = true;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + args[i]);
+            }
+        }
+        final ModelDescriptor descriptor;
+        try (InputStream in = new FileInputStream(args[1])) {
+            descriptor = ModelDescriptor.parse(in);
+        }
+
+        try (TensorRecording recording = new TensorRecording(new File(args[0]))) {
+            System.out.println(recording.getModelName() + ": " + recording.getFrameCount() + " frames, "
+                    + (recording.isQuantized() ? "quantized" : "float") + " output");
+            final MultiHeadDecoder decoder = newDecoder(recording, descriptor);
+            final NmsEngine nms = new NmsEngine(decoder.getCapacity(), 5, 0.5f);
+            System.out.println(new ReplayDriver(recording, decoder, nms).run(passes));
+
+            if (compare) {
+                if (recording.isQuantized()) {
+                    System.out.println("--compare needs a float recording; the quantized decode has no second path");
+                    return;
+                }
+                final MultiHeadDecoder reference = newDecoder(recording, descriptor);
+                reference.setEarlyRejection(false);
+                final MultiHeadDecoder gated = newDecoder(recording, descriptor);
+                final int mismatch = findFirstMismatch(recording, reference, gated);
+                System.out.println(mismatch < 0
+                        ? "Gated decode matches the full decode bit for bit"
+                        : "Gated decode differs from the full decode at frame " + mismatch);
+            }
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.example.yolodetector.core;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Hands each frame's results from the thread that produces them to any number of readers, such
+ * as the UI and speech, through one atomic reference to an immutable {@link ResultSnapshot}.
+ * Readers never block the producer and never see a half-written frame; the producer never
+ * waits for readers. Readers that want every frame rather than the newest one subscribe.
+ *
+ * One thread publishes; any thread reads, subscribes or unsubscribes.
+ */
+public class ResultPublisher {
+
+    /** Receives every published snapshot, in order, on the publishing thread; must not block */
+    public interface Subscriber {
+        void onResults(ResultSnapshot results);
+    }
+
+    private final AtomicReference<ResultSnapshot> latest = new AtomicReference<>(ResultSnapshot.EMPTY);
+
+    private final List<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+
+    /**
+     * Publishes a copy of {@code batch}, which the caller may refill right away, as the next
+     * snapshot.
+     *
+     * @param frameTimestampNanos capture time in the camera's timestamp base
+     * @param captureNanos capture time in the clock readers compare against
+     * @param sourceWidth size of the model input the boxes are in
+     * @return the published snapshot
+     */
+    public ResultSnapshot publish(DetectionBatch batch, long frameTimestampNanos, long captureNanos,
+                                  int sourceWidth, int sourceHeight) {
+        final ResultSnapshot snapshot = new ResultSnapshot(latest.get().getSequence() + 1,
+                frameTimestampNanos, captureNanos, sourceWidth, sourceHeight, batch);
+        latest.set(snapshot);
+        for (Subscriber subscriber : subscribers) {
+            subscriber.onResults(snapshot);
+        }
+        return snapshot;
+    }
+
+    /**
+     * Replaces the newest snapshot with an empty one, for a producer that starts over on another
+     * scene. Sequence numbers keep counting up, so a reader never takes a later frame for one it
+     * has handled. Subscribers are not told. Call from the publishing thread, or while nothing
+     * publishes.
+     */
+    public void clear() {
+        latest.set(new ResultSnapshot(latest.get().getSequence() + 1, 0, 0, 0, 0, new DetectionBatch(0)));
+    }
+
+    /** Delivers every snapshot published from now on to {@code subscriber} */
+    public void subscribe(Subscriber subscriber) {
+        subscribers.add(subscriber);
+    }
+
+    /** Stops delivering to {@code subscriber}; a snapshot being delivered may still reach it */
+    public void unsubscribe(Subscriber subscriber) {
+        subscribers.remove(subscriber);
+    }
+
+    /** The newest snapshot, {@link ResultSnapshot#EMPTY} before the first frame */
+    public ResultSnapshot latest() {
+        return latest.get();
+    }
+
+    /** The newest snapshot if it is newer than {@code sequence}, else null */
+    public ResultSnapshot latestAfter(long sequence) {
+        final ResultSnapshot snapshot = latest.get();
+        return snapshot.getSequence() > sequence ? snapshot : null;
+    }
+}
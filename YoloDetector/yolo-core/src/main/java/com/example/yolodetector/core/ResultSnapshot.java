@@ -0,0 +1,117 @@
+package com.example.yolodetector.core;
+
+/**
+ * Immutable copy of one frame's results, as published by {@link ResultPublisher}: any thread can
+ * read it at any time and sees the whole frame or nothing of it.
+ */
+public final class ResultSnapshot {
+
+    /** Published before the first frame: no detections, sequence 0 */
+    public static final ResultSnapshot EMPTY = new ResultSnapshot(0, 0, 0, 0, 0, new DetectionBatch(0));
+
+    private final long sequence;
+    private final long frameTimestampNanos;
+    private final long captureNanos;
+    private final int sourceWidth;
+    private final int sourceHeight;
+    private final int[] ids;
+    private final float[] scores;
+    private final float[] x1;
+    private final float[] y1;
+    private final float[] x2;
+    private final float[] y2;
+    private final int[] trackIds;
+
+    ResultSnapshot(long sequence, long frameTimestampNanos, long captureNanos, int sourceWidth, int sourceHeight,
+                   DetectionBatch batch) {
+        this.sequence = sequence;
+        this.frameTimestampNanos = frameTimestampNanos;
+        this.captureNanos = captureNanos;
+        this.sourceWidth = sourceWidth;
+        this.sourceHeight = sourceHeight;
+        final int n = batch.size();
+        ids = copyOf(batch.ids, n);
+        scores = copyOf(batch.scores, n);
+        x1 = copyOf(batch.x1, n);
+        y1 = copyOf(batch.y1, n);
+        x2 = copyOf(batch.x2, n);
+        y2 = copyOf(batch.y2, n);
+        trackIds = copyOf(batch.trackIds, n);
+    }
+
+    private static int[] copyOf(int[] values, int n) {
+        final int[] copy = new int[n];
+        System.arraycopy(values, 0, copy, 0, n);
+        return copy;
+    }
+
+    private static float[] copyOf(float[] values, int n) {
+        final float[] copy = new float[n];
+        System.arraycopy(values, 0, copy, 0, n);
+        return copy;
+    }
+
+    /** Increases by one with every published frame; a consumer skips what it has handled */
+    public long getSequence() {
+        return sequence;
+    }
+
+    /** Capture time of the frame, in the camera's timestamp base */
+    public long getFrameTimestampNanos() {
+        return frameTimestampNanos;
+    }
+
+    /** Capture time of the frame in the publisher's chosen clock, e.g. elapsedRealtimeNanos */
+    public long getCaptureNanos() {
+        return captureNanos;
+    }
+
+    /** Size of the model input the boxes are in */
+    public int getSourceWidth() {
+        return sourceWidth;
+    }
+
+    public int getSourceHeight() {
+        return sourceHeight;
+    }
+
+    public int size() {
+        return ids.length;
+    }
+
+    public int getId(int i) {
+        return ids[i];
+    }
+
+    public float getScore(int i) {
+        return scores[i];
+    }
+
+    public float getX1(int i) {
+        return x1[i];
+    }
+
+    public float getY1(int i) {
+        return y1[i];
+    }
+
+    public float getX2(int i) {
+        return x2[i];
+    }
+
+    public float getY2(int i) {
+        return y2[i];
+    }
+
+    public int getTrackId(int i) {
+        return trackIds[i];
+    }
+
+    /** Replaces {@code batch}'s contents with these detections, up to its capacity */
+    public void copyTo(DetectionBatch batch) {
+        batch.clear();
+        for (int i = 0; i < ids.length; ++i) {
+            batch.add(ids[i], scores[i], x1[i], y1[i], x2[i], y2[i], trackIds[i]);
+        }
+    }
+}
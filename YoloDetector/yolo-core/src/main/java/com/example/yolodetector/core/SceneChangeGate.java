@@ -0,0 +1,143 @@
+package com.example.yolodetector.core;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Decides before inference whether a frame differs enough from the last inferred one to be
+ * worth running the model on, so a camera held still on an unchanged scene reuses the previous
+ * results.
+ *
+ * Each frame's luma plane is reduced to a small thumbnail by sampling a few points per cell,
+ * a few thousand reads whatever the camera resolution. A frame is unchanged when the mean
+ * absolute difference between its thumbnail and the reference's is at most the threshold, in
+ * luma levels, and the reference is younger than the maximum reuse age. The reference only
+ * moves on {@link #onInferred}, so a slow drift still adds up to a change.
+ *
+ * Not thread-safe.
+ */
+public class SceneChangeGate {
+
+    /** Sample points per thumbnail cell along each axis */
+    static final int SAMPLES = 4;
+
+    private static final float DEFAULT_THRESHOLD = 4f;
+    private static final long DEFAULT_MAX_REUSE_NANOS = 1_000_000_000L;
+
+    private final int thumbWidth;
+    private final int thumbHeight;
+
+    /** Thumbnail of the frame being decided, and of the last inferred frame */
+    private int[] current;
+    private int[] reference;
+    private boolean hasReference = false;
+    private long referenceNanos = 0;
+    private long currentNanos = 0;
+
+    private float threshold = DEFAULT_THRESHOLD;
+    private long maxReuseNanos = DEFAULT_MAX_REUSE_NANOS;
+
+    private float lastDifference = 0f;
+    private long framesPassed = 0;
+    private long framesSkipped = 0;
+
+    public SceneChangeGate(int thumbWidth, int thumbHeight) {
+        this.thumbWidth = thumbWidth;
+        this.thumbHeight = thumbHeight;
+        current = new int[thumbWidth * thumbHeight];
+        reference = new int[thumbWidth * thumbHeight];
+    }
+
+    /**
+     * Mean absolute luma difference per thumbnail cell, 0 to 255, above which the scene counts
+     * as changed; 4 by default. Lower is more sensitive, 0 runs every frame.
+     */
+    public void setThreshold(float meanAbsDifference) {
+        threshold = meanAbsDifference;
+    }
+
+    /** Longest time results are reused on an unchanged scene, 1 s by default */
+    public void setMaxReuseNanos(long nanos) {
+        maxReuseNanos = nanos;
+    }
+
+    /**
+     * Samples the frame's luma plane and returns whether it needs inference. If it does and the
+     * frame is inferred, call {@link #onInferred} to make it the new reference.
+     *
+     * @param luma Y plane with a pixel stride of 1, read with absolute gets
+     */
+    public boolean shouldInfer(ByteBuffer luma, int width, int height, int rowStride, long timestampNanos) {
+        sample(luma, width, height, rowStride);
+        currentNanos = timestampNanos;
+        final boolean infer;
+        if (!hasReference || timestampNanos - referenceNanos > maxReuseNanos) {
+            lastDifference = Float.NaN;
+            infer = true;
+        } else {
+            long sum = 0;
+            for (int i = 0; i < current.length; ++i) {
+                sum += Math.abs(current[i] - reference[i]);
+            }
+            lastDifference = (float) sum / current.length;
+            infer = lastDifference > threshold;
+        }
+        if (infer) {
+            ++framesPassed;
+        } else {
+            ++framesSkipped;
+        }
+        return infer;
+    }
+
+    private void sample(ByteBuffer luma, int width, int height, int rowStride) {
+        for (int ty = 0; ty < thumbHeight; ++ty) {
+            final int top = ty * height / thumbHeight;
+            final int cellHeight = (ty + 1) * height / thumbHeight - top;
+            for (int tx = 0; tx < thumbWidth; ++tx) {
+                final int left = tx * width / thumbWidth;
+                final int cellWidth = (tx + 1) * width / thumbWidth - left;
+                int sum = 0;
+                for (int sy = 0; sy < SAMPLES; ++sy) {
+                    final int row = (top + (2 * sy + 1) * cellHeight / (2 * SAMPLES)) * rowStride;
+                    for (int sx = 0; sx < SAMPLES; ++sx) {
+                        sum += luma.get(row + left + (2 * sx + 1) * cellWidth / (2 * SAMPLES)) & 0xFF;
+                    }
+                }
+                current[ty * thumbWidth + tx] = sum / (SAMPLES * SAMPLES);
+            }
+        }
+    }
+
+    /** Makes the frame last passed to {@link #shouldInfer} the reference for the next ones */
+    public void onInferred() {
+        final int[] swap = reference;
+        reference = current;
+        current = swap;
+        referenceNanos = currentNanos;
+        hasReference = true;
+    }
+
+    /** Forgets the reference, so the next frame is inferred */
+    public void reset() {
+        hasReference = false;
+    }
+
+    /** Mean absolute difference of the last decided frame, NaN if it had no reference to compare to */
+    public float getLastDifference() {
+        return lastDifference;
+    }
+
+    public long getFramesPassed() {
+        return framesPassed;
+    }
+
+    public long getFramesSkipped() {
+        return framesSkipped;
+    }
+
+    /** Share of frames that reused the previous results */
+    public double getSkipRatio() {
+        final long frames = framesPassed + framesSkipped;
+        return frames > 0 ? (double) framesSkipped / frames : 0;
+    }
+}
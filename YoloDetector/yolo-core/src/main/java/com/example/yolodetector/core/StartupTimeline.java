@@ -0,0 +1,99 @@
+package com.example.yolodetector.core;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * When each phase of a cold start began and ended, relative to the launch, so phases running
+ * side by side on different threads show how much they overlap and which one the first spoken
+ * result waited for.
+ *
+ * Phases are recorded from any thread without locks. Each phase keeps its first begin and
+ * first end, so a phase that runs again later, e.g. a second announcement, does not move it.
+ */
+public class StartupTimeline {
+
+    /** What a start waits for; the milestones at the end have no begin of their own */
+    public enum Phase {
+        /** Model file mapped and its pages faulted in */
+        MODEL_MAP,
+        /** Interpreters built over the mapped model */
+        INTERPRETER,
+        /** A blank frame run through every interpreter, so the first real one does not allocate */
+        WARM_UP,
+        /** Camera open requested until the device is open */
+        CAMERA_OPEN,
+        /** Speech engine requested until it is ready */
+        TTS_INIT,
+        /** Launch to the first frame's results published */
+        FIRST_RESULT,
+        /** Launch to the engine starting the first announcement */
+        FIRST_SPEECH
+    }
+
+    private static final Phase[] PHASES = Phase.values();
+
+    private static final long UNSET = Long.MIN_VALUE;
+
+    private final long originNanos;
+
+    /** Begin and end of each phase, in nanoseconds since the origin, by ordinal */
+    private final AtomicLongArray begins = new AtomicLongArray(PHASES.length);
+    private final AtomicLongArray ends = new AtomicLongArray(PHASES.length);
+
+    /**
+     * @param originNanos launch time, in the clock every later call uses
+     */
+    public StartupTimeline(long originNanos) {
+        this.originNanos = originNanos;
+        for (int i = 0; i < PHASES.length; ++i) {
+            begins.set(i, UNSET);
+            ends.set(i, UNSET);
+        }
+    }
+
+    public void begin(Phase phase, long nowNanos) {
+        begins.compareAndSet(phase.ordinal(), UNSET, nowNanos - originNanos);
+    }
+
+    /** Ends {@code phase}; one that never began counts from the origin, like a milestone */
+    public void end(Phase phase, long nowNanos) {
+        begins.compareAndSet(phase.ordinal(), UNSET, 0);
+        ends.compareAndSet(phase.ordinal(), UNSET, nowNanos - originNanos);
+    }
+
+    public boolean hasEnded(Phase phase) {
+        return ends.get(phase.ordinal()) != UNSET;
+    }
+
+    /** Nanoseconds from the origin to the phase's begin, or -1 if it has not begun */
+    public long getBeginNanos(Phase phase) {
+        final long begin = begins.get(phase.ordinal());
+        return begin != UNSET ? begin : -1;
+    }
+
+    /** Nanoseconds from the origin to the phase's end, or -1 if it has not ended */
+    public long getEndNanos(Phase phase) {
+        final long end = ends.get(phase.ordinal());
+        return end != UNSET ? end : -1;
+    }
+
+    /** How long the phase took, or -1 if it has not ended */
+    public long getDurationNanos(Phase phase) {
+        final long end = ends.get(phase.ordinal());
+        return end != UNSET ? end - begins.get(phase.ordinal()) : -1;
+    }
+
+    /** One line per phase that has ended: duration, and when it ran after the launch */
+    public String describe() {
+        final StringBuilder text = new StringBuilder("Startup:");
+        for (Phase phase : PHASES) {
+            if (hasEnded(phase)) {
+                text.append('\n').append(String.format(Locale.US, "%s: %.1f ms (%.1f-%.1f ms)",
+                        phase.name().toLowerCase(Locale.US), getDurationNanos(phase) / 1e6,
+                        getBeginNanos(phase) / 1e6, getEndNanos(phase) / 1e6));
+            }
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,132 @@
+package com.example.yolodetector.core;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Appends the input and raw output tensors of every inference to a file, for replay on a
+ * workstation with {@link TensorRecording} and {@link ReplayDriver}. See {@link TensorRecording}
+ * for the layout.
+ *
+ * Records are copied into a memory-mapped window of the file, so appending is a memcpy and the
+ * kernel writes pages back in the background. A record's marker is written after its payload,
+ * so a session cut short by a crash reads back up to the last complete record.
+ */
+public class TensorRecorder implements Closeable {
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final int inputBytes;
+    private final int outputBytes;
+    private final int recordBytes;
+    private final int chunkRecords;
+
+    private MappedByteBuffer chunk = null;
+    /** File offset where the next chunk is mapped */
+    private long nextChunkOffset = TensorRecording.HEADER_BYTES;
+    private int frameCount = 0;
+    private boolean closed = false;
+
+    /**
+     * Starts a new recording, replacing any file at {@code path}.
+     *
+     * @param inputBytes size of the input tensor, or 0 to record outputs only
+     * @param outputType one of the {@code TensorRecording.TYPE_} constants
+     */
+    public TensorRecorder(File path, int inputBytes, int outputBytes, int outputType, float outputScale,
+                          int outputZeroPoint, String modelName) throws IOException {
+        this(path, inputBytes, outputBytes, outputType, outputScale, outputZeroPoint, modelName,
+                TensorRecording.CHUNK_BYTES);
+    }
+
+    TensorRecorder(File path, int inputBytes, int outputBytes, int outputType, float outputScale,
+                   int outputZeroPoint, String modelName, int chunkBytes) throws IOException {
+        this.inputBytes = inputBytes;
+        this.outputBytes = outputBytes;
+        recordBytes = TensorRecording.recordBytes(inputBytes, outputBytes);
+        chunkRecords = TensorRecording.chunkRecords(recordBytes, chunkBytes);
+        file = new RandomAccessFile(path, "rw");
+        file.setLength(0);
+        channel = file.getChannel();
+
+        final ByteBuffer header = ByteBuffer.allocate(TensorRecording.HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(TensorRecording.MAGIC)
+                .putInt(TensorRecording.VERSION)
+                .putInt(inputBytes)
+                .putInt(outputBytes)
+                .putInt(outputType)
+                .putFloat(outputScale)
+                .putInt(outputZeroPoint)
+                .putInt(0);
+        final byte[] name = modelName.getBytes(TensorRecording.ASCII);
+        header.put(name, 0, Math.min(name.length, TensorRecording.MODEL_NAME_BYTES));
+        header.clear();
+        channel.write(header, 0);
+    }
+
+    /**
+     * Appends one frame.
+     *
+     * @param input the whole input tensor; ignored when inputs are not recorded
+     * @param output the whole raw output tensor
+     */
+    public synchronized void append(long frameTimestampNanos, long inferenceNanos, ByteBuffer input,
+                                    ByteBuffer output) throws IOException {
+        if (closed) {
+            throw new IllegalStateException("Recorder is closed");
+        }
+        if (output.capacity() != outputBytes || (inputBytes > 0 && input.capacity() != inputBytes)) {
+            throw new IllegalArgumentException("Tensor sizes do not match the recording");
+        }
+        if (chunk == null || chunk.remaining() < recordBytes) {
+            chunk = channel.map(FileChannel.MapMode.READ_WRITE, nextChunkOffset, (long) chunkRecords * recordBytes);
+            chunk.order(ByteOrder.LITTLE_ENDIAN);
+            nextChunkOffset += (long) chunkRecords * recordBytes;
+        }
+        final int start = chunk.position();
+        chunk.position(start + 4);
+        chunk.putInt(frameCount);
+        chunk.putLong(frameTimestampNanos);
+        chunk.putLong(inferenceNanos);
+        if (inputBytes > 0) {
+            final ByteBuffer src = input.duplicate();
+            src.clear();
+            chunk.put(src);
+        }
+        final ByteBuffer src = output.duplicate();
+        src.clear();
+        chunk.put(src);
+        chunk.putInt(start, TensorRecording.RECORD_MARKER);
+        ++frameCount;
+    }
+
+    public synchronized int getFrameCount() {
+        return frameCount;
+    }
+
+    /** Bytes the recording takes so far */
+    public synchronized long getSizeBytes() {
+        return TensorRecording.HEADER_BYTES + (long) frameCount * recordBytes;
+    }
+
+    /** Flushes the mapped window and trims the unused tail of the file */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (chunk != null) {
+            chunk.force();
+            chunk = null;
+        }
+        channel.truncate(getSizeBytes());
+        file.close();
+    }
+}
@@ -0,0 +1,219 @@
+package com.example.yolodetector.core;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/**
+ * Reads a session recorded by {@link TensorRecorder}: per frame, the input tensor (optional),
+ * the raw output tensor and timestamps.
+ *
+ * File layout, little-endian:
+ * <pre>
+ * header, 64 bytes:
+ *   int magic 'YTRC', int version, int inputBytes, int outputBytes,
+ *   int outputType (0 float32, 1 uint8, 2 int8), float outputScale, int outputZeroPoint,
+ *   int reserved, byte[32] model name (ASCII, zero padded)
+ * records, fixed size, back to back:
+ *   int marker 'FRME', int sequence, long frameTimestampNanos, long inferenceNanos,
+ *   byte[inputBytes] input, byte[outputBytes] output
+ * </pre>
+ * Tensors are stored as the interpreter produced them, in native order, which is little-endian
+ * on every Android ABI. A session that was never closed ends with zero padding; reading stops
+ * at the first record without a marker, so everything appended before a crash is kept.
+ */
+public class TensorRecording implements Closeable {
+
+    static final int MAGIC = 0x43525459;      // "YTRC"
+    static final int RECORD_MARKER = 0x454d5246;  // "FRME"
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 64;
+    static final int RECORD_HEADER_BYTES = 24;
+    static final int MODEL_NAME_BYTES = 32;
+
+    /** Bytes of the file mapped at a time by default, rounded down to whole records */
+    static final int CHUNK_BYTES = 64 << 20;
+
+    public static final int TYPE_FLOAT32 = 0;
+    public static final int TYPE_UINT8 = 1;
+    public static final int TYPE_INT8 = 2;
+
+    static final Charset ASCII = Charset.forName("US-ASCII");
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final int inputBytes;
+    private final int outputBytes;
+    private final int outputType;
+    private final float outputScale;
+    private final int outputZeroPoint;
+    private final String modelName;
+    private final int recordBytes;
+    private final int chunkRecords;
+    private final int frameCount;
+
+    /** The mapped chunk and the index of its first record */
+    private MappedByteBuffer chunk = null;
+    private int chunkFirst = -1;
+
+    public TensorRecording(File path) throws IOException {
+        this(path, CHUNK_BYTES);
+    }
+
+    TensorRecording(File path, int chunkBytes) throws IOException {
+        file = new RandomAccessFile(path, "r");
+        channel = file.getChannel();
+        final ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        if (channel.read(header, 0) != HEADER_BYTES || header.getInt(0) != MAGIC) {
+            close();
+            throw new IOException("Not a tensor recording: " + path);
+        }
+        if (header.getInt(4) != VERSION) {
+            close();
+            throw new IOException("Unsupported recording version " + header.getInt(4));
+        }
+        inputBytes = header.getInt(8);
+        outputBytes = header.getInt(12);
+        outputType = header.getInt(16);
+        outputScale = header.getFloat(20);
+        outputZeroPoint = header.getInt(24);
+        final byte[] name = new byte[MODEL_NAME_BYTES];
+        header.position(32);
+        header.get(name);
+        int length = 0;
+        while (length < name.length && name[length] != 0) {
+            ++length;
+        }
+        modelName = new String(name, 0, length, ASCII);
+        recordBytes = recordBytes(inputBytes, outputBytes);
+        chunkRecords = chunkRecords(recordBytes, chunkBytes);
+        frameCount = countFrames();
+    }
+
+    static int recordBytes(int inputBytes, int outputBytes) {
+        return RECORD_HEADER_BYTES + inputBytes + outputBytes;
+    }
+
+    static int chunkRecords(int recordBytes, int chunkBytes) {
+        return Math.max(1, chunkBytes / recordBytes);
+    }
+
+    private int countFrames() throws IOException {
+        final long whole = (channel.size() - HEADER_BYTES) / recordBytes;
+        final ByteBuffer marker = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+        int count = 0;
+        while (count < whole) {
+            marker.clear();
+            channel.read(marker, HEADER_BYTES + (long) count * recordBytes);
+            if (marker.getInt(0) != RECORD_MARKER) {
+                break;
+            }
+            ++count;
+        }
+        return count;
+    }
+
+    public int getFrameCount() {
+        return frameCount;
+    }
+
+    public int getInputBytes() {
+        return inputBytes;
+    }
+
+    public int getOutputBytes() {
+        return outputBytes;
+    }
+
+    /** One of {@link #TYPE_FLOAT32}, {@link #TYPE_UINT8}, {@link #TYPE_INT8} */
+    public int getOutputType() {
+        return outputType;
+    }
+
+    public boolean isQuantized() {
+        return outputType != TYPE_FLOAT32;
+    }
+
+    public float getOutputScale() {
+        return outputScale;
+    }
+
+    public int getOutputZeroPoint() {
+        return outputZeroPoint;
+    }
+
+    public String getModelName() {
+        return modelName;
+    }
+
+    /**
+     * Points the decoder at this recording's output quantization, if it has any. A recording
+     * holds one output tensor, which is the decoder's first head.
+     */
+    public void configure(MultiHeadDecoder decoder) {
+        if (isQuantized()) {
+            decoder.setQuantization(0, outputScale, outputZeroPoint, outputType == TYPE_INT8);
+        }
+    }
+
+    /** Offset of the frame's record in the mapped chunk that holds it */
+    private int locate(int frame) throws IOException {
+        if (frame < 0 || frame >= frameCount) {
+            throw new IndexOutOfBoundsException("Frame " + frame + " of " + frameCount);
+        }
+        final int first = frame / chunkRecords * chunkRecords;
+        if (first != chunkFirst) {
+            final int records = Math.min(chunkRecords, frameCount - first);
+            chunk = channel.map(FileChannel.MapMode.READ_ONLY,
+                    HEADER_BYTES + (long) first * recordBytes, (long) records * recordBytes);
+            chunk.order(ByteOrder.LITTLE_ENDIAN);
+            chunkFirst = first;
+        }
+        return (frame - first) * recordBytes;
+    }
+
+    public int getSequence(int frame) throws IOException {
+        final int at = locate(frame);
+        return chunk.getInt(at + 4);
+    }
+
+    public long getTimestampNanos(int frame) throws IOException {
+        final int at = locate(frame);
+        return chunk.getLong(at + 8);
+    }
+
+    public long getInferenceNanos(int frame) throws IOException {
+        final int at = locate(frame);
+        return chunk.getLong(at + 16);
+    }
+
+    /** The recorded input tensor, empty if inputs were not recorded; a view into the mapped file */
+    public ByteBuffer getInput(int frame) throws IOException {
+        return slice(frame, RECORD_HEADER_BYTES, inputBytes);
+    }
+
+    /** The raw output tensor, little-endian; a view into the mapped file */
+    public ByteBuffer getOutput(int frame) throws IOException {
+        return slice(frame, RECORD_HEADER_BYTES + inputBytes, outputBytes);
+    }
+
+    private ByteBuffer slice(int frame, int offset, int length) throws IOException {
+        final int start = locate(frame) + offset;
+        final ByteBuffer view = chunk.duplicate();
+        view.position(start);
+        view.limit(start + length);
+        return view.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    @Override
+    public void close() throws IOException {
+        chunk = null;
+        file.close();
+    }
+}
@@ -0,0 +1,130 @@
+package com.example.yolodetector.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Picks the interpreter thread count with a short sweep: every candidate gets a few warm-up
+ * inferences, then a few timed ones, and the candidate with the lowest p50 or p95 latency wins.
+ * Candidates within {@link #TIE_TOLERANCE} of the best are treated as equal and the one with
+ * fewer threads is kept, which leaves cores to preprocessing and the camera.
+ */
+public class ThreadCountTuner {
+
+    public enum Metric {
+        P50, P95
+    }
+
+    /** Runs the model under test */
+    public interface Benchmark {
+        /** Rebuilds the interpreter with the given number of threads */
+        void setNumThreads(int numThreads);
+
+        /** Runs one inference on a fixed input and returns how long it took */
+        long runOnceNanos();
+    }
+
+    /** Latencies of every candidate and the chosen thread count */
+    public static final class Result {
+        public final int bestNumThreads;
+        public final int[] candidates;
+        public final long[] p50Nanos;
+        public final long[] p95Nanos;
+
+        Result(int bestNumThreads, int[] candidates, long[] p50Nanos, long[] p95Nanos) {
+            this.bestNumThreads = bestNumThreads;
+            this.candidates = candidates;
+            this.p50Nanos = p50Nanos;
+            this.p95Nanos = p95Nanos;
+        }
+
+        @Override
+        public String toString() {
+            final StringBuilder sb = new StringBuilder("Best: " + bestNumThreads + " threads");
+            for (int i = 0; i < candidates.length; ++i) {
+                sb.append(String.format(" | %d: p50 %.1f ms p95 %.1f ms",
+                        candidates[i], p50Nanos[i] / 1e6, p95Nanos[i] / 1e6));
+            }
+            return sb.toString();
+        }
+    }
+
+    /** Relative latency difference below which fewer threads win */
+    public static final double TIE_TOLERANCE = 0.02;
+
+    private static final int[] CANDIDATES = {1, 2, 3, 4, 6, 8};
+
+    private final int warmupRuns;
+    private final int measuredRuns;
+    private final Metric metric;
+
+    public ThreadCountTuner(int warmupRuns, int measuredRuns, Metric metric) {
+        if (measuredRuns < 1) {
+            throw new IllegalArgumentException("Need at least one measured run");
+        }
+        this.warmupRuns = warmupRuns;
+        this.measuredRuns = measuredRuns;
+        this.metric = metric;
+    }
+
+    /** Thread counts worth trying on a device with the given number of cores */
+    public static int[] defaultCandidates(int availableProcessors) {
+        final List<Integer> candidates = new ArrayList<>();
+        for (int n : CANDIDATES) {
+            if (n <= Math.max(1, availableProcessors)) {
+                candidates.add(n);
+            }
+        }
+        final int[] result = new int[candidates.size()];
+        for (int i = 0; i < result.length; ++i) {
+            result[i] = candidates.get(i);
+        }
+        return result;
+    }
+
+    /** Sweeps the candidates in order; the benchmark is left on the last one */
+    public Result tune(int[] candidates, Benchmark benchmark) {
+        if (candidates.length == 0) {
+            throw new IllegalArgumentException("No thread counts to try");
+        }
+        final long[] p50 = new long[candidates.length];
+        final long[] p95 = new long[candidates.length];
+        final long[] samples = new long[measuredRuns];
+        int best = -1;
+        for (int i = 0; i < candidates.length; ++i) {
+            benchmark.setNumThreads(candidates[i]);
+            for (int run = 0; run < warmupRuns; ++run) {
+                benchmark.runOnceNanos();
+            }
+            for (int run = 0; run < measuredRuns; ++run) {
+                samples[run] = benchmark.runOnceNanos();
+            }
+            Arrays.sort(samples);
+            p50[i] = percentile(samples, 0.50);
+            p95[i] = percentile(samples, 0.95);
+            if (best < 0 || isBetter(candidates[i], score(p50, p95, i), candidates[best], score(p50, p95, best))) {
+                best = i;
+            }
+        }
+        return new Result(candidates[best], candidates.clone(), p50, p95);
+    }
+
+    private long score(long[] p50, long[] p95, int i) {
+        return metric == Metric.P50 ? p50[i] : p95[i];
+    }
+
+    private static boolean isBetter(int threads, long latency, int bestThreads, long bestLatency) {
+        final double margin = bestLatency * TIE_TOLERANCE;
+        if (Math.abs(latency - bestLatency) <= margin) {
+            return threads < bestThreads;
+        }
+        return latency < bestLatency;
+    }
+
+    /** Nearest-rank percentile of sorted samples */
+    public static long percentile(long[] sorted, double p) {
+        final int rank = (int) Math.ceil(p * sorted.length);
+        return sorted[Math.max(0, Math.min(sorted.length - 1, rank - 1))];
+    }
+}
@@ -0,0 +1,69 @@
+package com.example.yolodetector.core;
+
+/**
+ * Picks the {@code k} largest values of a float array, with their indices, into arrays allocated
+ * once: a small sorted insertion per value that beats the top entry, no boxing, no allocation.
+ * For the handful of labels shown on screen out of a few dozen classes.
+ *
+ * Not thread-safe.
+ */
+public class TopKSelector {
+
+    private final int k;
+
+    /** Indices of the selected values, largest value first; the first {@code count} are valid */
+    public final int[] indices;
+
+    /** The selected values, in the same order as {@link #indices} */
+    public final float[] values;
+
+    private int count = 0;
+
+    public TopKSelector(int k) {
+        if (k <= 0) {
+            throw new IllegalArgumentException("k = " + k);
+        }
+        this.k = k;
+        indices = new int[k];
+        values = new float[k];
+    }
+
+    /**
+     * Selects the largest of {@code source[0..length)}; ties keep the lower index. NaNs are
+     * skipped.
+     *
+     * @return number selected, {@code min(k, length)} less any NaNs
+     */
+    public int select(float[] source, int length) {
+        int n = 0;
+        for (int i = 0; i < length; ++i) {
+            final float value = source[i];
+            if (n == k && !(value > values[k - 1])) {
+                continue;
+            }
+            if (value != value) {
+                continue;
+            }
+            // Shift smaller entries down and insert after the last one at least as large
+            int at = n < k ? n++ : k - 1;
+            while (at > 0 && values[at - 1] < value) {
+                values[at] = values[at - 1];
+                indices[at] = indices[at - 1];
+                --at;
+            }
+            values[at] = value;
+            indices[at] = i;
+        }
+        count = n;
+        return n;
+    }
+
+    /** Number selected by the last {@link #select} */
+    public int getCount() {
+        return count;
+    }
+
+    public int getK() {
+        return k;
+    }
+}
@@ -0,0 +1,172 @@
+package com.example.yolodetector.core;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Maps a YUV_420_888 camera frame onto the detector input, one output row at a time.
+ *
+ * The frame is rotated upright, center-cropped to the output aspect ratio and resized with
+ * nearest-neighbour sampling. The sample positions of every output pixel are precomputed into
+ * index tables whenever the frame geometry changes, so a row is converted with table lookups,
+ * fixed-point BT.601 full-range YUV to RGB and the caller's normalization tables in one pass.
+ */
+public class YuvConverter {
+
+    private final int outWidth;
+    private final int outHeight;
+
+    /** Geometry the index tables were built for */
+    private int frameWidth = -1;
+    private int frameHeight = -1;
+    private int yRowStride = -1;
+    private int uvRowStride = -1;
+    private int uvPixelStride = -1;
+    private int rotation = -1;
+
+    /** Per output pixel: offset into the Y plane and into the U/V planes */
+    private final int[] yIndex;
+    private final int[] uvIndex;
+
+    /** Plane copies, reused across frames */
+    private byte[] yPlane = new byte[0];
+    private byte[] uPlane = new byte[0];
+    private byte[] vPlane = new byte[0];
+
+    public YuvConverter(int outWidth, int outHeight) {
+        this.outWidth = outWidth;
+        this.outHeight = outHeight;
+        yIndex = new int[outWidth * outHeight];
+        uvIndex = new int[outWidth * outHeight];
+    }
+
+    public int getOutWidth() {
+        return outWidth;
+    }
+
+    public int getOutHeight() {
+        return outHeight;
+    }
+
+    /**
+     * Loads the planes of the next frame.
+     *
+     * @param rotation clockwise rotation in degrees (0, 90, 180, 270) that turns the frame upright
+     */
+    public void setFrame(ByteBuffer y, ByteBuffer u, ByteBuffer v, int width, int height,
+                         int yRowStride, int uvRowStride, int uvPixelStride, int rotation) {
+        if (width != frameWidth || height != frameHeight || yRowStride != this.yRowStride
+                || uvRowStride != this.uvRowStride || uvPixelStride != this.uvPixelStride
+                || rotation != this.rotation) {
+            buildTables(width, height, yRowStride, uvRowStride, uvPixelStride, rotation);
+        }
+        yPlane = copy(y, yPlane);
+        uPlane = copy(u, uPlane);
+        vPlane = copy(v, vPlane);
+    }
+
+    private static byte[] copy(ByteBuffer plane, byte[] dst) {
+        final int size = plane.remaining();
+        if (dst.length < size) {
+            dst = new byte[size];
+        }
+        plane.duplicate().get(dst, 0, size);
+        return dst;
+    }
+
+    private void buildTables(int width, int height, int yRowStride, int uvRowStride, int uvPixelStride,
+                             int rotation) {
+        if (rotation % 90 != 0) {
+            throw new IllegalArgumentException("Rotation must be a multiple of 90: " + rotation);
+        }
+        rotation = ((rotation % 360) + 360) % 360;
+        final boolean swapped = rotation == 90 || rotation == 270;
+        final int rotWidth = swapped ? height : width;
+        final int rotHeight = swapped ? width : height;
+
+        // Largest centered crop of the upright frame with the output aspect ratio
+        final float scale = Math.min((float) rotWidth / outWidth, (float) rotHeight / outHeight);
+        final float offX = (rotWidth - outWidth * scale) / 2;
+        final float offY = (rotHeight - outHeight * scale) / 2;
+
+        int i = 0;
+        for (int oy = 0; oy < outHeight; ++oy) {
+            final int ry = Math.min(rotHeight - 1, (int) (offY + (oy + 0.5f) * scale));
+            for (int ox = 0; ox < outWidth; ++ox) {
+                final int rx = Math.min(rotWidth - 1, (int) (offX + (ox + 0.5f) * scale));
+                final int sx;
+                final int sy;
+                switch (rotation) {
+                    case 90:
+                        sx = ry;
+                        sy = height - 1 - rx;
+                        break;
+                    case 180:
+                        sx = width - 1 - rx;
+                        sy = height - 1 - ry;
+                        break;
+                    case 270:
+                        sx = width - 1 - ry;
+                        sy = rx;
+                        break;
+                    default:
+                        sx = rx;
+                        sy = ry;
+                        break;
+                }
+                yIndex[i] = sy * yRowStride + sx;
+                uvIndex[i] = (sy >> 1) * uvRowStride + (sx >> 1) * uvPixelStride;
+                ++i;
+            }
+        }
+
+        frameWidth = width;
+        frameHeight = height;
+        this.yRowStride = yRowStride;
+        this.uvRowStride = uvRowStride;
+        this.uvPixelStride = uvPixelStride;
+        this.rotation = rotation;
+    }
+
+    /** Fixed-point BT.601 full-range conversion, packed as 0x00RRGGBB */
+    private static int toRgb(int y, int u, int v) {
+        u -= 128;
+        v -= 128;
+        int r = y + ((91881 * v) >> 16);
+        int g = y - ((22554 * u + 46802 * v) >> 16);
+        int b = y + ((116130 * u) >> 16);
+        r = r < 0 ? 0 : (r > 255 ? 255 : r);
+        g = g < 0 ? 0 : (g > 255 ? 255 : g);
+        b = b < 0 ? 0 : (b > 255 ? 255 : b);
+        return (r << 16) | (g << 8) | b;
+    }
+
+    /** Converts output row {@code oy} into normalized RGB floats through the channel tables */
+    public void convertRow(int oy, float[] row, float[] lutR, float[] lutG, float[] lutB) {
+        final byte[] yp = yPlane;
+        final byte[] up = uPlane;
+        final byte[] vp = vPlane;
+        int p = oy * outWidth;
+        for (int x = 0, i = 0; x < outWidth; ++x, i += 3, ++p) {
+            final int uv = uvIndex[p];
+            final int rgb = toRgb(yp[yIndex[p]] & 0xFF, up[uv] & 0xFF, vp[uv] & 0xFF);
+            row[i] = lutR[(rgb >> 16) & 0xFF];
+            row[i + 1] = lutG[(rgb >> 8) & 0xFF];
+            row[i + 2] = lutB[rgb & 0xFF];
+        }
+    }
+
+    /** Converts output row {@code oy} into raw RGB bytes for a quantized model */
+    public void convertRow(int oy, byte[] row) {
+        final byte[] yp = yPlane;
+        final byte[] up = uPlane;
+        final byte[] vp = vPlane;
+        int p = oy * outWidth;
+        for (int x = 0, i = 0; x < outWidth; ++x, i += 3, ++p) {
+            final int uv = uvIndex[p];
+            final int rgb = toRgb(yp[yIndex[p]] & 0xFF, up[uv] & 0xFF, vp[uv] & 0xFF);
+            row[i] = (byte) (rgb >> 16);
+            row[i + 1] = (byte) (rgb >> 8);
+            row[i + 2] = (byte) rgb;
+        }
+    }
+}
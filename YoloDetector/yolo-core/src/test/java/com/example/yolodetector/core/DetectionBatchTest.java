@@ -0,0 +1,60 @@
+package com.example.yolodetector.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks filling, overflow and copying of {@link DetectionBatch}.
+ */
+public class DetectionBatchTest {
+
+    @Test
+    public void add_fillsParallelArrays() {
+        final DetectionBatch batch = new DetectionBatch(4);
+        assertTrue(batch.add(2, 0.9f, 10, 20, 50, 80, DetectionBatch.NO_TRACK));
+        assertTrue(batch.add(7, 0.4f, 0, 0, 5, 5, 3));
+        assertEquals(2, batch.size());
+        assertEquals(7, batch.ids[1]);
+        assertEquals(0.9f, batch.scores[0], 0f);
+        assertEquals(30f, batch.centerX(0), 0f);
+        assertEquals(50f, batch.centerY(0), 0f);
+        assertEquals(DetectionBatch.NO_TRACK, batch.trackIds[0]);
+        assertEquals(3, batch.trackIds[1]);
+    }
+
+    @Test
+    public void add_dropsBeyondCapacity() {
+        final DetectionBatch batch = new DetectionBatch(1);
+        assertTrue(batch.add(0, 1f, 0, 0, 1, 1, DetectionBatch.NO_TRACK));
+        assertFalse(batch.add(1, 1f, 0, 0, 1, 1, DetectionBatch.NO_TRACK));
+        assertEquals(1, batch.size());
+        assertEquals(0, batch.ids[0]);
+    }
+
+    @Test
+    public void clear_reusesArrays() {
+        final DetectionBatch batch = new DetectionBatch(2);
+        final int[] ids = batch.ids;
+        batch.add(5, 1f, 0, 0, 1, 1, DetectionBatch.NO_TRACK);
+        batch.clear();
+        assertEquals(0, batch.size());
+        batch.add(6, 1f, 0, 0, 1, 1, DetectionBatch.NO_TRACK);
+        assertSame(ids, batch.ids);
+        assertEquals(6, batch.ids[0]);
+    }
+
+    @Test
+    public void copyFrom_truncatesToCapacity() {
+        final DetectionBatch source = new DetectionBatch(3);
+        source.add(1, 0.1f, 1, 2, 3, 4, 9);
+        source.add(2, 0.2f, 5, 6, 7, 8, 10);
+        source.add(3, 0.3f, 9, 10, 11, 12, 11);
+        final DetectionBatch target = new DetectionBatch(2);
+        target.copyFrom(source);
+        assertEquals(2, target.size());
+        assertEquals(2, target.ids[1]);
+        assertEquals(8f, target.y2[1], 0f);
+        assertEquals(10, target.trackIds[1]);
+    }
+}
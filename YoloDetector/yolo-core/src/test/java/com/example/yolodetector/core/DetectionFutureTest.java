@@ -0,0 +1,121 @@
+package com.example.yolodetector.core;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.*;
+
+public class DetectionFutureTest {
+
+    /** Records what a callback was told */
+    private static final class Recorder implements DetectionFuture.Callback {
+        final List<Object> events = new ArrayList<>();
+
+        @Override
+        public void onResults(ResultSnapshot results) {
+            events.add(results);
+        }
+
+        @Override
+        public void onFailure(Throwable cause) {
+            events.add(cause);
+        }
+    }
+
+    private static ResultSnapshot snapshot(long frameTimestampNanos) {
+        return new ResultPublisher().publish(new DetectionBatch(1), frameTimestampNanos, frameTimestampNanos, 416, 416);
+    }
+
+    @Test
+    public void complete_deliversTheFramesResults() throws Exception {
+        final DetectionFuture future = new DetectionFuture(33);
+        final Recorder before = new Recorder();
+        future.addCallback(before);
+        assertFalse(future.isDone());
+        final ResultSnapshot results = snapshot(33);
+        assertTrue(future.complete(results));
+        assertTrue(future.isDone());
+        assertSame(results, future.get());
+        assertEquals(33, future.get().getFrameTimestampNanos());
+        assertEquals(1, before.events.size());
+        assertSame(results, before.events.get(0));
+
+        // A callback added late runs right away
+        final Recorder after = new Recorder();
+        future.addCallback(after);
+        assertSame(results, after.events.get(0));
+    }
+
+    @Test
+    public void completesOnlyOnce() throws Exception {
+        final DetectionFuture future = new DetectionFuture(1);
+        final Recorder recorder = new Recorder();
+        future.addCallback(recorder);
+        final ResultSnapshot first = snapshot(1);
+        assertTrue(future.complete(first));
+        assertFalse(future.complete(snapshot(2)));
+        assertFalse(future.fail(new IllegalStateException()));
+        assertFalse(future.cancel(false));
+        assertSame(first, future.get());
+        assertEquals(1, recorder.events.size());
+    }
+
+    @Test
+    public void fail_reportsTheCause() throws InterruptedException {
+        final IllegalStateException cause = new IllegalStateException("closed");
+        final DetectionFuture future = DetectionFuture.failed(7, cause);
+        final Recorder recorder = new Recorder();
+        future.addCallback(recorder);
+        assertSame(cause, recorder.events.get(0));
+        try {
+            future.get();
+            fail();
+        } catch (ExecutionException e) {
+            assertSame(cause, e.getCause());
+        }
+    }
+
+    @Test
+    public void cancel_dropsLaterResults() throws Exception {
+        final DetectionFuture future = new DetectionFuture(5);
+        final Recorder recorder = new Recorder();
+        future.addCallback(recorder);
+        assertTrue(future.cancel(true));
+        assertTrue(future.isCancelled());
+        assertFalse(future.complete(snapshot(5)));
+        assertTrue(recorder.events.get(0) instanceof CancellationException);
+        try {
+            future.get();
+            fail();
+        } catch (CancellationException expected) {
+        }
+    }
+
+    @Test(expected = TimeoutException.class)
+    public void get_timesOutWhileInFlight() throws Exception {
+        new DetectionFuture(0).get(10, TimeUnit.MILLISECONDS);
+    }
+
+    @Test
+    public void get_wakesWhenAnotherThreadCompletes() throws Exception {
+        final DetectionFuture future = new DetectionFuture(9);
+        final ResultSnapshot results = snapshot(9);
+        final Thread producer = new Thread(() -> {
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            future.complete(results);
+        });
+        producer.start();
+        assertSame(results, future.get(10, TimeUnit.SECONDS));
+        producer.join();
+    }
+}
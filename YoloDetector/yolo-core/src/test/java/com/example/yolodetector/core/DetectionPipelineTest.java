@@ -0,0 +1,297 @@
+package com.example.yolodetector.core;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class DetectionPipelineTest {
+
+    /** A frame in flight: its sequence number and what each stage computed */
+    private static final class Slot {
+        int frame;
+        int doubled;
+    }
+
+    private static List<Slot> newSlots(int depth) {
+        final List<Slot> slots = new ArrayList<>();
+        for (int i = 0; i < depth; ++i) {
+            slots.add(new Slot());
+        }
+        return slots;
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Test
+    public void frames_leaveInSubmissionOrder() throws InterruptedException {
+        final DetectionPipeline<Slot> pipeline = new DetectionPipeline<>(newSlots(3));
+        final List<Integer> results = Collections.synchronizedList(new ArrayList<Integer>());
+        final CountDownLatch done = new CountDownLatch(50);
+        pipeline.addStage("double", slot -> slot.doubled = slot.frame * 2);
+        pipeline.addStage("infer", slot -> sleep(1));
+        pipeline.addStage("post", slot -> {
+            results.add(slot.doubled);
+            done.countDown();
+        });
+        pipeline.start();
+        for (int frame = 0; frame < 50; ++frame) {
+            final Slot slot = pipeline.acquire();
+            slot.frame = frame;
+            pipeline.submit(slot);
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        for (int frame = 0; frame < 50; ++frame) {
+            assertEquals(frame * 2, (int) results.get(frame));
+        }
+        // A frame only counts as completed once its slot is free again
+        for (int i = 0; i < pipeline.getDepth(); ++i) {
+            assertNotNull(pipeline.acquire());
+        }
+        assertEquals(50, pipeline.getFramesCompleted());
+        pipeline.close();
+    }
+
+    @Test
+    public void stages_overlapOnDifferentFrames() throws InterruptedException {
+        final DetectionPipeline<Slot> pipeline = new DetectionPipeline<>(newSlots(2));
+        final CountDownLatch secondFrameStarted = new CountDownLatch(1);
+        final boolean[] overlapped = new boolean[1];
+        final CountDownLatch done = new CountDownLatch(1);
+        pipeline.addStage("first", slot -> {
+            if (slot.frame == 1) {
+                secondFrameStarted.countDown();
+            }
+        });
+        pipeline.addStage("second", slot -> {
+            if (slot.frame == 0) {
+                // Only returns early if the first stage takes frame 1 meanwhile
+                try {
+                    overlapped[0] = secondFrameStarted.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                done.countDown();
+            }
+        });
+        pipeline.start();
+        for (int frame = 0; frame < 2; ++frame) {
+            final Slot slot = pipeline.acquire();
+            slot.frame = frame;
+            pipeline.submit(slot);
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertTrue(overlapped[0]);
+        pipeline.close();
+    }
+
+    @Test
+    public void acquire_blocksWhileEverySlotIsInFlight() throws InterruptedException {
+        final DetectionPipeline<Slot> pipeline = new DetectionPipeline<>(newSlots(2));
+        final CountDownLatch release = new CountDownLatch(1);
+        pipeline.addStage("stalled", slot -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        pipeline.start();
+        pipeline.submit(pipeline.acquire());
+        pipeline.submit(pipeline.acquire());
+
+        final Slot[] third = new Slot[1];
+        final Thread producer = new Thread(() -> {
+            try {
+                third[0] = pipeline.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        producer.start();
+        producer.join(200);
+        assertTrue(producer.isAlive());
+        release.countDown();
+        producer.join(5000);
+        assertNotNull(third[0]);
+        pipeline.close();
+    }
+
+    @Test
+    public void failedStage_freesItsSlot() throws InterruptedException {
+        final DetectionPipeline<Slot> pipeline = new DetectionPipeline<>(newSlots(1));
+        pipeline.addStage("broken", slot -> {
+            throw new IllegalStateException("boom");
+        });
+        pipeline.start();
+        for (int i = 0; i < 3; ++i) {
+            pipeline.submit(pipeline.acquire());
+        }
+        assertNotNull(pipeline.acquire());
+        assertEquals(3, pipeline.getFramesFailed());
+        assertEquals(0, pipeline.getFramesCompleted());
+        assertEquals("boom", pipeline.getLastFailure().getMessage());
+        pipeline.close();
+        assertNull(pipeline.acquire());
+    }
+
+    @Test
+    public void occupancy_reflectsTheBusiestStage() throws InterruptedException {
+        final DetectionPipeline<Slot> pipeline = new DetectionPipeline<>(newSlots(2));
+        final CountDownLatch done = new CountDownLatch(10);
+        pipeline.addStage("fast", slot -> { });
+        pipeline.addStage("slow", slot -> {
+            sleep(5);
+            done.countDown();
+        });
+        pipeline.start();
+        for (int i = 0; i < 10; ++i) {
+            pipeline.submit(pipeline.acquire());
+        }
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertTrue(pipeline.getOccupancy(1) > pipeline.getOccupancy(0));
+        assertTrue(pipeline.getMeanWaitNanos(1) >= 0);
+        assertTrue(pipeline.describe().contains("slow: busy"));
+        pipeline.close();
+    }
+
+    @Test
+    public void parallelStage_keepsSubmissionOrder() throws InterruptedException {
+        final DetectionPipeline<Slot> pipeline = new DetectionPipeline<>(newSlots(5));
+        final List<Integer> results = Collections.synchronizedList(new ArrayList<Integer>());
+        final CountDownLatch done = new CountDownLatch(40);
+        pipeline.addStage("double", slot -> slot.doubled = slot.frame * 2);
+        // Even frames take longer, so odd ones finish first on the other worker
+        pipeline.addStage("infer", 2, (slot, worker) -> sleep(slot.frame % 2 == 0 ? 4 : 0));
+        pipeline.addStage("post", slot -> {
+            results.add(slot.doubled);
+            done.countDown();
+        });
+        pipeline.start();
+        for (int frame = 0; frame < 40; ++frame) {
+            final Slot slot = pipeline.acquire();
+            slot.frame = frame;
+            pipeline.submit(slot);
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        for (int frame = 0; frame < 40; ++frame) {
+            assertEquals(frame * 2, (int) results.get(frame));
+        }
+        assertEquals(2, pipeline.getNumWorkers(1));
+        assertTrue(pipeline.describe().contains("infer x2: busy"));
+        pipeline.close();
+    }
+
+    @Test
+    public void parallelStage_dispatchesRoundRobin() throws InterruptedException {
+        final DetectionPipeline<Slot> pipeline = new DetectionPipeline<>(newSlots(4));
+        final int[] workerOf = new int[30];
+        final CountDownLatch done = new CountDownLatch(30);
+        pipeline.addStage("infer", 3, (slot, worker) -> {
+            workerOf[slot.frame] = worker;
+            done.countDown();
+        });
+        pipeline.start();
+        for (int frame = 0; frame < 30; ++frame) {
+            final Slot slot = pipeline.acquire();
+            slot.frame = frame;
+            pipeline.submit(slot);
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        // The pipeline's queues hand each frame's worker over with the slot
+        for (int frame = 0; frame < 30; ++frame) {
+            assertEquals(frame % 3, workerOf[frame]);
+        }
+        pipeline.close();
+    }
+
+    @Test
+    public void parallelStage_runsWorkersConcurrently() throws InterruptedException {
+        final DetectionPipeline<Slot> pipeline = new DetectionPipeline<>(newSlots(2));
+        final CountDownLatch bothRunning = new CountDownLatch(2);
+        final boolean[] overlapped = new boolean[2];
+        pipeline.addStage("infer", 2, (slot, worker) -> {
+            bothRunning.countDown();
+            try {
+                overlapped[worker] = bothRunning.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        pipeline.start();
+        pipeline.submit(pipeline.acquire());
+        pipeline.submit(pipeline.acquire());
+        assertNotNull(pipeline.acquire());
+        assertNotNull(pipeline.acquire());
+        assertTrue(overlapped[0]);
+        assertTrue(overlapped[1]);
+        pipeline.close();
+    }
+
+    @Test
+    public void failedFrame_doesNotStallLaterFrames() throws InterruptedException {
+        final DetectionPipeline<Slot> pipeline = new DetectionPipeline<>(newSlots(4));
+        final List<Integer> results = Collections.synchronizedList(new ArrayList<Integer>());
+        final CountDownLatch done = new CountDownLatch(9);
+        pipeline.addStage("infer", 2, (slot, worker) -> {
+            if (slot.frame == 3) {
+                throw new IllegalStateException("boom");
+            }
+        });
+        pipeline.addStage("post", slot -> {
+            results.add(slot.frame);
+            done.countDown();
+        });
+        pipeline.start();
+        for (int frame = 0; frame < 10; ++frame) {
+            final Slot slot = pipeline.acquire();
+            slot.frame = frame;
+            pipeline.submit(slot);
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList(0, 1, 2, 4, 5, 6, 7, 8, 9), results);
+        assertEquals(1, pipeline.getFramesFailed());
+        pipeline.close();
+    }
+
+    @Test
+    public void failureHandler_receivesTheFailedFrame() throws InterruptedException {
+        final DetectionPipeline<Slot> pipeline = new DetectionPipeline<>(newSlots(2));
+        final List<Integer> failedFrames = Collections.synchronizedList(new ArrayList<Integer>());
+        final CountDownLatch done = new CountDownLatch(4);
+        pipeline.setFailureHandler((slot, cause) -> {
+            assertEquals("odd", cause.getMessage());
+            failedFrames.add(slot.frame);
+        });
+        pipeline.addStage("infer", slot -> {
+            if (slot.frame % 2 == 1) {
+                throw new IllegalStateException("odd");
+            }
+        });
+        pipeline.addStage("post", slot -> done.countDown());
+        pipeline.start();
+        for (int frame = 0; frame < 8; ++frame) {
+            final Slot slot = pipeline.acquire();
+            slot.frame = frame;
+            pipeline.submit(slot);
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        // The slot is freed after the handler ran, so every handler ran once all slots are back
+        assertNotNull(pipeline.acquire());
+        assertNotNull(pipeline.acquire());
+        assertEquals(Arrays.asList(1, 3, 5, 7), failedFrames);
+        pipeline.close();
+    }
+}
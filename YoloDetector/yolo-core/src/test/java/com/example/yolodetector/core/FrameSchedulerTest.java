@@ -0,0 +1,126 @@
+package com.example.yolodetector.core;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+public class FrameSchedulerTest {
+
+    /** Frames are their own timestamps */
+    private static final class Frames implements FrameScheduler.FrameAdapter<Long>,
+            FrameScheduler.FrameProcessor<Long>, FrameScheduler.Clock {
+        final List<Long> processed = new ArrayList<>();
+        final List<Long> released = new ArrayList<>();
+        long now = 0;
+
+        @Override
+        public long getTimestampNanos(Long frame) {
+            return frame;
+        }
+
+        @Override
+        public void release(Long frame) {
+            released.add(frame);
+        }
+
+        @Override
+        public void process(Long frame) {
+            processed.add(frame);
+            release(frame);
+        }
+
+        @Override
+        public long nanoTime() {
+            return now;
+        }
+    }
+
+    /** Runs posted tasks only when asked, like a busy inference thread */
+    private static final class QueuedExecutor implements Executor {
+        final List<Runnable> tasks = new ArrayList<>();
+
+        @Override
+        public void execute(Runnable command) {
+            tasks.add(command);
+        }
+
+        void runAll() {
+            while (!tasks.isEmpty()) {
+                tasks.remove(0).run();
+            }
+        }
+    }
+
+    private static FrameScheduler<Long> newScheduler(Executor executor, Frames frames, long maxAge) {
+        return new FrameScheduler<>(executor, frames, frames, frames, maxAge);
+    }
+
+    @Test
+    public void offer_keepsOnlyTheLatestFrame() {
+        final Frames frames = new Frames();
+        final QueuedExecutor executor = new QueuedExecutor();
+        final FrameScheduler<Long> scheduler = newScheduler(executor, frames, FrameScheduler.NO_DEADLINE);
+        scheduler.offer(1L);
+        scheduler.offer(2L);
+        scheduler.offer(3L);
+        assertEquals(1, executor.tasks.size());
+        executor.runAll();
+
+        assertEquals(1, frames.processed.size());
+        assertEquals(3L, (long) frames.processed.get(0));
+        assertEquals(3, frames.released.size());
+        assertEquals(3, scheduler.getFramesCaptured());
+        assertEquals(2, scheduler.getFramesDropped());
+        assertEquals(1, scheduler.getFramesProcessed());
+    }
+
+    @Test
+    public void offer_processesEveryFrameWhenKeepingUp() {
+        final Frames frames = new Frames();
+        final FrameScheduler<Long> scheduler =
+                newScheduler(Runnable::run, frames, FrameScheduler.NO_DEADLINE);
+        for (long frame = 0; frame < 10; ++frame) {
+            scheduler.offer(frame);
+        }
+        assertEquals(10, frames.processed.size());
+        assertEquals(0, scheduler.getFramesDropped());
+    }
+
+    @Test
+    public void drain_dropsFramesPastTheDeadline() {
+        final Frames frames = new Frames();
+        final QueuedExecutor executor = new QueuedExecutor();
+        final FrameScheduler<Long> scheduler = newScheduler(executor, frames, 100);
+        scheduler.offer(1000L);
+        frames.now = 1101;
+        executor.runAll();
+        assertTrue(frames.processed.isEmpty());
+        assertEquals(1, scheduler.getFramesDropped());
+
+        scheduler.offer(1050L);
+        executor.runAll();
+        assertEquals(1, frames.processed.size());
+    }
+
+    @Test
+    public void pause_dropsPendingAndNewFrames() {
+        final Frames frames = new Frames();
+        final QueuedExecutor executor = new QueuedExecutor();
+        final FrameScheduler<Long> scheduler = newScheduler(executor, frames, FrameScheduler.NO_DEADLINE);
+        scheduler.offer(1L);
+        scheduler.pause();
+        scheduler.offer(2L);
+        executor.runAll();
+        assertTrue(frames.processed.isEmpty());
+        assertEquals(2, frames.released.size());
+
+        scheduler.resume();
+        scheduler.offer(3L);
+        executor.runAll();
+        assertEquals(3L, (long) frames.processed.get(0));
+    }
+}
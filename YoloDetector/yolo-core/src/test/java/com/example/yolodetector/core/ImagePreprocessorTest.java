@@ -0,0 +1,85 @@
+package com.example.yolodetector.core;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ImagePreprocessorTest {
+
+    private static final int SIZE = 416;
+
+    private static int[] randomPixels(long seed) {
+        final Random random = new Random(seed);
+        final int[] pixels = new int[SIZE * SIZE];
+        for (int i = 0; i < pixels.length; ++i) {
+            pixels[i] = random.nextInt();
+        }
+        return pixels;
+    }
+
+    /** The per-pixel conversion the bulk path replaces */
+    private static FloatBuffer reference(int[] pixels) {
+        final ByteBuffer expected = ByteBuffer.allocateDirect(SIZE * SIZE * 3 * 4).order(ByteOrder.nativeOrder());
+        for (int val : pixels) {
+            expected.putFloat(((val >> 16) & 0xFF) / 255.f);
+            expected.putFloat(((val >> 8) & 0xFF) / 255.f);
+            expected.putFloat((val & 0xFF) / 255.f);
+        }
+        expected.rewind();
+        return expected.asFloatBuffer();
+    }
+
+    @Test
+    public void process_matchesPerPixelConversion() {
+        final int[] pixels = randomPixels(1);
+        final FloatBuffer expected = reference(pixels);
+        for (int threads : new int[] {1, 2, 3, 4}) {
+            final ImagePreprocessor preprocessor =
+                    new ImagePreprocessor(SIZE, SIZE, ImagePreprocessor.NormalizationSpec.UNIT, threads);
+            final FloatBuffer target = ByteBuffer.allocateDirect(SIZE * SIZE * 3 * 4)
+                    .order(ByteOrder.nativeOrder()).asFloatBuffer();
+            for (int frame = 0; frame < 3; ++frame) {
+                preprocessor.process(pixels, target);
+                for (int i = 0; i < expected.capacity(); ++i) {
+                    assertEquals(expected.get(i), target.get(i), 0f);
+                }
+            }
+            assertEquals(0, target.position());
+            assertTrue(preprocessor.getLastDurationNanos() > 0);
+            preprocessor.close();
+        }
+    }
+
+    @Test
+    public void process_writesRawBytesForQuantizedInput() {
+        final int[] pixels = randomPixels(2);
+        for (int threads : new int[] {1, 3}) {
+            final ImagePreprocessor preprocessor =
+                    new ImagePreprocessor(SIZE, SIZE, ImagePreprocessor.NormalizationSpec.UNIT, threads);
+            final ByteBuffer target = ByteBuffer.allocateDirect(SIZE * SIZE * 3);
+            preprocessor.process(pixels, target);
+            for (int i = 0; i < pixels.length; ++i) {
+                assertEquals((byte) (pixels[i] >> 16), target.get(3 * i));
+                assertEquals((byte) (pixels[i] >> 8), target.get(3 * i + 1));
+                assertEquals((byte) pixels[i], target.get(3 * i + 2));
+            }
+            assertEquals(0, target.position());
+            preprocessor.close();
+        }
+    }
+
+    @Test
+    public void process_appliesPerChannelNormalization() {
+        final ImagePreprocessor.NormalizationSpec spec = new ImagePreprocessor.NormalizationSpec(
+                new float[] {127.5f, 100f, 0f}, new float[] {127.5f, 50f, 1f});
+        final ImagePreprocessor preprocessor = new ImagePreprocessor(2, 1, spec, 1);
+        final FloatBuffer target = FloatBuffer.allocate(6);
+        preprocessor.process(new int[] {0xff00ff00, 0xffff0080}, target);
+        assertArrayEquals(new float[] {-1f, 3.1f, 0f, 1f, -2f, 128f}, target.array(), 1e-6f);
+    }
+}
@@ -0,0 +1,68 @@
+package com.example.yolodetector.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Drives {@link InputSizeController} with a simulated device whose inference time grows with
+ * the input area.
+ */
+public class InputSizeControllerTest {
+
+    private static final int[] SIZES = {320, 416, 608};
+    private static final long BUDGET_NANOS = 100_000_000L;
+
+    /** Runs frames on a device that takes {@code nanosPerPixel} per input pixel */
+    private static int settle(InputSizeController controller, double nanosPerPixel, int frames) {
+        int size = controller.getSize();
+        for (int i = 0; i < frames; ++i) {
+            size = controller.onInference((long) (nanosPerPixel * size * size));
+        }
+        return size;
+    }
+
+    @Test
+    public void slowDevice_dropsToSmallest() {
+        final InputSizeController controller = new InputSizeController(SIZES, BUDGET_NANOS, 416);
+        // 416 takes 150 ms, 320 about 89 ms
+        assertEquals(320, settle(controller, 150e6 / (416 * 416), 100));
+        assertEquals(1, controller.getSwitches());
+    }
+
+    @Test
+    public void fastDevice_climbsToLargest() {
+        final InputSizeController controller = new InputSizeController(SIZES, BUDGET_NANOS, 320);
+        // 608 takes 60 ms
+        assertEquals(608, settle(controller, 60e6 / (608 * 608), 100));
+        assertEquals(2, controller.getSwitches());
+    }
+
+    @Test
+    public void balancedDevice_doesNotOscillate() {
+        final InputSizeController controller = new InputSizeController(SIZES, BUDGET_NANOS, 416);
+        // 416 takes 70 ms, so 608 would take 150 ms: stay
+        assertEquals(416, settle(controller, 70e6 / (416 * 416), 200));
+        assertEquals(0, controller.getSwitches());
+    }
+
+    @Test
+    public void fewFrames_doNotSwitch() {
+        final InputSizeController controller = new InputSizeController(SIZES, BUDGET_NANOS, 416);
+        assertEquals(416, settle(controller, 1e3, InputSizeController.MIN_FRAMES - 1));
+    }
+
+    @Test
+    public void spike_isSmoothedOut() {
+        final InputSizeController controller = new InputSizeController(SIZES, BUDGET_NANOS, 416);
+        for (int i = 0; i < 20; ++i) {
+            controller.onInference(70_000_000L);
+        }
+        assertEquals(416, controller.onInference(300_000_000L));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownInitialSize_isRejected() {
+        new InputSizeController(SIZES, BUDGET_NANOS, 512);
+    }
+}
@@ -0,0 +1,143 @@
+package com.example.yolodetector.core;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the bucketing and percentiles of {@link LatencyHistogram}, concurrent recording, and
+ * the exports of {@link LatencyMonitor}.
+ */
+public class LatencyHistogramTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void buckets_areContiguousAndCoverTheirValues() {
+        for (int bucket = 1; bucket <= LatencyHistogram.bucketOf(LatencyHistogram.MAX_NANOS); ++bucket) {
+            final long lower = LatencyHistogram.lowerBound(bucket);
+            assertEquals(bucket, LatencyHistogram.bucketOf(lower));
+            assertEquals(bucket - 1, LatencyHistogram.bucketOf(lower - 1));
+        }
+        assertEquals(LatencyHistogram.bucketOf(LatencyHistogram.MAX_NANOS),
+                LatencyHistogram.bucketOf(Long.MAX_VALUE));
+        assertEquals(0, LatencyHistogram.bucketOf(-5));
+    }
+
+    @Test
+    public void percentiles_areWithinBucketPrecision() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        // 1 ms to 100 ms in 1 ms steps
+        for (int ms = 1; ms <= 100; ++ms) {
+            histogram.record(ms * 1_000_000L);
+        }
+        final LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(100, snapshot.count);
+        assertEquals(50_500_000L, snapshot.meanNanos);
+        assertEquals(50e6, snapshot.p50Nanos, 50e6 / LatencyHistogram.SUB_BUCKETS);
+        assertEquals(95e6, snapshot.p95Nanos, 95e6 / LatencyHistogram.SUB_BUCKETS);
+        assertEquals(99e6, snapshot.p99Nanos, 99e6 / LatencyHistogram.SUB_BUCKETS);
+        assertEquals(100_000_000L, snapshot.maxNanos);
+    }
+
+    @Test
+    public void percentile_neverExceedsMaximum() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(1_000_001L);
+        final LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(1_000_001L, snapshot.p99Nanos);
+        assertEquals(1_000_001L, snapshot.maxNanos);
+    }
+
+    @Test
+    public void empty_reportsZeros() {
+        final LatencyHistogram.Snapshot snapshot = new LatencyHistogram().snapshot();
+        assertEquals(0, snapshot.count);
+        assertEquals(0, snapshot.p50Nanos);
+        assertEquals(0, snapshot.maxNanos);
+    }
+
+    @Test
+    public void concurrentRecords_areAllCounted() throws InterruptedException {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        final int threads = 4;
+        final int perThread = 100_000;
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; ++t) {
+            final int offset = t;
+            final Thread worker = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < perThread; ++i) {
+                    histogram.record(1_000L * (i % 1000 + offset));
+                }
+            });
+            worker.start();
+            workers.add(worker);
+        }
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        final LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(threads * perThread, snapshot.count);
+        assertEquals(1_000L * (999 + threads - 1), snapshot.maxNanos);
+    }
+
+    @Test
+    public void reset_clearsEverything() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(5_000_000L);
+        histogram.reset();
+        assertEquals(0, histogram.snapshot().count);
+        assertEquals(0, histogram.snapshot().maxNanos);
+    }
+
+    @Test
+    public void monitor_describesOnlyRecordedStages() {
+        final LatencyMonitor monitor = new LatencyMonitor();
+        monitor.record(LatencyMonitor.Stage.INFERENCE, 80_000_000L);
+        monitor.record(LatencyMonitor.Stage.GLASS_TO_VOICE, 400_000_000L);
+        final String text = monitor.describe();
+        assertTrue(text, text.contains("inference: n=1"));
+        assertTrue(text, text.contains("glass_to_voice: n=1"));
+        assertFalse(text, text.contains("preprocess"));
+    }
+
+    @Test
+    public void monitor_appendsCsvWithOneHeader() throws IOException {
+        final LatencyMonitor monitor = new LatencyMonitor();
+        monitor.record(LatencyMonitor.Stage.NMS, 200_000L);
+        final File file = new File(folder.getRoot(), "latency.csv");
+        monitor.appendCsv(file, 1000L);
+        monitor.appendCsv(file, 2000L);
+        final List<String> lines = new ArrayList<>();
+        try (BufferedReader in = new BufferedReader(new FileReader(file))) {
+            for (String line = in.readLine(); line != null; line = in.readLine()) {
+                lines.add(line);
+            }
+        }
+        final int stages = LatencyMonitor.Stage.values().length;
+        assertEquals(1 + 2 * stages, lines.size());
+        assertTrue(lines.get(0).startsWith("time,stage,"));
+        // Second export, after the header and the first export's rows
+        final String nms = lines.get(1 + stages + LatencyMonitor.Stage.NMS.ordinal());
+        assertTrue(nms, nms.startsWith("2000,nms,1,200000,"));
+        assertTrue(nms, nms.endsWith(",200000"));
+    }
+}
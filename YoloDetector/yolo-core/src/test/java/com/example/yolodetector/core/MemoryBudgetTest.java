@@ -0,0 +1,86 @@
+package com.example.yolodetector.core;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class MemoryBudgetTest {
+
+    @Test
+    public void evict_releasesLeastRecentlyUsedFirst() {
+        final MemoryBudget<String> budget = new MemoryBudget<>(100);
+        budget.add("a", 40);
+        budget.add("b", 40);
+        budget.add("c", 40);
+        budget.unpin("a");
+        budget.unpin("b");
+        budget.unpin("c");
+        // a is used again, so b is now the oldest
+        budget.pin("a");
+        budget.unpin("a");
+        assertEquals(Collections.singletonList("b"), budget.evict());
+        assertEquals(80, budget.getUsedBytes());
+        assertFalse(budget.contains("b"));
+    }
+
+    @Test
+    public void evict_neverReleasesPinned() {
+        final MemoryBudget<String> budget = new MemoryBudget<>(50);
+        budget.add("active", 60);
+        budget.add("idle", 30);
+        budget.unpin("idle");
+        assertEquals(Collections.singletonList("idle"), budget.evict());
+        // Still over budget, but what is left is in use
+        assertEquals(60, budget.getUsedBytes());
+        assertTrue(budget.evict().isEmpty());
+        assertTrue(budget.isPinned("active"));
+    }
+
+    @Test
+    public void evict_keepsEverythingWithinBudget() {
+        final MemoryBudget<String> budget = new MemoryBudget<>(100);
+        budget.add("a", 50);
+        budget.unpin("a");
+        budget.add("b", 50);
+        budget.unpin("b");
+        assertTrue(budget.evict().isEmpty());
+        budget.setBudgetBytes(60);
+        assertEquals(Collections.singletonList("a"), budget.evict());
+    }
+
+    @Test
+    public void evictUnpinned_releasesAllIdle() {
+        final MemoryBudget<String> budget = new MemoryBudget<>(1000);
+        budget.add("a", 10);
+        budget.add("b", 20);
+        budget.add("c", 30);
+        budget.unpin("a");
+        budget.unpin("c");
+        assertEquals(Arrays.asList("a", "c"), budget.evictUnpinned());
+        assertEquals(20, budget.getUsedBytes());
+        assertEquals(1, budget.size());
+    }
+
+    @Test
+    public void add_again_updatesTheSize() {
+        final MemoryBudget<String> budget = new MemoryBudget<>(100);
+        budget.add("a", 10);
+        budget.add("a", 25);
+        assertEquals(25, budget.getUsedBytes());
+        assertEquals(25, budget.getBytes("a"));
+        budget.remove("a");
+        assertEquals(0, budget.getUsedBytes());
+        assertEquals(0, budget.getBytes("a"));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void unpin_unpinned_throws() {
+        final MemoryBudget<String> budget = new MemoryBudget<>(100);
+        budget.add("a", 10);
+        budget.unpin("a");
+        budget.unpin("a");
+    }
+}
@@ -0,0 +1,354 @@
+package com.example.yolodetector.core;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks {@link ModelDescriptor} parsing, and {@link MultiHeadDecoder}'s gated and quantized
+ * decodes against the full softmax decode on synthetic outputs, across heads and layouts.
+ */
+public class MultiHeadDecoderTest {
+
+    private static final String TINY_YOLOV2 = "name = tiny-yolov2-coco\n"
+            + "classes = 80\n"
+            + "layout = cell_anchor\n"
+            + "class_activation = softmax\n"
+            + "anchor_units = grid\n"
+            + "heads = 1\n"
+            + "head.0.stride = 32\n"
+            + "head.0.anchors = 0.57273,0.677385, 1.87446,2.06253, 3.33843,5.47434, 7.88282,3.52778, 9.77052,9.16828\n";
+
+    private static final String TINY_YOLOV3 = "name = tiny-yolov3-coco\n"
+            + "classes = 80\n"
+            + "class_activation = sigmoid\n"
+            + "anchor_units = pixels\n"
+            + "heads = 2\n"
+            + "head.0.stride = 32\n"
+            + "head.0.anchors = 81,82, 135,169, 344,319\n"
+            + "head.1.stride = 16\n"
+            + "head.1.anchors = 10,14, 23,27, 37,58\n";
+
+    private static ModelDescriptor parse(String text) throws IOException {
+        return ModelDescriptor.parse(new ByteArrayInputStream(text.getBytes(StandardCharsets.ISO_8859_1)));
+    }
+
+    /** Mostly background with a few confident boxes, like a real frame */
+    private static float[] randomOutput(int boxes, int boxSize, long seed) {
+        final Random random = new Random(seed);
+        final float[] out = new float[boxes * boxSize];
+        for (int box = 0; box < boxes; ++box) {
+            final int offset = box * boxSize;
+            for (int k = 0; k < 4; ++k) {
+                out[offset + k] = (float) random.nextGaussian();
+            }
+            out[offset + 4] = random.nextInt(20) == 0
+                    ? (float) (random.nextGaussian() * 2)
+                    : (float) (random.nextGaussian() * 2 - 7);
+            for (int c = 5; c < boxSize; ++c) {
+                out[offset + c] = (float) (random.nextGaussian() * 3);
+            }
+        }
+        return out;
+    }
+
+    private static ByteBuffer quantize(float[] values, float scale, int zeroPoint) {
+        final ByteBuffer out = ByteBuffer.allocate(values.length);
+        for (int i = 0; i < values.length; ++i) {
+            out.put(i, (byte) Math.max(0, Math.min(255, Math.round(values[i] / scale) + zeroPoint)));
+        }
+        return out;
+    }
+
+    private static void assertSameCandidates(MultiHeadDecoder expected, int expectedCount, MultiHeadDecoder actual, int actualCount) {
+        assertEquals(expectedCount, actualCount);
+        for (int i = 0; i < expectedCount; ++i) {
+            assertEquals(expected.classes[i], actual.classes[i]);
+            assertEquals(expected.scores[i], actual.scores[i], 0f);
+            assertEquals(expected.x1[i], actual.x1[i], 0f);
+            assertEquals(expected.y1[i], actual.y1[i], 0f);
+            assertEquals(expected.x2[i], actual.x2[i], 0f);
+            assertEquals(expected.y2[i], actual.y2[i], 0f);
+        }
+    }
+
+    @Test
+    public void descriptor_parsesEveryField() throws IOException {
+        final ModelDescriptor descriptor = parse(TINY_YOLOV3);
+        assertEquals("tiny-yolov3-coco", descriptor.getName());
+        assertEquals(80, descriptor.getNumClasses());
+        assertEquals(85, descriptor.getBoxSize());
+        assertEquals(ModelDescriptor.Layout.CELL_ANCHOR, descriptor.getLayout());
+        assertEquals(ModelDescriptor.Activation.SIGMOID, descriptor.getClassActivation());
+        assertEquals(2, descriptor.getNumHeads());
+        assertEquals(16, descriptor.getStride(1));
+        assertEquals(3, descriptor.getNumAnchors(0));
+        // Pixel anchors are converted to cells of their head
+        assertArrayEquals(new double[] {10 / 16., 14 / 16., 23 / 16., 27 / 16., 37 / 16., 58 / 16.},
+                descriptor.getAnchors(1), 1e-12);
+    }
+
+    @Test(expected = IOException.class)
+    public void descriptor_missingHead_isRejected() throws IOException {
+        parse(TINY_YOLOV3.replace("head.1.stride = 16\n", ""));
+    }
+
+    @Test(expected = IOException.class)
+    public void descriptor_unknownActivation_isRejected() throws IOException {
+        parse(TINY_YOLOV2.replace("softmax", "relu"));
+    }
+
+    @Test(expected = IOException.class)
+    public void descriptor_oddAnchors_isRejected() throws IOException {
+        parse(TINY_YOLOV2.replace("9.77052,9.16828", "9.77052"));
+    }
+
+    private static MultiHeadDecoder tinyYoloV2() throws IOException {
+        return new MultiHeadDecoder(parse(TINY_YOLOV2), 416, 416);
+    }
+
+    private static FloatBuffer[] heads(float[] output) {
+        return new FloatBuffer[] {FloatBuffer.wrap(output)};
+    }
+
+    @Test
+    public void gatedDecode_matchesFullDecode() throws IOException {
+        final MultiHeadDecoder full = tinyYoloV2();
+        full.setEarlyRejection(false);
+        final MultiHeadDecoder gated = tinyYoloV2();
+        for (long seed = 0; seed < 20; ++seed) {
+            final FloatBuffer[] output = heads(randomOutput(full.getCapacity(), 85, seed));
+            final int expected = full.decode(output);
+            assertTrue(expected > 0);
+            assertSameCandidates(full, expected, gated, gated.decode(output));
+        }
+    }
+
+    @Test
+    public void gatedDecode_matchesFullDecodeForOtherThresholds() throws IOException {
+        final MultiHeadDecoder full = tinyYoloV2();
+        full.setEarlyRejection(false);
+        final MultiHeadDecoder gated = tinyYoloV2();
+        final FloatBuffer[] output = heads(randomOutput(full.getCapacity(), 85, 42));
+        for (float threshold : new float[] {0f, 0.001f, 0.05f, 0.3f, 0.9f, 1f}) {
+            full.setScoreThreshold(threshold);
+            gated.setScoreThreshold(threshold);
+            assertSameCandidates(full, full.decode(output), gated, gated.decode(output));
+        }
+    }
+
+    /** Quantizes {@code output} into {@code raw} and returns the float values the raw ones stand for */
+    private static float[] quantize(float[] output, ByteBuffer raw, float scale, int zeroPoint, boolean signed) {
+        final float[] dequantized = new float[output.length];
+        final int min = signed ? -128 : 0;
+        final int max = signed ? 127 : 255;
+        for (int i = 0; i < dequantized.length; ++i) {
+            final int q = Math.max(min, Math.min(max, Math.round(output[i] / scale) + zeroPoint));
+            raw.put(i, (byte) q);
+            dequantized[i] = (q - zeroPoint) * scale;
+        }
+        return dequantized;
+    }
+
+    private void checkQuantizedDecode(float scale, int zeroPoint, boolean signed) throws IOException {
+        final MultiHeadDecoder reference = tinyYoloV2();
+        reference.setEarlyRejection(false);
+        final MultiHeadDecoder quantized = tinyYoloV2();
+        quantized.setQuantization(0, scale, zeroPoint, signed);
+        final ByteBuffer raw = ByteBuffer.allocateDirect(reference.getOutputSize(0));
+        for (long seed = 0; seed < 5; ++seed) {
+            final float[] dequantized = quantize(randomOutput(reference.getCapacity(), 85, seed),
+                    raw, scale, zeroPoint, signed);
+            final int expected = reference.decode(heads(dequantized));
+            assertTrue(expected > 0);
+            assertEquals(expected, quantized.decodeQuantized(new ByteBuffer[] {raw}));
+            for (int i = 0; i < expected; ++i) {
+                assertEquals(reference.classes[i], quantized.classes[i]);
+                assertEquals(reference.scores[i], quantized.scores[i], 1e-5f);
+                assertEquals(reference.x1[i], quantized.x1[i], 1e-3f);
+                assertEquals(reference.y1[i], quantized.y1[i], 1e-3f);
+                assertEquals(reference.x2[i], quantized.x2[i], 1e-3f);
+                assertEquals(reference.y2[i], quantized.y2[i], 1e-3f);
+            }
+        }
+    }
+
+    @Test
+    public void quantizedDecode_matchesDequantizedFloatDecode() throws IOException {
+        checkQuantizedDecode(0.1f, 128, false);
+        checkQuantizedDecode(0.08f, 100, false);
+    }
+
+    @Test
+    public void quantizedDecode_handlesSignedOutput() throws IOException {
+        checkQuantizedDecode(0.1f, 0, true);
+        checkQuantizedDecode(0.07f, -10, true);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void quantizedDecode_requiresParameters() throws IOException {
+        tinyYoloV2().decodeQuantized(new ByteBuffer[] {ByteBuffer.allocate(13 * 13 * 425)});
+    }
+
+    @Test
+    public void scoreThreshold_isRespected() throws IOException {
+        final MultiHeadDecoder decoder = tinyYoloV2();
+        final FloatBuffer[] output = heads(randomOutput(decoder.getCapacity(), 85, 7));
+        final int loose = decoder.decode(output);
+        decoder.setScoreThreshold(0.3f);
+        final int count = decoder.decode(output);
+        assertTrue(count < loose);
+        for (int i = 0; i < count; ++i) {
+            assertTrue(decoder.scores[i] > 0.3f);
+        }
+    }
+
+    @Test
+    public void twoHeads_decodeIntoOneSet() throws IOException {
+        final ModelDescriptor descriptor = parse(TINY_YOLOV3);
+        final MultiHeadDecoder decoder = MultiHeadDecoder.forTensorShapes(descriptor,
+                new int[] {1, 416, 416, 3}, new int[][] {{1, 13, 13, 255}, {1, 26, 26, 255}});
+        assertEquals(13 * 13 * 3 + 26 * 26 * 3, decoder.getCapacity());
+        final FloatBuffer[] outputs = {
+                FloatBuffer.wrap(randomOutput(13 * 13 * 3, 85, 1)),
+                FloatBuffer.wrap(randomOutput(26 * 26 * 3, 85, 2))
+        };
+        final MultiHeadDecoder full = new MultiHeadDecoder(descriptor, 416, 416);
+        full.setEarlyRejection(false);
+        final int count = decoder.decode(outputs);
+        assertTrue(count > 0);
+        assertSameCandidates(full, full.decode(outputs), decoder, count);
+
+        // The fine head's boxes come after the coarse head's and stay inside the input
+        final float[] background = new float[26 * 26 * 3 * 85];
+        for (int box = 0; box < 26 * 26 * 3; ++box) {
+            background[box * 85 + 4] = -20f;
+        }
+        final MultiHeadDecoder coarseOnly = new MultiHeadDecoder(descriptor, 416, 416);
+        final int coarse = coarseOnly.decode(new FloatBuffer[] {outputs[0], FloatBuffer.wrap(background)});
+        assertTrue(coarse > 0 && coarse < count);
+        for (int i = 0; i < coarse; ++i) {
+            assertEquals(coarseOnly.x1[i], decoder.x1[i], 0f);
+        }
+        for (int i = 0; i < count; ++i) {
+            assertTrue(decoder.x1[i] >= 0 && decoder.x2[i] <= 415);
+        }
+    }
+
+    @Test
+    public void anchorCellLayout_decodesLikeCellAnchor() throws IOException {
+        final ModelDescriptor cellAnchor = parse(TINY_YOLOV3);
+        final ModelDescriptor anchorCell = parse(TINY_YOLOV3 + "layout = anchor_cell\n");
+        final int[] grids = {13, 26};
+        final FloatBuffer[] interleaved = new FloatBuffer[2];
+        final FloatBuffer[] planar = new FloatBuffer[2];
+        for (int h = 0; h < 2; ++h) {
+            final int cells = grids[h] * grids[h];
+            final float[] source = randomOutput(cells * 3, 85, h + 10);
+            final float[] transposed = new float[source.length];
+            for (int cell = 0; cell < cells; ++cell) {
+                for (int b = 0; b < 3; ++b) {
+                    System.arraycopy(source, (cell * 3 + b) * 85, transposed, (b * cells + cell) * 85, 85);
+                }
+            }
+            interleaved[h] = FloatBuffer.wrap(source);
+            planar[h] = FloatBuffer.wrap(transposed);
+        }
+        final MultiHeadDecoder expected = new MultiHeadDecoder(cellAnchor, 416, 416);
+        final MultiHeadDecoder actual = new MultiHeadDecoder(anchorCell, 416, 416);
+        assertSameCandidates(expected, expected.decode(interleaved), actual, actual.decode(planar));
+    }
+
+    @Test
+    public void sigmoidQuantized_matchesFloatClosely() throws IOException {
+        final ModelDescriptor descriptor = parse(TINY_YOLOV3);
+        final MultiHeadDecoder floats = new MultiHeadDecoder(descriptor, 416, 416);
+        final MultiHeadDecoder quantized = new MultiHeadDecoder(descriptor, 416, 416);
+        quantized.setQuantization(0, 0.1f, 128, false);
+        quantized.setQuantization(1, 0.1f, 128, false);
+        floats.setScoreThreshold(0.3f);
+        quantized.setScoreThreshold(0.3f);
+        final float[] coarse = randomOutput(13 * 13 * 3, 85, 4);
+        final float[] fine = randomOutput(26 * 26 * 3, 85, 5);
+        final ByteBuffer[] raw = {quantize(coarse, 0.1f, 128), quantize(fine, 0.1f, 128)};
+        // Decode the dequantized values as floats, so both paths see the same logits
+        final float[][] dequantized = {new float[coarse.length], new float[fine.length]};
+        for (int h = 0; h < 2; ++h) {
+            for (int i = 0; i < dequantized[h].length; ++i) {
+                dequantized[h][i] = ((raw[h].get(i) & 0xFF) - 128) * 0.1f;
+            }
+        }
+        final int count = quantized.decodeQuantized(raw);
+        assertEquals(floats.decode(new FloatBuffer[] {
+                FloatBuffer.wrap(dequantized[0]), FloatBuffer.wrap(dequantized[1])}), count);
+        for (int i = 0; i < count; ++i) {
+            assertEquals(floats.classes[i], quantized.classes[i]);
+            assertEquals(floats.scores[i], quantized.scores[i], 1e-5f);
+            assertEquals(floats.x1[i], quantized.x1[i], 1e-3f);
+        }
+    }
+
+    @Test
+    public void tensorShapes_defineGeometry() throws IOException {
+        final MultiHeadDecoder decoder = MultiHeadDecoder.forTensorShapes(parse(TINY_YOLOV2),
+                new int[] {1, 608, 608, 3}, new int[][] {{1, 19, 19, 425}});
+        assertEquals(19, decoder.getGridWidth(0));
+        assertEquals(19, decoder.getGridHeight(0));
+        assertEquals(19 * 19 * 5, decoder.getCapacity());
+        assertEquals(19 * 19 * 425, decoder.getOutputSize(0));
+    }
+
+    @Test
+    public void tensorShapes_boxesStayInsideInput() throws IOException {
+        final MultiHeadDecoder decoder = MultiHeadDecoder.forTensorShapes(parse(TINY_YOLOV2),
+                new int[] {1, 320, 320, 3}, new int[][] {{1, 10, 10, 425}});
+        final float[] out = new float[decoder.getOutputSize(0)];
+        // Confident, huge boxes in every cell
+        for (int box = 0; box < decoder.getCapacity(); ++box) {
+            out[box * 85 + 2] = 3f;
+            out[box * 85 + 3] = 3f;
+            out[box * 85 + 4] = 5f;
+        }
+        final int count = decoder.decode(heads(out));
+        assertEquals(decoder.getCapacity(), count);
+        for (int i = 0; i < count; ++i) {
+            assertTrue(decoder.x1[i] >= 0 && decoder.x2[i] <= 319);
+            assertTrue(decoder.y1[i] >= 0 && decoder.y2[i] <= 319);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void tensorShapes_rejectChannelMismatch() throws IOException {
+        MultiHeadDecoder.forTensorShapes(parse(TINY_YOLOV2), new int[] {1, 416, 416, 3}, new int[][] {{1, 13, 13, 424}});
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void tensorShapes_rejectUnevenStride() throws IOException {
+        MultiHeadDecoder.forTensorShapes(parse(TINY_YOLOV2), new int[] {1, 416, 400, 3}, new int[][] {{1, 13, 13, 425}});
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void tensorShapes_wrongHeadCount_isRejected() throws IOException {
+        MultiHeadDecoder.forTensorShapes(parse(TINY_YOLOV3), new int[] {1, 416, 416, 3}, new int[][] {{1, 13, 13, 255}});
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void tensorShapes_wrongGrid_isRejected() throws IOException {
+        MultiHeadDecoder.forTensorShapes(parse(TINY_YOLOV3), new int[] {1, 416, 416, 3},
+                new int[][] {{1, 13, 13, 255}, {1, 13, 13, 255}});
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void quantizedDecode_needsEveryHead() throws IOException {
+        final MultiHeadDecoder decoder = new MultiHeadDecoder(parse(TINY_YOLOV3), 416, 416);
+        decoder.setQuantization(0, 0.1f, 128, false);
+        decoder.decodeQuantized(new ByteBuffer[] {ByteBuffer.allocate(1), ByteBuffer.allocate(1)});
+    }
+}
@@ -0,0 +1,211 @@
+package com.example.yolodetector.core;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class NmsEngineTest {
+
+    /** Candidate arrays built up by the tests */
+    private static class Boxes {
+        final float[] x1, y1, x2, y2, scores;
+        final int[] classes;
+        int count = 0;
+
+        Boxes(int capacity) {
+            x1 = new float[capacity];
+            y1 = new float[capacity];
+            x2 = new float[capacity];
+            y2 = new float[capacity];
+            scores = new float[capacity];
+            classes = new int[capacity];
+        }
+
+        Boxes add(float left, float top, float right, float bottom, float score, int cls) {
+            x1[count] = left;
+            y1[count] = top;
+            x2[count] = right;
+            y2[count] = bottom;
+            scores[count] = score;
+            classes[count] = cls;
+            ++count;
+            return this;
+        }
+
+        int run(NmsEngine nms) {
+            return nms.run(x1, y1, x2, y2, scores, classes, count);
+        }
+    }
+
+    static Boxes randomBoxes(Random random, int count, int numClasses) {
+        final Boxes boxes = new Boxes(count);
+        for (int i = 0; i < count; ++i) {
+            final float cx = random.nextFloat() * 416;
+            final float cy = random.nextFloat() * 416;
+            final float w = 10 + random.nextFloat() * 150;
+            final float h = 10 + random.nextFloat() * 150;
+            boxes.add(cx - w / 2, cy - h / 2, cx + w / 2, cy + h / 2,
+                    random.nextFloat(), random.nextInt(numClasses));
+        }
+        return boxes;
+    }
+
+    /** Straightforward per-class greedy NMS followed by a global top-K, used as the reference */
+    private static List<Integer> referenceNms(final Boxes boxes, float threshold, int maxResults) {
+        final List<Integer> sorted = new ArrayList<>();
+        for (int i = 0; i < boxes.count; ++i) {
+            sorted.add(i);
+        }
+        Collections.sort(sorted, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                final int c = Float.compare(boxes.scores[b], boxes.scores[a]);
+                return c != 0 ? c : Integer.compare(a, b);
+            }
+        });
+        final List<Integer> kept = new ArrayList<>();
+        for (int i : sorted) {
+            boolean suppressed = false;
+            for (int k : kept) {
+                if (boxes.classes[k] == boxes.classes[i]
+                        && NmsEngine.iou(boxes.x1[k], boxes.y1[k], boxes.x2[k], boxes.y2[k],
+                        boxes.x1[i], boxes.y1[i], boxes.x2[i], boxes.y2[i]) > threshold) {
+                    suppressed = true;
+                    break;
+                }
+            }
+            if (!suppressed) {
+                kept.add(i);
+            }
+        }
+        return kept.subList(0, Math.min(maxResults, kept.size()));
+    }
+
+    @Test
+    public void iou_handlesIdenticalDisjointAndPartialBoxes() {
+        assertEquals(1f, NmsEngine.iou(0, 0, 9, 9, 0, 0, 9, 9), 1e-6f);
+        assertEquals(0f, NmsEngine.iou(0, 0, 9, 9, 20, 20, 29, 29), 0f);
+        // 10x10 boxes shifted by 5 in x: intersection 5x10, union 150
+        assertEquals(50f / 150f, NmsEngine.iou(0, 0, 9, 9, 5, 0, 14, 9), 1e-6f);
+        // containment
+        assertEquals(25f / 100f, NmsEngine.iou(0, 0, 9, 9, 0, 0, 4, 4), 1e-6f);
+        assertEquals(NmsEngine.iou(0, 0, 9, 9, 5, 0, 14, 9), NmsEngine.iou(5, 0, 14, 9, 0, 0, 9, 9), 0f);
+    }
+
+    @Test
+    public void greedy_suppressesOverlapsWithinClassOnly() {
+        final Boxes boxes = new Boxes(4)
+                .add(0, 0, 99, 99, 0.9f, 1)
+                .add(2, 2, 101, 101, 0.8f, 1)
+                .add(2, 2, 101, 101, 0.7f, 2)
+                .add(200, 200, 299, 299, 0.6f, 1);
+        final NmsEngine nms = new NmsEngine(4, 5, 0.5f);
+        assertEquals(3, boxes.run(nms));
+        assertArrayEquals(new int[] {0, 2, 3}, java.util.Arrays.copyOf(nms.keep, nms.keepCount));
+        assertEquals(0.9f, nms.keepScores[0], 0f);
+        assertEquals(0.7f, nms.keepScores[1], 0f);
+        assertEquals(0.6f, nms.keepScores[2], 0f);
+    }
+
+    @Test
+    public void greedy_matchesReferenceOnRandomInput() {
+        final Random random = new Random(3);
+        for (int trial = 0; trial < 50; ++trial) {
+            final int count = 1 + random.nextInt(900);
+            final Boxes boxes = randomBoxes(random, count, 1 + random.nextInt(80));
+            for (int maxResults : new int[] {1, 5, 1000}) {
+                final NmsEngine nms = new NmsEngine(count, maxResults, 0.5f);
+                boxes.run(nms);
+                final List<Integer> expected = referenceNms(boxes, 0.5f, maxResults);
+                assertEquals(expected.size(), nms.keepCount);
+                for (int i = 0; i < expected.size(); ++i) {
+                    assertEquals((int) expected.get(i), nms.keep[i]);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void run_isReusableAcrossFrames() {
+        final Random random = new Random(11);
+        final NmsEngine nms = new NmsEngine(845, 5, 0.5f);
+        for (int frame = 0; frame < 10; ++frame) {
+            final Boxes boxes = randomBoxes(random, random.nextInt(845), 80);
+            boxes.run(nms);
+            assertEquals(referenceNms(boxes, 0.5f, 5).size(), nms.keepCount);
+        }
+        assertEquals(0, new Boxes(0).run(nms));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void run_rejectsTooManyCandidates() {
+        randomBoxes(new Random(1), 10, 3).run(new NmsEngine(5, 5, 0.5f));
+    }
+
+    @Test
+    public void fast_suppressesChainsThatGreedyKeeps() {
+        // a overlaps b, b overlaps c, a does not overlap c
+        final Boxes boxes = new Boxes(3)
+                .add(0, 0, 99, 99, 0.9f, 0)
+                .add(30, 0, 129, 99, 0.8f, 0)
+                .add(60, 0, 159, 99, 0.7f, 0);
+        final NmsEngine nms = new NmsEngine(3, 5, 0.4f);
+        assertEquals(2, boxes.run(nms));
+        assertEquals(0, nms.keep[0]);
+        assertEquals(2, nms.keep[1]);
+
+        nms.setMode(NmsEngine.Mode.FAST);
+        assertEquals(1, boxes.run(nms));
+        assertEquals(0, nms.keep[0]);
+    }
+
+    @Test
+    public void fast_neverKeepsMoreThanGreedy() {
+        final Random random = new Random(5);
+        final NmsEngine greedy = new NmsEngine(845, 845, 0.5f, 845);
+        final NmsEngine fast = new NmsEngine(845, 845, 0.5f, 845);
+        fast.setMode(NmsEngine.Mode.FAST);
+        for (int trial = 0; trial < 20; ++trial) {
+            final Boxes boxes = randomBoxes(random, 845, 10);
+            boxes.run(greedy);
+            boxes.run(fast);
+            assertTrue(fast.keepCount <= greedy.keepCount);
+        }
+    }
+
+    @Test
+    public void matrix_decaysDuplicatesAndKeepsIsolatedBoxes() {
+        final Boxes boxes = new Boxes(3)
+                .add(0, 0, 99, 99, 0.9f, 0)
+                .add(1, 1, 100, 100, 0.85f, 0)
+                .add(300, 300, 399, 399, 0.5f, 0);
+        final NmsEngine nms = new NmsEngine(3, 5, 0.5f);
+        nms.setMode(NmsEngine.Mode.MATRIX);
+        nms.setMatrixScoreThreshold(0.3f);
+        assertEquals(2, boxes.run(nms));
+        assertEquals(0, nms.keep[0]);
+        assertEquals(0.9f, nms.keepScores[0], 0f);
+        assertEquals(2, nms.keep[1]);
+        assertEquals(0.5f, nms.keepScores[1], 0f);
+    }
+
+    @Test
+    public void matrix_resultsAreSortedByDecayedScore() {
+        final Random random = new Random(9);
+        final NmsEngine nms = new NmsEngine(845, 20, 0.5f);
+        nms.setMode(NmsEngine.Mode.MATRIX);
+        final Boxes boxes = randomBoxes(random, 845, 5);
+        boxes.run(nms);
+        assertEquals(20, nms.keepCount);
+        for (int i = 1; i < nms.keepCount; ++i) {
+            assertTrue(nms.keepScores[i - 1] >= nms.keepScores[i]);
+            assertTrue(nms.keepScores[i] <= boxes.scores[nms.keep[i]]);
+        }
+    }
+}
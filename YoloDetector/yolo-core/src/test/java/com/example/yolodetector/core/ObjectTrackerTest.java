@@ -0,0 +1,170 @@
+package com.example.yolodetector.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks association, motion prediction and the adaptive detection interval of
+ * {@link ObjectTracker} on scripted boxes at 30 fps.
+ */
+public class ObjectTrackerTest {
+
+    private static final long FRAME_NANOS = 33_333_333L;
+
+    private final float[] x1 = new float[4];
+    private final float[] y1 = new float[4];
+    private final float[] x2 = new float[4];
+    private final float[] y2 = new float[4];
+    private final float[] scores = new float[4];
+    private final int[] classes = new int[4];
+
+    private void box(int i, int classId, float left, float top, float size) {
+        x1[i] = left;
+        y1[i] = top;
+        x2[i] = left + size;
+        y2[i] = top + size;
+        scores[i] = 0.8f;
+        classes[i] = classId;
+    }
+
+    private static long at(int frame) {
+        return frame * FRAME_NANOS;
+    }
+
+    @Test
+    public void movingBox_keepsItsId() {
+        final ObjectTracker tracker = new ObjectTracker(0);
+        for (int frame = 0; frame < 10; ++frame) {
+            box(0, 2, 100 + 5 * frame, 50, 80);
+            tracker.update(x1, y1, x2, y2, scores, classes, 1, at(frame));
+            assertEquals(1, tracker.getTrackCount());
+            assertEquals(0, tracker.getTrack(0).getId());
+        }
+        assertEquals(150f, tracker.getTrack(0).getVelocityX(), 1f);
+        assertEquals(0f, tracker.getTrack(0).getVelocityY(), 1f);
+        assertEquals(10, tracker.getTrack(0).getHits());
+    }
+
+    @Test
+    public void predict_extrapolatesConstantVelocity() {
+        final ObjectTracker tracker = new ObjectTracker(4);
+        for (int frame = 0; frame < 5; ++frame) {
+            box(0, 0, 100, 100 + 3 * frame, 60);
+            tracker.update(x1, y1, x2, y2, scores, classes, 1, at(frame));
+        }
+        tracker.predict(at(7));
+        final ObjectTracker.Track track = tracker.getTrack(0);
+        assertTrue(track.isPredicted());
+        assertEquals(100f, track.getX1(), 0.5f);
+        assertEquals(121f, track.getY1(), 0.5f);
+        assertEquals(181f, track.getY2(), 0.5f);
+    }
+
+    @Test
+    public void otherClass_startsNewTrack() {
+        final ObjectTracker tracker = new ObjectTracker(0);
+        box(0, 0, 10, 10, 50);
+        tracker.update(x1, y1, x2, y2, scores, classes, 1, at(0));
+        box(0, 1, 10, 10, 50);
+        tracker.update(x1, y1, x2, y2, scores, classes, 1, at(1));
+        assertEquals(2, tracker.getTrackCount());
+        assertEquals(1, tracker.getTrack(1).getId());
+        assertEquals(1, tracker.getTrack(0).getMisses());
+    }
+
+    @Test
+    public void missedTrack_isDroppedAfterMaxMisses() {
+        final ObjectTracker tracker = new ObjectTracker(0);
+        tracker.setMaxMisses(2);
+        box(0, 0, 10, 10, 50);
+        tracker.update(x1, y1, x2, y2, scores, classes, 1, at(0));
+        tracker.update(x1, y1, x2, y2, scores, classes, 0, at(1));
+        tracker.update(x1, y1, x2, y2, scores, classes, 0, at(2));
+        assertEquals(1, tracker.getTrackCount());
+        tracker.update(x1, y1, x2, y2, scores, classes, 0, at(3));
+        assertEquals(0, tracker.getTrackCount());
+    }
+
+    @Test
+    public void nearbyBoxes_matchBestPairFirst() {
+        final ObjectTracker tracker = new ObjectTracker(0);
+        box(0, 0, 0, 0, 100);
+        box(1, 0, 60, 0, 100);
+        tracker.update(x1, y1, x2, y2, scores, classes, 2, at(0));
+        // Same boxes, listed the other way round
+        box(0, 0, 62, 0, 100);
+        box(1, 0, 2, 0, 100);
+        tracker.update(x1, y1, x2, y2, scores, classes, 2, at(1));
+        assertEquals(2, tracker.getTrackCount());
+        assertEquals(2f, tracker.getTrack(0).getX1(), 0.01f);
+        assertEquals(62f, tracker.getTrack(1).getX1(), 0.01f);
+    }
+
+    @Test
+    public void staticScene_growsIntervalToMaxSkip() {
+        final ObjectTracker tracker = new ObjectTracker(3);
+        box(0, 0, 100, 100, 80);
+        int detected = 0;
+        for (int frame = 0; frame < 40; ++frame) {
+            if (tracker.shouldDetect(at(frame))) {
+                ++detected;
+                tracker.update(x1, y1, x2, y2, scores, classes, 1, at(frame));
+            } else {
+                tracker.predict(at(frame));
+            }
+        }
+        assertEquals(4, tracker.getDetectionInterval());
+        assertTrue("detected " + detected, detected <= 13);
+        assertEquals(40, tracker.getFramesDetected() + tracker.getFramesPredicted());
+        assertTrue(tracker.getSkipRatio() > 0.6);
+    }
+
+    @Test
+    public void newObject_resetsInterval() {
+        final ObjectTracker tracker = new ObjectTracker(3);
+        box(0, 0, 100, 100, 80);
+        for (int frame = 0; frame < 5; ++frame) {
+            tracker.update(x1, y1, x2, y2, scores, classes, 1, at(frame));
+        }
+        assertEquals(4, tracker.getDetectionInterval());
+        box(1, 5, 300, 300, 40);
+        tracker.update(x1, y1, x2, y2, scores, classes, 2, at(5));
+        assertEquals(1, tracker.getDetectionInterval());
+        assertTrue(tracker.shouldDetect(at(6)));
+    }
+
+    @Test
+    public void emptyScene_detectsEveryFrame() {
+        final ObjectTracker tracker = new ObjectTracker(3);
+        for (int frame = 0; frame < 5; ++frame) {
+            assertTrue(tracker.shouldDetect(at(frame)));
+            tracker.update(x1, y1, x2, y2, scores, classes, 0, at(frame));
+        }
+        assertEquals(1, tracker.getDetectionInterval());
+    }
+
+    @Test
+    public void fastMotion_forcesDetection() {
+        final ObjectTracker tracker = new ObjectTracker(8);
+        for (int frame = 0; frame < 6; ++frame) {
+            box(0, 0, 100 + 12 * frame, 100, 40);
+            tracker.update(x1, y1, x2, y2, scores, classes, 1, at(frame));
+        }
+        assertTrue(tracker.getDetectionInterval() > 2);
+        // 12 px a frame on a 40 px box passes half its size two frames later
+        assertFalse(tracker.shouldDetect(at(6)));
+        assertTrue(tracker.shouldDetect(at(7)));
+    }
+
+    @Test
+    public void noSkip_detectsEveryFrame() {
+        final ObjectTracker tracker = new ObjectTracker(0);
+        box(0, 0, 100, 100, 80);
+        for (int frame = 0; frame < 10; ++frame) {
+            assertTrue(tracker.shouldDetect(at(frame)));
+            tracker.update(x1, y1, x2, y2, scores, classes, 1, at(frame));
+        }
+        assertEquals(0.0, tracker.getSkipRatio(), 0.0);
+    }
+}
@@ -0,0 +1,141 @@
+package com.example.yolodetector.core;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks sequencing and isolation of {@link ResultPublisher} snapshots, and that a reader racing
+ * the producer only ever sees whole frames.
+ */
+public class ResultPublisherTest {
+
+    @Test
+    public void beforeFirstFrame_isEmpty() {
+        final ResultPublisher publisher = new ResultPublisher();
+        assertSame(ResultSnapshot.EMPTY, publisher.latest());
+        assertEquals(0, publisher.latest().getSequence());
+        assertEquals(0, publisher.latest().size());
+    }
+
+    @Test
+    public void publish_numbersSnapshotsInOrder() {
+        final ResultPublisher publisher = new ResultPublisher();
+        final DetectionBatch batch = new DetectionBatch(4);
+        batch.add(1, 0.5f, 0, 0, 10, 10, DetectionBatch.NO_TRACK);
+        final ResultSnapshot first = publisher.publish(batch, 100, 200, 416, 416);
+        final ResultSnapshot second = publisher.publish(batch, 133, 233, 416, 416);
+        assertEquals(1, first.getSequence());
+        assertEquals(2, second.getSequence());
+        assertSame(second, publisher.latest());
+        assertEquals(133, second.getFrameTimestampNanos());
+        assertEquals(233, second.getCaptureNanos());
+        assertEquals(416, second.getSourceWidth());
+    }
+
+    @Test
+    public void snapshot_isUnaffectedByRefillingBatch() {
+        final ResultPublisher publisher = new ResultPublisher();
+        final DetectionBatch batch = new DetectionBatch(4);
+        batch.add(3, 0.8f, 1, 2, 3, 4, 7);
+        final ResultSnapshot snapshot = publisher.publish(batch, 0, 0, 416, 416);
+        batch.clear();
+        batch.add(9, 0.1f, 5, 6, 7, 8, DetectionBatch.NO_TRACK);
+        batch.add(9, 0.1f, 5, 6, 7, 8, DetectionBatch.NO_TRACK);
+        assertEquals(1, snapshot.size());
+        assertEquals(3, snapshot.getId(0));
+        assertEquals(0.8f, snapshot.getScore(0), 0f);
+        assertEquals(4f, snapshot.getY2(0), 0f);
+        assertEquals(7, snapshot.getTrackId(0));
+
+        final DetectionBatch copy = new DetectionBatch(4);
+        snapshot.copyTo(copy);
+        assertEquals(1, copy.size());
+        assertEquals(3, copy.ids[0]);
+    }
+
+    @Test
+    public void latestAfter_skipsHandledSnapshots() {
+        final ResultPublisher publisher = new ResultPublisher();
+        final DetectionBatch batch = new DetectionBatch(1);
+        assertNull(publisher.latestAfter(0));
+        publisher.publish(batch, 0, 0, 416, 416);
+        final ResultSnapshot snapshot = publisher.latestAfter(0);
+        assertNotNull(snapshot);
+        assertNull(publisher.latestAfter(snapshot.getSequence()));
+    }
+
+    @Test
+    public void clear_dropsResultsButKeepsCounting() {
+        final ResultPublisher publisher = new ResultPublisher();
+        final DetectionBatch batch = new DetectionBatch(1);
+        batch.add(1, 0.5f, 0, 0, 10, 10, DetectionBatch.NO_TRACK);
+        final ResultSnapshot seen = publisher.publish(batch, 100, 200, 416, 416);
+        publisher.clear();
+        final ResultSnapshot cleared = publisher.latest();
+        assertEquals(0, cleared.size());
+        assertEquals(0, cleared.getCaptureNanos());
+        assertTrue(cleared.getSequence() > seen.getSequence());
+        assertTrue(publisher.publish(batch, 133, 233, 416, 416).getSequence() > cleared.getSequence());
+    }
+
+    @Test
+    public void concurrentReader_seesOnlyWholeFrames() throws InterruptedException {
+        final ResultPublisher publisher = new ResultPublisher();
+        final AtomicReference<String> failure = new AtomicReference<>();
+        final int frames = 50_000;
+        final Thread reader = new Thread(() -> {
+            long seen = 0;
+            while (seen < frames && failure.get() == null) {
+                final ResultSnapshot snapshot = publisher.latest();
+                if (snapshot.getSequence() < seen) {
+                    failure.set("Sequence went back from " + seen + " to " + snapshot.getSequence());
+                }
+                seen = snapshot.getSequence();
+                // Every field of frame n holds n
+                for (int i = 0; i < snapshot.size(); ++i) {
+                    if (snapshot.getId(i) != (int) seen || snapshot.getX2(i) != seen
+                            || snapshot.getFrameTimestampNanos() != seen) {
+                        failure.set("Torn frame " + seen);
+                    }
+                }
+                if (snapshot.size() != (int) (seen % 4)) {
+                    failure.set("Frame " + seen + " has " + snapshot.size() + " detections");
+                }
+            }
+        });
+        reader.start();
+        final DetectionBatch batch = new DetectionBatch(4);
+        for (int n = 1; n <= frames; ++n) {
+            batch.clear();
+            for (int i = 0; i < n % 4; ++i) {
+                batch.add(n, 1f, n, n, n, n, n);
+            }
+            publisher.publish(batch, n, n, 416, 416);
+        }
+        reader.join(10_000);
+        assertNull(failure.get(), failure.get());
+        assertEquals(frames, publisher.latest().getSequence());
+    }
+
+    @Test
+    public void subscriber_receivesEveryFrameUntilUnsubscribed() {
+        final ResultPublisher publisher = new ResultPublisher();
+        final DetectionBatch batch = new DetectionBatch(1);
+        final List<Long> received = new ArrayList<>();
+        final ResultPublisher.Subscriber subscriber = results -> received.add(results.getFrameTimestampNanos());
+        publisher.publish(batch, 10, 10, 416, 416);
+        publisher.subscribe(subscriber);
+        publisher.publish(batch, 20, 20, 416, 416);
+        publisher.publish(batch, 30, 30, 416, 416);
+        publisher.unsubscribe(subscriber);
+        publisher.publish(batch, 40, 40, 416, 416);
+        assertEquals(2, received.size());
+        assertEquals(20L, (long) received.get(0));
+        assertEquals(30L, (long) received.get(1));
+    }
+}
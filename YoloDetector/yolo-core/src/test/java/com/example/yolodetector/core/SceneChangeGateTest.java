@@ -0,0 +1,133 @@
+package com.example.yolodetector.core;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks {@link SceneChangeGate} on synthetic 640x480 luma planes with row padding.
+ */
+public class SceneChangeGateTest {
+
+    private static final int WIDTH = 640;
+    private static final int HEIGHT = 480;
+    private static final int ROW_STRIDE = 704;
+    private static final long FRAME_NANOS = 33_333_333L;
+
+    /** A textured scene, with an optional bright square and per-pixel noise */
+    private static ByteBuffer frame(int squareLeft, int noise, long seed) {
+        final Random random = new Random(seed);
+        final ByteBuffer luma = ByteBuffer.allocateDirect(ROW_STRIDE * HEIGHT);
+        for (int y = 0; y < HEIGHT; ++y) {
+            for (int x = 0; x < WIDTH; ++x) {
+                int value = (x / 8 + y / 8) % 2 == 0 ? 60 : 140;
+                if (squareLeft >= 0 && x >= squareLeft && x < squareLeft + 160 && y >= 160 && y < 320) {
+                    value = 250;
+                }
+                if (noise > 0) {
+                    value += random.nextInt(2 * noise + 1) - noise;
+                }
+                luma.put(y * ROW_STRIDE + x, (byte) Math.max(0, Math.min(255, value)));
+            }
+        }
+        return luma;
+    }
+
+    private static boolean decide(SceneChangeGate gate, ByteBuffer luma, int frame) {
+        final boolean infer = gate.shouldInfer(luma, WIDTH, HEIGHT, ROW_STRIDE, frame * FRAME_NANOS);
+        if (infer) {
+            gate.onInferred();
+        }
+        return infer;
+    }
+
+    @Test
+    public void firstFrame_isInferred() {
+        final SceneChangeGate gate = new SceneChangeGate(32, 24);
+        assertTrue(decide(gate, frame(-1, 0, 0), 0));
+        assertTrue(Float.isNaN(gate.getLastDifference()));
+    }
+
+    @Test
+    public void noisyStaticScene_isSkipped() {
+        final SceneChangeGate gate = new SceneChangeGate(32, 24);
+        assertTrue(decide(gate, frame(100, 3, 0), 0));
+        for (int i = 1; i < 10; ++i) {
+            assertFalse(decide(gate, frame(100, 3, i), i));
+            assertTrue(gate.getLastDifference() < 4f);
+        }
+        assertEquals(0.9, gate.getSkipRatio(), 1e-9);
+    }
+
+    @Test
+    public void movedObject_isInferred() {
+        final SceneChangeGate gate = new SceneChangeGate(32, 24);
+        assertTrue(decide(gate, frame(100, 0, 0), 0));
+        assertTrue(decide(gate, frame(300, 0, 0), 1));
+        assertTrue(gate.getLastDifference() > 4f);
+    }
+
+    @Test
+    public void slowDrift_addsUpAgainstReference() {
+        final SceneChangeGate gate = new SceneChangeGate(32, 24);
+        gate.setThreshold(10f);
+        assertTrue(decide(gate, frame(100, 0, 0), 0));
+        int inferred = 0;
+        for (int i = 1; i <= 20; ++i) {
+            if (decide(gate, frame(100 + 10 * i, 0, 0), i)) {
+                ++inferred;
+            }
+        }
+        // Each step alone is under the threshold, but the offset from the reference is not
+        assertTrue(inferred > 0);
+        assertTrue(inferred < 20);
+    }
+
+    @Test
+    public void oldReference_isRefreshed() {
+        final SceneChangeGate gate = new SceneChangeGate(32, 24);
+        gate.setMaxReuseNanos(5 * FRAME_NANOS);
+        final ByteBuffer scene = frame(100, 0, 0);
+        assertTrue(decide(gate, scene, 0));
+        for (int i = 1; i <= 5; ++i) {
+            assertFalse(decide(gate, scene, i));
+        }
+        assertTrue(decide(gate, scene, 6));
+        assertFalse(decide(gate, scene, 7));
+    }
+
+    @Test
+    public void zeroThreshold_infersAnySampledChange() {
+        final SceneChangeGate gate = new SceneChangeGate(16, 12);
+        gate.setThreshold(0f);
+        assertTrue(decide(gate, frame(100, 0, 0), 0));
+        assertFalse(decide(gate, frame(100, 0, 0), 1));
+        assertTrue(decide(gate, frame(120, 0, 0), 2));
+    }
+
+    @Test
+    public void reset_infersNextFrame() {
+        final SceneChangeGate gate = new SceneChangeGate(32, 24);
+        final ByteBuffer scene = frame(100, 0, 0);
+        assertTrue(decide(gate, scene, 0));
+        assertFalse(decide(gate, scene, 1));
+        gate.reset();
+        assertTrue(decide(gate, scene, 2));
+    }
+
+    @Test
+    public void reset_onStillScene_infersOnceThenSkipsAgain() {
+        // What ImageDetector.resizeInput relies on: the camera sees the same scene across a resize
+        final SceneChangeGate gate = new SceneChangeGate(32, 24);
+        assertTrue(decide(gate, frame(100, 2, 0), 0));
+        assertFalse(decide(gate, frame(100, 2, 1), 1));
+        gate.reset();
+        assertTrue(decide(gate, frame(100, 2, 2), 2));
+        assertFalse(decide(gate, frame(100, 2, 3), 3));
+        assertEquals(2, gate.getFramesPassed());
+        assertEquals(2, gate.getFramesSkipped());
+    }
+}
@@ -0,0 +1,60 @@
+package com.example.yolodetector.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class StartupTimelineTest {
+
+    @Test
+    public void phase_isMeasuredFromTheOrigin() {
+        final StartupTimeline timeline = new StartupTimeline(1_000);
+        timeline.begin(StartupTimeline.Phase.MODEL_MAP, 1_500);
+        timeline.end(StartupTimeline.Phase.MODEL_MAP, 4_000);
+        assertEquals(500, timeline.getBeginNanos(StartupTimeline.Phase.MODEL_MAP));
+        assertEquals(3_000, timeline.getEndNanos(StartupTimeline.Phase.MODEL_MAP));
+        assertEquals(2_500, timeline.getDurationNanos(StartupTimeline.Phase.MODEL_MAP));
+    }
+
+    @Test
+    public void unfinishedPhase_hasNoDuration() {
+        final StartupTimeline timeline = new StartupTimeline(0);
+        assertEquals(-1, timeline.getBeginNanos(StartupTimeline.Phase.CAMERA_OPEN));
+        timeline.begin(StartupTimeline.Phase.CAMERA_OPEN, 10);
+        assertFalse(timeline.hasEnded(StartupTimeline.Phase.CAMERA_OPEN));
+        assertEquals(-1, timeline.getDurationNanos(StartupTimeline.Phase.CAMERA_OPEN));
+        assertFalse(timeline.describe().contains("camera_open"));
+    }
+
+    @Test
+    public void milestone_countsFromTheOrigin() {
+        final StartupTimeline timeline = new StartupTimeline(100);
+        timeline.end(StartupTimeline.Phase.FIRST_SPEECH, 2_100);
+        assertEquals(0, timeline.getBeginNanos(StartupTimeline.Phase.FIRST_SPEECH));
+        assertEquals(2_000, timeline.getDurationNanos(StartupTimeline.Phase.FIRST_SPEECH));
+    }
+
+    @Test
+    public void repeatedPhase_keepsTheFirstRun() {
+        final StartupTimeline timeline = new StartupTimeline(0);
+        timeline.end(StartupTimeline.Phase.FIRST_RESULT, 50);
+        timeline.end(StartupTimeline.Phase.FIRST_RESULT, 90);
+        timeline.begin(StartupTimeline.Phase.WARM_UP, 10);
+        timeline.begin(StartupTimeline.Phase.WARM_UP, 20);
+        timeline.end(StartupTimeline.Phase.WARM_UP, 30);
+        assertEquals(50, timeline.getEndNanos(StartupTimeline.Phase.FIRST_RESULT));
+        assertEquals(20, timeline.getDurationNanos(StartupTimeline.Phase.WARM_UP));
+    }
+
+    @Test
+    public void describe_listsEndedPhasesInOrder() {
+        final StartupTimeline timeline = new StartupTimeline(0);
+        timeline.begin(StartupTimeline.Phase.TTS_INIT, 0);
+        timeline.end(StartupTimeline.Phase.TTS_INIT, 3_000_000);
+        timeline.begin(StartupTimeline.Phase.MODEL_MAP, 0);
+        timeline.end(StartupTimeline.Phase.MODEL_MAP, 1_500_000);
+        final String text = timeline.describe();
+        assertTrue(text, text.contains("model_map: 1.5 ms (0.0-1.5 ms)"));
+        assertTrue(text, text.indexOf("model_map") < text.indexOf("tts_init"));
+    }
+}
@@ -0,0 +1,213 @@
+package com.example.yolodetector.core;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Round-trips tensors through {@link TensorRecorder} and {@link TensorRecording}, and replays a
+ * synthetic session through {@link ReplayDriver}.
+ */
+public class TensorRecordingTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static ByteBuffer filled(int size, int seed) {
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(size);
+        for (int i = 0; i < size; ++i) {
+            buffer.put(i, (byte) (seed * 31 + i));
+        }
+        return buffer;
+    }
+
+    /** A tiny YOLOv2 output with a few confident boxes, little-endian like the device's */
+    private static ByteBuffer syntheticOutput(MultiHeadDecoder decoder, long seed) {
+        final Random random = new Random(seed);
+        final ByteBuffer out = ByteBuffer.allocateDirect(decoder.getOutputSize(0) * 4).order(ByteOrder.LITTLE_ENDIAN);
+        for (int box = 0; box < decoder.getCapacity(); ++box) {
+            final int offset = box * 85;
+            for (int k = 0; k < 4; ++k) {
+                out.putFloat((offset + k) * 4, (float) random.nextGaussian());
+            }
+            out.putFloat((offset + 4) * 4, random.nextInt(20) == 0
+                    ? (float) (random.nextGaussian() * 2)
+                    : (float) (random.nextGaussian() * 2 - 7));
+            for (int c = 0; c < 80; ++c) {
+                out.putFloat((offset + 5 + c) * 4, (float) (random.nextGaussian() * 3));
+            }
+        }
+        return out;
+    }
+
+    private static final ModelDescriptor TINY_YOLOV2 = new ModelDescriptor("tiny-yolov2-coco", 80,
+            ModelDescriptor.Layout.CELL_ANCHOR, ModelDescriptor.Activation.SOFTMAX, new int[] {32},
+            new double[][] {{
+                    0.57273, 0.677385,
+                    1.87446, 2.06253,
+                    3.33843, 5.47434,
+                    7.88282, 3.52778,
+                    9.77052, 9.16828
+            }});
+
+    private static MultiHeadDecoder newDecoder() {
+        return new MultiHeadDecoder(TINY_YOLOV2, 416, 416);
+    }
+
+    @Test
+    public void frames_roundTripAcrossChunks() throws IOException {
+        final File file = folder.newFile();
+        final int chunkBytes = 3 * TensorRecording.recordBytes(16, 40);
+        try (TensorRecorder recorder = new TensorRecorder(file, 16, 40, TensorRecording.TYPE_UINT8,
+                0.25f, 7, "tiny_model_quant.tflite", chunkBytes)) {
+            for (int i = 0; i < 8; ++i) {
+                recorder.append(1000L * i, 10L + i, filled(16, i), filled(40, 100 + i));
+            }
+            assertEquals(8, recorder.getFrameCount());
+        }
+        assertEquals(TensorRecording.HEADER_BYTES + 8 * TensorRecording.recordBytes(16, 40), file.length());
+
+        try (TensorRecording recording = new TensorRecording(file, chunkBytes)) {
+            assertEquals(8, recording.getFrameCount());
+            assertEquals("tiny_model_quant.tflite", recording.getModelName());
+            assertTrue(recording.isQuantized());
+            assertEquals(0.25f, recording.getOutputScale(), 0f);
+            assertEquals(7, recording.getOutputZeroPoint());
+            // Out of order, so chunks are remapped both ways
+            for (int i : new int[] {7, 0, 4, 3, 6, 1, 2, 5}) {
+                assertEquals(i, recording.getSequence(i));
+                assertEquals(1000L * i, recording.getTimestampNanos(i));
+                assertEquals(10L + i, recording.getInferenceNanos(i));
+                assertEquals(filled(16, i), recording.getInput(i));
+                assertEquals(filled(40, 100 + i), recording.getOutput(i));
+            }
+        }
+    }
+
+    @Test
+    public void outputsOnly_haveEmptyInputs() throws IOException {
+        final File file = folder.newFile();
+        try (TensorRecorder recorder = new TensorRecorder(file, 0, 12, TensorRecording.TYPE_FLOAT32,
+                0f, 0, "tiny_model.tflite")) {
+            recorder.append(5L, 6L, null, filled(12, 1));
+        }
+        try (TensorRecording recording = new TensorRecording(file)) {
+            assertEquals(1, recording.getFrameCount());
+            assertEquals(0, recording.getInput(0).remaining());
+            assertEquals(filled(12, 1), recording.getOutput(0));
+        }
+    }
+
+    @Test
+    public void unclosedRecording_keepsCompleteRecords() throws IOException {
+        final File file = folder.newFile();
+        final TensorRecorder recorder = new TensorRecorder(file, 8, 8, TensorRecording.TYPE_FLOAT32,
+                0f, 0, "tiny_model.tflite", 1 << 16);
+        try {
+            for (int i = 0; i < 3; ++i) {
+                recorder.append(i, i, filled(8, i), filled(8, i));
+            }
+            // As if the app died here: the mapped chunk is padded with zeros past the last record
+            assertTrue(file.length() > recorder.getSizeBytes());
+            try (TensorRecording recording = new TensorRecording(file)) {
+                assertEquals(3, recording.getFrameCount());
+                assertEquals(filled(8, 2), recording.getOutput(2));
+            }
+        } finally {
+            recorder.close();
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void otherFile_isRejected() throws IOException {
+        final File file = folder.newFile();
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.write(new byte[TensorRecording.HEADER_BYTES]);
+        }
+        new TensorRecording(file).close();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void wrongOutputSize_isRejected() throws IOException {
+        try (TensorRecorder recorder = new TensorRecorder(folder.newFile(), 0, 12,
+                TensorRecording.TYPE_FLOAT32, 0f, 0, "tiny_model.tflite")) {
+            recorder.append(0L, 0L, null, filled(16, 0));
+        }
+    }
+
+    private File recordSession(MultiHeadDecoder decoder, int frames) throws IOException {
+        final File file = folder.newFile();
+        try (TensorRecorder recorder = new TensorRecorder(file, 0, decoder.getOutputSize(0) * 4,
+                TensorRecording.TYPE_FLOAT32, 0f, 0, "tiny_model.tflite")) {
+            for (int i = 0; i < frames; ++i) {
+                recorder.append(i, 0L, null, syntheticOutput(decoder, i));
+            }
+        }
+        return file;
+    }
+
+    @Test
+    public void replay_gatedDecodeMatchesFullDecode() throws IOException {
+        try (TensorRecording recording = new TensorRecording(recordSession(newDecoder(), 5))) {
+            final MultiHeadDecoder full = newDecoder();
+            full.setEarlyRejection(false);
+            assertEquals(-1, ReplayDriver.findFirstMismatch(recording, full, newDecoder()));
+
+            final MultiHeadDecoder stricter = newDecoder();
+            stricter.setScoreThreshold(0.6f);
+            assertEquals(0, ReplayDriver.findFirstMismatch(recording, full, stricter));
+        }
+    }
+
+    @Test
+    public void replay_digestIsStable() throws IOException {
+        try (TensorRecording recording = new TensorRecording(recordSession(newDecoder(), 4))) {
+            final MultiHeadDecoder decoder = newDecoder();
+            final ReplayDriver driver = new ReplayDriver(recording, decoder,
+                    new NmsEngine(decoder.getCapacity(), 5, 0.5f));
+            final ReplayDriver.Stats first = driver.run(1);
+            final ReplayDriver.Stats second = driver.run(3);
+            assertEquals(4, first.frames);
+            assertEquals(12, second.frames);
+            assertTrue(first.kept > 0);
+            assertEquals(first.digest, second.digest);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void replay_rejectsOtherGeometry() throws IOException {
+        try (TensorRecording recording = new TensorRecording(recordSession(newDecoder(), 1))) {
+            final MultiHeadDecoder wider = new MultiHeadDecoder(TINY_YOLOV2, 608, 608);
+            new ReplayDriver(recording, wider, new NmsEngine(wider.getCapacity(), 5, 0.5f));
+        }
+    }
+
+    @Test
+    public void replay_decoderFromDescriptor() throws IOException {
+        try (TensorRecording recording = new TensorRecording(recordSession(newDecoder(), 3))) {
+            final MultiHeadDecoder decoder = ReplayDriver.newDecoder(recording, TINY_YOLOV2);
+            assertEquals(13, decoder.getGridWidth(0));
+            assertEquals(13, decoder.getGridHeight(0));
+            assertEquals(-1, ReplayDriver.findFirstMismatch(recording, newDecoder(), decoder));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void replay_descriptorOfOtherModel_isRejected() throws IOException {
+        final ModelDescriptor threeAnchors = new ModelDescriptor("three-anchors", 80,
+                ModelDescriptor.Layout.CELL_ANCHOR, ModelDescriptor.Activation.SOFTMAX, new int[] {32},
+                new double[][] {{1, 1, 2, 2, 3, 3}});
+        try (TensorRecording recording = new TensorRecording(recordSession(newDecoder(), 1))) {
+            ReplayDriver.newDecoder(recording, threeAnchors);
+        }
+    }
+}
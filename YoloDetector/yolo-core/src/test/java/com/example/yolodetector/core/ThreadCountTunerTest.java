@@ -0,0 +1,85 @@
+package com.example.yolodetector.core;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class ThreadCountTunerTest {
+
+    /** Replays a latency per thread count; every tenth run of a count can be a slow outlier */
+    private static final class FakeModel implements ThreadCountTuner.Benchmark {
+        final List<Integer> configured = new ArrayList<>();
+        final long[] latencyMillis;
+        final long[] outlierMillis;
+        int threads;
+        int run;
+
+        FakeModel(long[] latencyMillis, long[] outlierMillis) {
+            this.latencyMillis = latencyMillis;
+            this.outlierMillis = outlierMillis;
+        }
+
+        @Override
+        public void setNumThreads(int numThreads) {
+            configured.add(numThreads);
+            threads = numThreads;
+            run = 0;
+        }
+
+        @Override
+        public long runOnceNanos() {
+            final long millis = run++ % 10 == 9 ? outlierMillis[threads] : latencyMillis[threads];
+            return millis * 1000000L;
+        }
+    }
+
+    @Test
+    public void tune_picksLowestMedian() {
+        final FakeModel model = new FakeModel(
+                new long[] {0, 100, 60, 0, 45, 0, 50}, new long[] {0, 100, 60, 0, 45, 0, 50});
+        final ThreadCountTuner tuner = new ThreadCountTuner(2, 10, ThreadCountTuner.Metric.P50);
+        final ThreadCountTuner.Result result = tuner.tune(new int[] {1, 2, 4, 6}, model);
+        assertEquals(4, result.bestNumThreads);
+        assertEquals(45000000L, result.p50Nanos[2]);
+        assertEquals(4, model.configured.size());
+    }
+
+    @Test
+    public void tune_p95AvoidsCountsWithSlowTails() {
+        // 4 threads has the best median but stalls now and then, e.g. on a little core
+        final long[] typical = {0, 100, 60, 0, 45};
+        final long[] outliers = {0, 100, 62, 0, 200};
+        final ThreadCountTuner.Result byMedian = new ThreadCountTuner(0, 10, ThreadCountTuner.Metric.P50)
+                .tune(new int[] {1, 2, 4}, new FakeModel(typical, outliers));
+        assertEquals(4, byMedian.bestNumThreads);
+        final ThreadCountTuner.Result byTail = new ThreadCountTuner(0, 10, ThreadCountTuner.Metric.P95)
+                .tune(new int[] {1, 2, 4}, new FakeModel(typical, outliers));
+        assertEquals(2, byTail.bestNumThreads);
+    }
+
+    @Test
+    public void tune_prefersFewerThreadsWithinTolerance() {
+        final long[] latency = {0, 100, 50, 0, 49};
+        final ThreadCountTuner.Result result = new ThreadCountTuner(0, 5, ThreadCountTuner.Metric.P50)
+                .tune(new int[] {1, 2, 4}, new FakeModel(latency, latency));
+        assertEquals(2, result.bestNumThreads);
+    }
+
+    @Test
+    public void defaultCandidates_fitTheCores() {
+        assertArrayEquals(new int[] {1, 2, 3, 4}, ThreadCountTuner.defaultCandidates(4));
+        assertArrayEquals(new int[] {1, 2, 3, 4, 6, 8}, ThreadCountTuner.defaultCandidates(8));
+        assertArrayEquals(new int[] {1}, ThreadCountTuner.defaultCandidates(0));
+    }
+
+    @Test
+    public void percentile_usesNearestRank() {
+        final long[] sorted = {1, 2, 3, 4, 5, 6, 7, 8, 9, 10};
+        assertEquals(5, ThreadCountTuner.percentile(sorted, 0.5));
+        assertEquals(10, ThreadCountTuner.percentile(sorted, 0.95));
+        assertEquals(1, ThreadCountTuner.percentile(new long[] {1}, 0.95));
+    }
+}
@@ -0,0 +1,98 @@
+package com.example.yolodetector.core;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks {@link TopKSelector} against a full sort, and that selecting allocates nothing.
+ */
+public class TopKSelectorTest {
+
+    @Test
+    public void select_matchesFullSort() {
+        final Random random = new Random(3);
+        final TopKSelector selector = new TopKSelector(3);
+        for (int trial = 0; trial < 200; ++trial) {
+            final float[] probabilities = new float[80];
+            for (int i = 0; i < probabilities.length; ++i) {
+                probabilities[i] = random.nextInt(4) == 0 ? random.nextFloat() : 0f;
+            }
+            final float[] sorted = probabilities.clone();
+            Arrays.sort(sorted);
+            assertEquals(3, selector.select(probabilities, probabilities.length));
+            for (int r = 0; r < 3; ++r) {
+                assertEquals(sorted[sorted.length - 1 - r], selector.values[r], 0f);
+                assertEquals(selector.values[r], probabilities[selector.indices[r]], 0f);
+            }
+        }
+    }
+
+    @Test
+    public void ties_keepLowerIndexFirst() {
+        final TopKSelector selector = new TopKSelector(2);
+        selector.select(new float[] {0.5f, 0.9f, 0.5f, 0.9f}, 4);
+        assertArrayEquals(new int[] {1, 3}, selector.indices);
+        selector.select(new float[] {0f, 0f, 0f}, 3);
+        assertArrayEquals(new int[] {0, 1}, selector.indices);
+    }
+
+    @Test
+    public void fewerValuesThanK_selectsAll() {
+        final TopKSelector selector = new TopKSelector(5);
+        assertEquals(2, selector.select(new float[] {0.1f, 0.7f, 0.3f}, 2));
+        assertEquals(2, selector.getCount());
+        assertEquals(1, selector.indices[0]);
+        assertEquals(0, selector.indices[1]);
+    }
+
+    @Test
+    public void nan_isSkipped() {
+        final TopKSelector selector = new TopKSelector(2);
+        assertEquals(2, selector.select(new float[] {Float.NaN, 0.2f, 0.4f}, 3));
+        assertArrayEquals(new int[] {2, 1}, selector.indices);
+    }
+
+    @Test
+    public void select_allocatesNothing() {
+        final java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        Assume.assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+        final long thread = Thread.currentThread().getId();
+
+        final Random random = new Random(5);
+        final float[] probabilities = new float[80];
+        for (int i = 0; i < probabilities.length; ++i) {
+            probabilities[i] = random.nextFloat();
+        }
+        final TopKSelector selector = new TopKSelector(3);
+        // Warm up so the measured calls run compiled
+        int sink = 0;
+        for (int i = 0; i < 20_000; ++i) {
+            sink += selector.select(probabilities, probabilities.length);
+        }
+        // What reading the counter itself costs
+        final long overhead = -threads.getThreadAllocatedBytes(thread) + threads.getThreadAllocatedBytes(thread);
+
+        // The JVM can charge the odd allocation of its own to this thread, e.g. while a GC or
+        // compilation runs, so only a window that never gets to zero means select() allocates
+        long allocated = Long.MAX_VALUE;
+        for (int window = 0; window < 5 && allocated > 0; ++window) {
+            final long before = threads.getThreadAllocatedBytes(thread);
+            for (int i = 0; i < 10_000; ++i) {
+                probabilities[i % probabilities.length] = (i % 97) / 97f;
+                sink += selector.select(probabilities, probabilities.length);
+            }
+            allocated = Math.min(allocated, threads.getThreadAllocatedBytes(thread) - before - overhead);
+        }
+        assertTrue(sink > 0);
+        assertTrue("Allocated " + allocated + " bytes in every window", allocated <= 0);
+    }
+}
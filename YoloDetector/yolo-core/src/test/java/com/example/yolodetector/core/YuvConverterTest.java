@@ -0,0 +1,88 @@
+package com.example.yolodetector.core;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class YuvConverterTest {
+
+    /** A 4x2 frame whose luma encodes the position, y * 4 + x, scaled; neutral chroma */
+    private static void loadGradient(YuvConverter converter, int rotation) {
+        final byte[] y = new byte[8];
+        for (int i = 0; i < y.length; ++i) {
+            y[i] = (byte) (i * 10);
+        }
+        final byte[] uv = {(byte) 128, (byte) 128};
+        converter.setFrame(ByteBuffer.wrap(y), ByteBuffer.wrap(uv), ByteBuffer.wrap(uv),
+                4, 2, 4, 2, 1, rotation);
+    }
+
+    private static int[] lumaOf(YuvConverter converter) {
+        final int w = converter.getOutWidth();
+        final int[] luma = new int[w * converter.getOutHeight()];
+        final byte[] row = new byte[w * 3];
+        for (int oy = 0; oy < converter.getOutHeight(); ++oy) {
+            converter.convertRow(oy, row);
+            for (int ox = 0; ox < w; ++ox) {
+                assertEquals(row[3 * ox], row[3 * ox + 1]);
+                assertEquals(row[3 * ox], row[3 * ox + 2]);
+                luma[oy * w + ox] = (row[3 * ox] & 0xFF) / 10;
+            }
+        }
+        return luma;
+    }
+
+    @Test
+    public void convertRow_centerCropsWithoutRotation() {
+        final YuvConverter converter = new YuvConverter(2, 2);
+        loadGradient(converter, 0);
+        assertArrayEquals(new int[] {1, 2, 5, 6}, lumaOf(converter));
+    }
+
+    @Test
+    public void convertRow_rotatesClockwise() {
+        final YuvConverter converter = new YuvConverter(2, 2);
+        loadGradient(converter, 90);
+        // the upright frame's top row is the sensor's column read bottom to top
+        assertArrayEquals(new int[] {5, 1, 6, 2}, lumaOf(converter));
+        loadGradient(converter, 180);
+        assertArrayEquals(new int[] {6, 5, 2, 1}, lumaOf(converter));
+        loadGradient(converter, 270);
+        assertArrayEquals(new int[] {2, 6, 1, 5}, lumaOf(converter));
+    }
+
+    @Test
+    public void convertRow_convertsColorAndNormalizes() {
+        final YuvConverter converter = new YuvConverter(1, 1);
+        // BT.601 full range red
+        converter.setFrame(ByteBuffer.wrap(new byte[] {76, 76, 76, 76}),
+                ByteBuffer.wrap(new byte[] {85}), ByteBuffer.wrap(new byte[] {(byte) 255}),
+                2, 2, 2, 1, 1, 0);
+        final byte[] raw = new byte[3];
+        converter.convertRow(0, raw);
+        assertEquals(254, raw[0] & 0xFF, 2);
+        assertEquals(0, raw[1] & 0xFF, 2);
+        assertEquals(0, raw[2] & 0xFF, 2);
+
+        final float[] unit = ImagePreprocessor.NormalizationSpec.UNIT.buildTable(0);
+        final float[] row = new float[3];
+        converter.convertRow(0, row, unit, unit, unit);
+        assertEquals((raw[0] & 0xFF) / 255f, row[0], 0f);
+        assertEquals(0f, row[2], 0f);
+    }
+
+    @Test
+    public void preprocessor_convertsYuvFramesIntoTensor() {
+        final YuvConverter converter = new YuvConverter(2, 2);
+        loadGradient(converter, 0);
+        final ImagePreprocessor preprocessor =
+                new ImagePreprocessor(2, 2, ImagePreprocessor.NormalizationSpec.UNIT, 2);
+        final ByteBuffer target = ByteBuffer.allocate(12);
+        preprocessor.process(converter, target);
+        assertEquals(10, target.get(0));
+        assertEquals(60, target.get(11));
+        preprocessor.close();
+    }
+}